@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2016-2018 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ */
+
+package net.kodehawa.mantarobot.commands.custom;
+
+import net.dv8tion.jda.core.events.message.guild.GuildMessageReceivedEvent;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Running a custom command response with {@link CustomTemplate}, against the old Mapifier map and regex resolver
+ * ({@link CustomTemplateFixtures#legacyResolve}). The template is compiled once, like it is when the commands of a guild are loaded.
+ * <p>
+ * The event comes from {@link CustomTemplateFixtures}, its getters are proxies and cost more than JDA's, which makes the old resolver
+ * (that calls every one of them) look a bit worse than it is.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CustomTemplateBenchmark {
+    @Param({"text", "greeting", "embed", "condition", "search", "mixed"})
+    public String shape;
+
+    private String source;
+    private CustomTemplate template;
+    private GuildMessageReceivedEvent event;
+
+    @Setup
+    public void setup() {
+        switch(shape) {
+            case "text":
+                source = "**Rules**\n1. Be nice.\n2. No spam or advertising.\n3. NSFW only on the designated channels.\n4. Have fun!";
+                break;
+            case "greeting":
+                source = "Welcome to $(event.guild.name), $(event.author.mention)! We're $(event.guild.totalusers) now.";
+                break;
+            case "embed":
+                source = "embed:{\"title\": \"$(event.author.name)'s card\", \"description\": \"$(event.message)\", " +
+                        "\"thumbnail\": \"$(event.author.avatar)\", \"footer\": \"Requested on #$(event.channel.name)\"}";
+                break;
+            case "condition":
+                source = "@if{$(event.message);ignorecase-equals;hi;Hello $(event.author.name)!;@nes{$(event.message);Say something!}}";
+                break;
+            case "search":
+                source = "https://www.google.com/search?q=@url{$(event.message)}";
+                break;
+            case "mixed":
+                source = "$(event.author.name)#$(event.author.discriminator) ($(event.author.status)) hugs @ne{$(event.message);themselves}! " +
+                        "@if{$(event.author.id);equals;$(event.guild.owner.id);The owner is in a good mood.;} $(event.author.name) is now " +
+                        "playing $(event.author.game) on $(event.channel).";
+                break;
+            default:
+                throw new IllegalArgumentException(shape);
+        }
+
+        template = CustomTemplate.compile(source);
+        event = CustomTemplateFixtures.event("~>hug Hi");
+    }
+
+    @Benchmark
+    public String legacy() {
+        return CustomTemplateFixtures.legacyResolve(source, event);
+    }
+
+    @Benchmark
+    public String template() {
+        return template.evaluate(event);
+    }
+
+    @Benchmark
+    public CustomTemplate compile() {
+        return CustomTemplate.compile(source);
+    }
+}
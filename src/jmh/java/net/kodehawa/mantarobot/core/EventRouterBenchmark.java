@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2016-2018 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ */
+
+package net.kodehawa.mantarobot.core;
+
+import net.dv8tion.jda.core.events.*;
+import net.dv8tion.jda.core.events.guild.*;
+import net.dv8tion.jda.core.events.guild.member.GuildMemberJoinEvent;
+import net.dv8tion.jda.core.events.guild.member.GuildMemberLeaveEvent;
+import net.dv8tion.jda.core.events.guild.member.GuildMemberRoleAddEvent;
+import net.dv8tion.jda.core.events.guild.voice.GuildVoiceJoinEvent;
+import net.dv8tion.jda.core.events.guild.voice.GuildVoiceLeaveEvent;
+import net.dv8tion.jda.core.events.guild.voice.GuildVoiceMoveEvent;
+import net.dv8tion.jda.core.events.guild.voice.GuildVoiceMuteEvent;
+import net.dv8tion.jda.core.events.http.HttpRequestEvent;
+import net.dv8tion.jda.core.events.message.guild.GuildMessageDeleteEvent;
+import net.dv8tion.jda.core.events.message.guild.GuildMessageReceivedEvent;
+import net.dv8tion.jda.core.events.message.guild.GuildMessageUpdateEvent;
+import net.dv8tion.jda.core.events.message.react.MessageReactionAddEvent;
+import net.dv8tion.jda.core.events.message.react.MessageReactionRemoveAllEvent;
+import net.dv8tion.jda.core.events.message.react.MessageReactionRemoveEvent;
+import net.dv8tion.jda.core.hooks.IEventManager;
+import net.dv8tion.jda.core.hooks.InterfacedEventManager;
+import net.kodehawa.mantarobot.commands.custom.CustomTemplateFixtures;
+import net.kodehawa.mantarobot.core.listeners.TypedEventListener;
+import net.kodehawa.mantarobot.core.shard.watcher.ShardHeartbeats;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dispatching events to listeners with the same event types as the ones registered on every shard, with {@link MantaroEventManager} and
+ * with JDA's {@link InterfacedEventManager}, which calls every listener for every event like it used to.
+ * <p>
+ * The events are mostly presence updates and typing, which no listener handles, with about 10% messages. Listeners only check the type of
+ * the event, like the instanceof chains of the real ones, so this measures the dispatching and not what the listeners do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventRouterBenchmark {
+    private IEventManager routed;
+    private IEventManager interfaced;
+    private Event[] events;
+    private int index;
+
+    @Setup
+    public void setup() {
+        routed = new MantaroEventManager(0, new ShardHeartbeats(1));
+        interfaced = new InterfacedEventManager();
+        for(Listener listener : listeners()) {
+            routed.register(listener);
+            interfaced.register(listener);
+        }
+
+        Event message = CustomTemplateFixtures.event("hey, anyone around?");
+        Event presence = new PresenceUpdate(), typing = new Typing(), memberUpdate = new MemberUpdate();
+        Random random = new Random(42);
+        events = new Event[4096];
+        for(int i = 0; i < events.length; i++) {
+            int roll = random.nextInt(100);
+            events[i] = roll < 62 ? presence : roll < 84 ? typing : roll < 94 ? message : memberUpdate;
+        }
+    }
+
+    @Benchmark
+    public void routed() {
+        routed.handle(next());
+    }
+
+    @Benchmark
+    public void interfaced() {
+        interfaced.handle(next());
+    }
+
+    private Event next() {
+        return events[index++ & (events.length - 1)];
+    }
+
+    //Same types as MantaroListener, CommandListener, VoiceChannelListener, the interactive and reaction operations and ShardStats.
+    private static Listener[] listeners() {
+        return new Listener[]{
+                new Listener("MantaroListener", GuildMessageReceivedEvent.class, GuildMemberJoinEvent.class, GuildMemberLeaveEvent.class,
+                        GuildMemberRoleAddEvent.class, GuildMessageUpdateEvent.class, GuildMessageDeleteEvent.class, GuildUnbanEvent.class,
+                        GuildBanEvent.class, GuildJoinEvent.class, GuildLeaveEvent.class, StatusChangeEvent.class, DisconnectEvent.class,
+                        ExceptionEvent.class, HttpRequestEvent.class, ReconnectedEvent.class, ResumedEvent.class),
+                new Listener("CommandListener", GuildMessageReceivedEvent.class),
+                new Listener("VoiceChannelListener", GuildVoiceMoveEvent.class, GuildVoiceJoinEvent.class, GuildVoiceLeaveEvent.class,
+                        GuildVoiceMuteEvent.class),
+                new Listener("InteractiveOperations", GuildMessageReceivedEvent.class),
+                new Listener("ReactionOperations", MessageReactionAddEvent.class, MessageReactionRemoveEvent.class,
+                        MessageReactionRemoveAllEvent.class),
+                new Listener("ShardStats", ReadyEvent.class, ReconnectedEvent.class, GuildJoinEvent.class, GuildAvailableEvent.class,
+                        GuildLeaveEvent.class, GuildMemberJoinEvent.class, GuildMemberLeaveEvent.class, GuildVoiceJoinEvent.class,
+                        GuildVoiceLeaveEvent.class)
+        };
+    }
+
+    private static class Listener implements TypedEventListener {
+        private final String name;
+        private final Class<?>[] types;
+        private long handled;
+
+        Listener(String name, Class<?>... types) {
+            this.name = "Benchmark" + name;
+            this.types = types;
+        }
+
+        @Override
+        public Class<?>[] getEventTypes() {
+            return types;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void onEvent(Event event) {
+            for(Class<?> type : types) {
+                if(type.isInstance(event)) {
+                    handled++;
+                    return;
+                }
+            }
+        }
+    }
+
+    //Stand-ins for the events no listener handles, as JDA's need a real shard to be created.
+    private static class PresenceUpdate extends Event {
+        PresenceUpdate() {
+            super(null, 0);
+        }
+    }
+
+    private static class Typing extends Event {
+        Typing() {
+            super(null, 0);
+        }
+    }
+
+    private static class MemberUpdate extends Event {
+        MemberUpdate() {
+            super(null, 0);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2016-2018 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ */
+
+package net.kodehawa.mantarobot.core.processor;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prefix matching of {@link DefaultCommandProcessor}, in place, against lowercasing the whole message first like it used to.
+ * <p>
+ * The messages are mostly normal chat, with about 1% commands. The old path also fetched the DBGuild before checking anything, that
+ * isn't included here.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrefixMatchBenchmark {
+    private static final String[] PREFIXES = {"~>", "->"};
+    private static final String CUSTOM_PREFIX = "M!";
+
+    private static final String[] CHAT = {
+            "lol",
+            "gn everyone",
+            "Does anyone know how to fix the audio crackling on the new drivers?",
+            "<@155867458203287552> did you see the patch notes??",
+            "https://www.youtube.com/watch?v=dQw4w9WgXcQ",
+            "ok",
+            "I'm so tired of this boss, we wiped like 15 times yesterday and the healer kept disconnecting every other pull",
+            "😂😂😂",
+            "Ça va? On se retrouve à 20h sur le vocal",
+            "ЛОЛ это было смешно",
+            "-> that's what I meant",
+            "~ anyway",
+            "m8 that's not how it works",
+            "same",
+            "Has anyone tried the new map? The northern area has a secret room behind the waterfall, you need the key from the first dungeon " +
+                    "and then go left twice. I didn't believe it at first but it's real, there's a chest with the legendary bow in it.",
+            "brb",
+            "<:pepe:284813549364461569> <:pepe:284813549364461569>",
+            "WHAT",
+            "who's up for some games tonight",
+            "i think the bot is down again"
+    };
+
+    private static final String[] COMMANDS = {
+            "~>help",
+            "->ping",
+            "~>play never gonna give you up",
+            "~>daily",
+            "m!loot",
+            "~>rep <@155867458203287552>",
+            "->profile",
+            "M!marry <@213466096718708737>"
+    };
+
+    private String[] messages;
+    private int index;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        messages = new String[4096];
+        for(int i = 0; i < messages.length; i++) {
+            messages[i] = random.nextInt(100) == 0 ? COMMANDS[random.nextInt(COMMANDS.length)] : CHAT[random.nextInt(CHAT.length)];
+        }
+    }
+
+    @Benchmark
+    public String lowercase() {
+        String lowerRawCmd = next().toLowerCase();
+        String usedPrefix = null;
+        for(String s : PREFIXES) {
+            if(lowerRawCmd.startsWith(s)) usedPrefix = s;
+        }
+
+        if(usedPrefix == null && lowerRawCmd.startsWith(CUSTOM_PREFIX.toLowerCase()))
+            usedPrefix = CUSTOM_PREFIX;
+
+        return usedPrefix;
+    }
+
+    @Benchmark
+    public String inPlace() {
+        String rawCmd = next();
+        String usedPrefix = null;
+        for(String s : PREFIXES) {
+            if(DefaultCommandProcessor.startsWithIgnoreCase(rawCmd, s)) usedPrefix = s;
+        }
+
+        if(usedPrefix == null && DefaultCommandProcessor.startsWithIgnoreCase(rawCmd, CUSTOM_PREFIX))
+            usedPrefix = CUSTOM_PREFIX;
+
+        return usedPrefix;
+    }
+
+    private String next() {
+        return messages[index++ & (messages.length - 1)];
+    }
+}
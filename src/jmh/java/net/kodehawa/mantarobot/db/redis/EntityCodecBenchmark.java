@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2016-2018 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ */
+
+package net.kodehawa.mantarobot.db.redis;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.Unpooled;
+import net.kodehawa.mantarobot.commands.currency.profile.Badge;
+import net.kodehawa.mantarobot.db.ManagedObject;
+import net.kodehawa.mantarobot.db.entities.CustomCommand;
+import net.kodehawa.mantarobot.db.entities.DBGuild;
+import net.kodehawa.mantarobot.db.entities.DBUser;
+import net.kodehawa.mantarobot.db.entities.Player;
+import net.kodehawa.mantarobot.db.entities.PremiumKey;
+import net.kodehawa.mantarobot.db.entities.helpers.GuildData;
+import net.kodehawa.mantarobot.db.entities.helpers.PlayerData;
+import org.openjdk.jmh.annotations.*;
+import org.redisson.client.codec.Codec;
+import org.redisson.codec.JsonJacksonCodec;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding a guild and a player with {@link EntityCodec}, against the JSON codec the caches use by default.
+ * <p>
+ * The size of every entity with each codec gets printed before running, as bytes per entity.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntityCodecBenchmark {
+    @Param({"json", "binary"})
+    public String codec;
+
+    @Param({"guild", "player"})
+    public String entity;
+
+    private Codec instance;
+    private ManagedObject value;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() throws IOException {
+        instance = codec.equals("json") ?
+                new JsonJacksonCodec(new ObjectMapper()) :
+                new EntityCodec(new ObjectMapper(), CustomCommand.class, DBGuild.class, Player.class, DBUser.class, PremiumKey.class);
+        value = entity.equals("guild") ? guild() : player();
+        encoded = instance.getMapValueEncoder().encode(value);
+        System.out.println(codec + " " + entity + ": " + encoded.length + " bytes");
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return instance.getMapValueEncoder().encode(value);
+    }
+
+    @Benchmark
+    public Object decode() throws IOException {
+        return instance.getMapValueDecoder().decode(Unpooled.wrappedBuffer(encoded), null);
+    }
+
+    //A guild that configured a bit of everything.
+    private static DBGuild guild() {
+        DBGuild guild = DBGuild.of("213468583252983809");
+        GuildData data = guild.getData();
+        data.setGuildCustomPrefix("m!");
+        data.setGuildLogChannel("266231083341840385");
+        data.setJoinMessage("Welcome to the server, $(event.user.mention)! Read the rules on #rules.");
+        data.setLeaveMessage("$(event.user.name) left us :(");
+        data.setLogJoinLeaveChannel("266231083341840386");
+        data.setMusicChannel("266231083341840387");
+        data.setMutedRole("266231083341840388");
+        data.setBirthdayChannel("266231083341840389");
+        data.setBirthdayRole("266231083341840390");
+        data.setLinkProtection(true);
+        data.setCases(124);
+        data.setRanPolls(12);
+        data.getAutoroles().put("member", "266231083341840391");
+        data.getAutoroles().put("notifications", "266231083341840392");
+        data.getDisabledCommands().addAll(Arrays.asList("slots", "gamble", "loot", "marry"));
+        data.getDisabledChannels().add("266231083341840393");
+        data.getChannelSpecificDisabledCommands().put("266231083341840394", Arrays.asList("play", "skip"));
+        data.getLinkProtectionAllowedChannels().add("266231083341840395");
+        data.getLogExcludedChannels().add("266231083341840396");
+        for(int i = 0; i < 20; i++) {
+            data.getWarnCount().put(String.valueOf(155867458203287552L + i), (long) (i % 3 + 1));
+        }
+        data.getMutedTimelyUsers().put(155867458203287552L, 1514764800000L);
+        return guild;
+    }
+
+    //A player that has been around for a while.
+    private static Player player() {
+        Map<Integer, Integer> inventory = new HashMap<>();
+        inventory.put(1, 12);
+        inventory.put(2, 3);
+        inventory.put(5, 40);
+        inventory.put(9, 1);
+
+        PlayerData data = new PlayerData();
+        data.setExperience(154300);
+        data.setDescription("Just vibing. Married to the best person ever.");
+        data.setMarriedWith("213466096718708737");
+        data.setMarriedSince(1514764800000L);
+        data.setGamesWon(88);
+        data.setLastDailyAt(1514764800000L);
+        data.setMoneyOnBank(25000);
+        data.getBadges().addAll(Arrays.asList(Badge.COMMUNITY_ADMIN, Badge.BUG_HUNTER));
+        return new Player("155867458203287552:g", 32L, 1337420L, 57L, inventory, data);
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2016-2018 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ */
+
+package net.kodehawa.mantarobot.utils.commands;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link RateLimiter} with 1M users, against the old one that scheduled a task for every allowed use (copied on {@link ScheduledLimiter}).
+ * <p>
+ * Every user already used the command once before measuring. Uses expire after 10 seconds and 3 are allowed, so calls are a mix of
+ * allowed and limited ones, with expired uses getting cleared as it goes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class RateLimitBenchmark {
+    private static final int USERS = 1_000_000;
+    private static final int MAX = 3;
+    private static final int TIMEOUT = 10;
+
+    @Benchmark
+    public boolean timestamps(Timestamps state) {
+        return state.limiter.process(state.next());
+    }
+
+    @Benchmark
+    public boolean scheduled(Scheduled state) {
+        return state.limiter.process(state.next());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean timestampsContended(Timestamps state) {
+        return state.limiter.process(state.nextShared());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean scheduledContended(Scheduled state) {
+        return state.limiter.process(state.nextShared());
+    }
+
+    public abstract static class Users {
+        String[] ids;
+        private int index;
+
+        void createUsers() {
+            Random random = new Random(42);
+            ids = new String[USERS];
+            for(int i = 0; i < USERS; i++) {
+                //Something that looks like a snowflake.
+                ids[i] = String.valueOf(100_000_000_000_000_000L + (random.nextLong() >>> 8));
+            }
+        }
+
+        String next() {
+            return ids[Math.floorMod(index++ * 0x9E3779B9, USERS)];
+        }
+
+        String nextShared() {
+            return ids[ThreadLocalRandom.current().nextInt(USERS)];
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Timestamps extends Users {
+        RateLimiter limiter;
+
+        @Setup
+        public void setup() {
+            createUsers();
+            limiter = new RateLimiter(TimeUnit.SECONDS, MAX, TIMEOUT);
+            for(String id : ids) limiter.process(id);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Scheduled extends Users {
+        ScheduledLimiter limiter;
+
+        @Setup
+        public void setup() {
+            createUsers();
+            limiter = new ScheduledLimiter(TimeUnit.SECONDS, MAX, TIMEOUT);
+            for(String id : ids) limiter.process(id);
+        }
+
+        @TearDown
+        public void tearDown() {
+            limiter.ses.shutdownNow();
+        }
+    }
+
+    /**
+     * What RateLimiter used to do, without the premium check.
+     */
+    static class ScheduledLimiter {
+        final ScheduledExecutorService ses = Executors.newSingleThreadScheduledExecutor();
+        private final long max;
+        private final long timeout;
+        private final ConcurrentHashMap<String, Pair<AtomicInteger, Long>> usersRateLimited = new ConcurrentHashMap<>();
+
+        ScheduledLimiter(TimeUnit timeUnit, int max, int timeout) {
+            this.max = max;
+            this.timeout = timeUnit.toMillis(timeout);
+        }
+
+        boolean process(String key) {
+            Pair<AtomicInteger, Long> p = usersRateLimited.get(key);
+
+            if(p == null) {
+                usersRateLimited.put(key, p = new Pair<>());
+                p.first = new AtomicInteger();
+            }
+
+            AtomicInteger a = p.first;
+            long i = a.get();
+            if(i >= max) return false;
+
+            a.incrementAndGet();
+            long now = System.currentTimeMillis();
+
+            Long tryAgain = p.second;
+            if(tryAgain == null || tryAgain < now) {
+                p.second = now + timeout;
+            }
+
+            ses.schedule(a::decrementAndGet, timeout, TimeUnit.MILLISECONDS);
+            return true;
+        }
+
+        private static class Pair<F, S> {
+            F first;
+            S second;
+        }
+    }
+}
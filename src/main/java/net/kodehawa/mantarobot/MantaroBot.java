@@ -24,10 +24,11 @@ import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import net.dv8tion.jda.core.JDA;
 import net.dv8tion.jda.core.entities.Guild;
-import net.kodehawa.mantarobot.commands.moderation.MuteTask;
-import net.kodehawa.mantarobot.commands.moderation.TempBanManager;
+import net.kodehawa.mantarobot.commands.moderation.ModerationActions;
 import net.kodehawa.mantarobot.commands.music.MantaroAudioManager;
+import net.kodehawa.mantarobot.commands.utils.Reminder;
 import net.kodehawa.mantarobot.commands.utils.birthday.BirthdayCacher;
+import net.kodehawa.mantarobot.core.GuildFeatures;
 import net.kodehawa.mantarobot.core.MantaroCore;
 import net.kodehawa.mantarobot.core.processor.DefaultCommandProcessor;
 import net.kodehawa.mantarobot.core.shard.MantaroShard;
@@ -35,8 +36,11 @@ import net.kodehawa.mantarobot.core.shard.ShardedMantaro;
 import net.kodehawa.mantarobot.core.shard.jda.ShardedJDA;
 import net.kodehawa.mantarobot.data.Config;
 import net.kodehawa.mantarobot.data.MantaroData;
+import net.kodehawa.mantarobot.db.entities.ScheduledAction;
 import net.kodehawa.mantarobot.log.LogFilter;
 import net.kodehawa.mantarobot.log.LogUtils;
+import net.kodehawa.mantarobot.services.ActionScheduler;
+import net.kodehawa.mantarobot.services.BlacklistService;
 import net.kodehawa.mantarobot.utils.CompactPrintStream;
 import net.kodehawa.mantarobot.utils.SentryHelper;
 import net.kodehawa.mantarobot.utils.Utils;
@@ -54,7 +58,6 @@ import java.time.ZonedDateTime;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Objects;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -68,8 +71,6 @@ public class MantaroBot extends ShardedJDA {
     @Getter
     private static MantaroBot instance;
     @Getter
-    private static TempBanManager tempBanManager;
-    @Getter
     private final MantaroAudioManager audioManager;
     @Getter
     private final MantaroCore core;
@@ -135,13 +136,15 @@ public class MantaroBot extends ShardedJDA {
 
         long start = System.currentTimeMillis();
 
+        //Commands check it, so it has to be loaded before they start coming in.
+        BlacklistService.getInstance().refresh();
+
         core.setCommandsPackage("net.kodehawa.mantarobot.commands")
                 .setOptionsPackage("net.kodehawa.mantarobot.options")
                 .startMainComponents(false);
 
         shardedMantaro = core.getShardedInstance();
         audioManager = new MantaroAudioManager();
-        tempBanManager = new TempBanManager(MantaroData.db().getMantaroData().getTempBans());
         long end = System.currentTimeMillis();
 
         System.out.println("Finished loading basic components. Current status: " + MantaroCore.getLoadState());
@@ -151,9 +154,14 @@ public class MantaroBot extends ShardedJDA {
                 String.format("Partially loaded %d commands in %d seconds.\n" +
                         "Shards are still waking up!", DefaultCommandProcessor.REGISTRY.commands().size(), (end - start) / 1000));
 
+        Async.thread("GuildFeatures loader", GuildFeatures::load);
         birthdayCacher = new BirthdayCacher();
-        final MuteTask muteTask = new MuteTask();
-        Async.task("Mute Handler", muteTask::handle, 1, TimeUnit.MINUTES);
+
+        ActionScheduler scheduler = ActionScheduler.getInstance();
+        scheduler.register(ScheduledAction.Type.UNMUTE, ModerationActions::unmute);
+        scheduler.register(ScheduledAction.Type.UNBAN, ModerationActions::unban);
+        scheduler.register(ScheduledAction.Type.REMINDER, Reminder::remind);
+        scheduler.start();
     }
 
     public static void main(String[] args) {
@@ -180,7 +188,9 @@ public class MantaroBot extends ShardedJDA {
     }
 
     public MantaroShard getShard(int id) {
-        return Arrays.stream(shardedMantaro.getShards()).filter(Objects::nonNull).filter(shard -> shard.getId() == id).findFirst().orElse(null);
+        //Shards are stored at the index of their id.
+        MantaroShard[] shards = shardedMantaro.getShards();
+        return id < 0 || id >= shards.length ? null : shards[id];
     }
 
     @Override
@@ -18,9 +18,6 @@ package net.kodehawa.mantarobot.commands;
 
 import br.com.brjdevs.java.utils.texts.StringUtils;
 import com.google.common.eventbus.Subscribe;
-import com.rethinkdb.model.OptArgs;
-import com.rethinkdb.net.Connection;
-import com.rethinkdb.net.Cursor;
 import net.dv8tion.jda.core.EmbedBuilder;
 import net.dv8tion.jda.core.Permission;
 import net.dv8tion.jda.core.entities.Member;
@@ -41,6 +38,8 @@ import net.kodehawa.mantarobot.core.modules.commands.base.Command;
 import net.kodehawa.mantarobot.data.MantaroData;
 import net.kodehawa.mantarobot.db.entities.Player;
 import net.kodehawa.mantarobot.db.entities.helpers.Inventory;
+import net.kodehawa.mantarobot.services.LeaderboardService;
+import net.kodehawa.mantarobot.services.LeaderboardService.Metric;
 import net.kodehawa.mantarobot.utils.DiscordUtils;
 import net.kodehawa.mantarobot.utils.Utils;
 import net.kodehawa.mantarobot.utils.commands.EmoteReference;
@@ -654,9 +653,7 @@ public class CurrencyCmds {
         });
     }
 
-    //TODO find an efficient way to do this that doesn't require a shit ton of db reads.
-    //@Subscribe
-    @SuppressWarnings("unchecked")
+    @Subscribe
     public void rank(CommandRegistry registry) {
         registry.register("rank", new SimpleCommand(Category.CURRENCY) {
             @Override
@@ -667,32 +664,20 @@ public class CurrencyCmds {
                     return;
                 User user = m.getUser();
 
-                long moneyRank, levelRank, reputationRank, streakRank;
-                long count;
-                try(Connection conn = Utils.newDbConnection()) {
-                    moneyRank = ((Cursor<Long>) r.table("players").orderBy()
-                            .optArg("index", r.desc("money"))
-                            .offsetsOf(player -> player.g("id").eq(user.getId() + ":g"))
-                            .run(conn, OptArgs.of("read_mode", "outdated"))).next() + 1;
-
-                    levelRank = ((Cursor<Long>) r.table("players").orderBy()
-                            .optArg("index", r.desc("level"))
-                            .offsetsOf(player -> player.g("id").eq(user.getId() + ":g"))
-                            .run(conn, OptArgs.of("read_mode", "outdated"))).next() + 1;
-
-                    reputationRank = ((Cursor<Long>) r.table("players").orderBy()
-                            .optArg("index", r.desc("reputation"))
-                            .offsetsOf(player -> player.g("id").eq(user.getId() + ":g"))
-                            .run(conn, OptArgs.of("read_mode", "outdated"))).next() + 1;
-
-                    streakRank = ((Cursor<Long>) r.table("players").orderBy()
-                            .optArg("index", r.desc("userDailyStreak"))
-                            .offsetsOf(player -> player.g("id").eq(user.getId() + ":g"))
-                            .run(conn, OptArgs.of("read_mode", "outdated"))).next() + 1;
-
-                    count = r.table("players").count().run(conn);
+                //Ranks come from the leaderboard snapshot, so they can be a bit behind.
+                LeaderboardService leaderboards = LeaderboardService.getInstance();
+                if(!leaderboards.isLoaded()) {
+                    event.getChannel().sendMessage(EmoteReference.STOPWATCH + "The leaderboards are still loading, try again in a few minutes!").queue();
+                    return;
                 }
 
+                Player player = MantaroData.db().getPlayer(user);
+                long moneyRank = leaderboards.getRank(Metric.MONEY, player.getMoney());
+                long levelRank = leaderboards.getRank(Metric.LEVEL, player.getLevel());
+                long reputationRank = leaderboards.getRank(Metric.REPUTATION, player.getReputation());
+                long streakRank = leaderboards.getRank(Metric.STREAK, player.getData().getDailyStreak());
+                long count = leaderboards.getCount();
+
                 event.getChannel().sendMessage(new EmbedBuilder()
                         .setTitle(user.getName() + "'s Leaderboard Rank")
                         .setDescription(
@@ -16,7 +16,9 @@
 
 package net.kodehawa.mantarobot.commands;
 
-import br.com.brjdevs.java.utils.async.Async;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.eventbus.Subscribe;
 import lombok.extern.slf4j.Slf4j;
 import net.dv8tion.jda.core.EmbedBuilder;
@@ -26,14 +28,12 @@ import net.dv8tion.jda.core.entities.MessageEmbed;
 import net.dv8tion.jda.core.events.message.guild.GuildMessageReceivedEvent;
 import net.kodehawa.mantarobot.MantaroBot;
 import net.kodehawa.mantarobot.commands.currency.TextChannelGround;
-import net.kodehawa.mantarobot.commands.custom.ConditionalCustoms;
+import net.kodehawa.mantarobot.commands.custom.CustomTemplate;
 import net.kodehawa.mantarobot.commands.custom.EmbedJSON;
 import net.kodehawa.mantarobot.commands.info.stats.manager.CategoryStatsManager;
 import net.kodehawa.mantarobot.commands.info.stats.manager.CommandStatsManager;
 import net.kodehawa.mantarobot.commands.info.stats.manager.CustomCommandStatsManager;
 import net.kodehawa.mantarobot.core.CommandRegistry;
-import net.kodehawa.mantarobot.core.MantaroCore;
-import net.kodehawa.mantarobot.core.listeners.events.PostLoadEvent;
 import net.kodehawa.mantarobot.core.listeners.operations.InteractiveOperations;
 import net.kodehawa.mantarobot.core.listeners.operations.core.Operation;
 import net.kodehawa.mantarobot.core.modules.Module;
@@ -54,13 +54,12 @@ import org.apache.commons.lang3.tuple.Pair;
 import java.net.URL;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import static br.com.brjdevs.java.utils.collections.CollectionUtils.random;
-import static net.kodehawa.mantarobot.commands.custom.Mapifier.dynamicResolve;
-import static net.kodehawa.mantarobot.commands.custom.Mapifier.map;
 import static net.kodehawa.mantarobot.commands.info.HelpUtils.forType;
 import static net.kodehawa.mantarobot.data.MantaroData.db;
 import static net.kodehawa.mantarobot.utils.StringUtils.SPLIT_PATTERN;
@@ -68,10 +67,15 @@ import static net.kodehawa.mantarobot.utils.StringUtils.SPLIT_PATTERN;
 @Slf4j
 @Module
 public class CustomCmds {
-    private static final Map<String, List<String>> customCommands = new ConcurrentHashMap<>();
     private final Pattern NAME_PATTERN = Pattern.compile("[a-zA-Z0-9_]+"),
             INVALID_CHARACTERS_PATTERN = Pattern.compile("[^a-zA-Z0-9_]"),
             NAME_WILDCARD_PATTERN = Pattern.compile("[a-zA-Z0-9_*]+");
+    //guild id -> (command name -> compiled responses). Loaded the first time a guild uses a command, instead of loading every custom command on startup.
+    private final LoadingCache<String, Map<String, List<CustomTemplate>>> customCommands = CacheBuilder.newBuilder()
+            .concurrencyLevel(10)
+            .maximumSize(100000)
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .build(CacheLoader.from(this::loadCustomCommands));
     private final net.kodehawa.mantarobot.core.modules.commands.base.Command customCommand = new AbstractCommand(null) {
         @Override
         public MessageEmbed help(GuildMessageReceivedEvent event) {
@@ -79,12 +83,12 @@ public class CustomCmds {
         }
 
         private void handle(String cmdName, GuildMessageReceivedEvent event) {
-            List<String> values = customCommands.get(event.getGuild().getId() + ":" + cmdName);
+            List<CustomTemplate> values = guildCommands(event.getGuild().getId()).get(cmdName);
             if(values == null) return;
 
-            String response = random(values);
+            CustomTemplate response = random(values);
             try {
-                runCustom(response, event);
+                sendCustom(response.evaluate(event), event);
                 CustomCommandStatsManager.log(cmdName);
             } catch(Exception e) {
                 event.getChannel().sendMessage(EmoteReference.ERROR + "Error while running custom command... please check the response content and length (cannot be more than 2000 chars).").queue();
@@ -108,6 +112,9 @@ public class CustomCmds {
     public void custom(CommandRegistry cr) {
         String any = "[\\d\\D]*?";
 
+        //Custom commands aren't in the registry, so look them up on the guild when no other command matches.
+        cr.setFallback((event, name) -> guildCommands(event.getGuild().getId()).containsKey(name) ? customCommand : null);
+
         cr.register("custom", new SimpleCommand(Category.UTILS) {
             @Override
             public void call(GuildMessageReceivedEvent event, String content, String[] args) {
@@ -119,17 +126,7 @@ public class CustomCmds {
                 String action = args[0];
 
                 if(action.equals("list") || action.equals("ls")) {
-
-                    if(!MantaroCore.hasLoadedCompletely()) {
-                        event.getChannel().sendMessage("The bot hasn't been fully booted up yet... custom commands will be available shortly!").queue();
-                        return;
-                    }
-
-                    String filter = event.getGuild().getId() + ":";
-                    List<String> commands = customCommands.keySet().stream()
-                            .filter(s -> s.startsWith(filter))
-                            .map(s -> s.substring(filter.length()))
-                            .collect(Collectors.toList());
+                    List<String> commands = new ArrayList<>(guildCommands(event.getGuild().getId()).keySet());
 
                     EmbedBuilder builder = new EmbedBuilder()
                             .setAuthor("Commands for this guild", null, event.getGuild().getIconUrl())
@@ -235,7 +232,7 @@ public class CustomCmds {
                     }
                     int size = customCommands.size();
                     customCommands.forEach(CustomCommand::deleteAsync);
-                    customCommands.forEach(c -> CustomCmds.customCommands.remove(c.getId()));
+                    guildCommands(event.getGuild().getId()).clear();
                     event.getChannel().sendMessage(EmoteReference.PENCIL + "Cleared **" + size + " Custom Commands**!")
                             .queue();
                     return;
@@ -286,9 +283,7 @@ public class CustomCmds {
                                         return Operation.RESET_TIMEOUT;
                                     }
 
-                                    if(DefaultCommandProcessor.REGISTRY.commands().containsKey(
-                                            saveTo) && !DefaultCommandProcessor.REGISTRY.commands().get(saveTo).equals(
-                                            customCommand)) {
+                                    if(DefaultCommandProcessor.REGISTRY.commands().containsKey(saveTo)) {
                                         event.getChannel().sendMessage(
                                                 EmoteReference.ERROR + "A command already exists with this name!").queue();
                                         return Operation.RESET_TIMEOUT;
@@ -305,10 +300,7 @@ public class CustomCmds {
                                         custom.saveAsync();
 
                                         //reflect at local
-                                        customCommands.put(custom.getId(), custom.getValues());
-
-                                        //add mini-hack
-                                        DefaultCommandProcessor.REGISTRY.commands().put(cmd, customCommand);
+                                        cache(custom);
 
                                         event.getChannel().sendMessage(
                                                 EmoteReference.CORRECT + "Saved to command ``" + cmd + "``!").queue();
@@ -365,11 +357,7 @@ public class CustomCmds {
                     custom.deleteAsync();
 
                     //reflect at local
-                    customCommands.remove(custom.getId());
-
-                    //clear commands if none
-                    if(customCommands.keySet().stream().noneMatch(s -> s.endsWith(":" + cmd)))
-                        DefaultCommandProcessor.REGISTRY.commands().remove(cmd);
+                    uncache(custom);
 
                     event.getChannel().sendMessage(EmoteReference.PENCIL + "Removed Custom Command ``" + cmd + "``!")
                             .queue();
@@ -387,7 +375,7 @@ public class CustomCmds {
                             .collect(Collectors.toMap(ISnowflake::getId, g -> g));
 
                     List<Pair<Guild, CustomCommand>> filtered = MantaroData.db()
-                            .getCustomCommandsByName(("*" + cmd + "*").replace("*", any)).stream()
+                            .searchCustomCommands(mapped.keySet(), ("*" + cmd + "*").replace("*", any)).stream()
                             .map(customCommand -> {
                                 Guild guild = mapped.get(customCommand.getGuildId());
                                 return guild == null ? null : Pair.of(guild, customCommand);
@@ -418,7 +406,7 @@ public class CustomCmds {
                                 custom.saveAsync();
 
                                 //reflect at local
-                                customCommands.put(custom.getId(), custom.getValues());
+                                cache(custom);
 
                                 event.getChannel().sendMessage(String
                                         .format("Imported custom command ``%s`` from guild `%s` with responses ``%s``", cmdName,
@@ -472,7 +460,7 @@ public class CustomCmds {
                     custom.getValues().set(where - 1, vals[1]);
 
                     custom.saveAsync();
-                    customCommands.put(custom.getId(), custom.getValues());
+                    cache(custom);
 
                     event.getChannel().sendMessage(EmoteReference.CORRECT + "Edited response **#" + where + "** of the command `" + custom.getName() + "` correctly!").queue();
                     return;
@@ -484,7 +472,7 @@ public class CustomCmds {
                         return;
                     }
 
-                    if(DefaultCommandProcessor.REGISTRY.commands().containsKey(value) && !DefaultCommandProcessor.REGISTRY.commands().get(value).equals(customCommand)) {
+                    if(DefaultCommandProcessor.REGISTRY.commands().containsKey(value)) {
                         event.getChannel().sendMessage(EmoteReference.ERROR + "A command already exists with this name!").queue();
                         return;
                     }
@@ -504,15 +492,8 @@ public class CustomCmds {
                     newCustom.saveAsync();
 
                     //reflect at local
-                    customCommands.remove(oldCustom.getId());
-                    customCommands.put(newCustom.getId(), newCustom.getValues());
-
-                    //add mini-hack
-                    DefaultCommandProcessor.REGISTRY.commands().put(value, customCommand);
-
-                    //clear commands if none
-                    if(customCommands.keySet().stream().noneMatch(s -> s.endsWith(":" + cmd)))
-                        DefaultCommandProcessor.REGISTRY.commands().remove(cmd);
+                    uncache(oldCustom);
+                    cache(newCustom);
 
                     event.getChannel().sendMessage(
                             EmoteReference.CORRECT + "Renamed command ``" + cmd + "`` to ``" + value + "``!").queue();
@@ -534,8 +515,7 @@ public class CustomCmds {
                         return;
                     }
 
-                    if(DefaultCommandProcessor.REGISTRY.commands().containsKey(cmd) && !DefaultCommandProcessor.REGISTRY.commands()
-                            .get(cmd).equals(customCommand)) {
+                    if(DefaultCommandProcessor.REGISTRY.commands().containsKey(cmd)) {
                         event.getChannel().sendMessage(
                                 EmoteReference.ERROR + "A command already exists with this name!").queue();
                         return;
@@ -555,10 +535,7 @@ public class CustomCmds {
                     custom.saveAsync();
 
                     //reflect at local
-                    customCommands.put(custom.getId(), custom.getValues());
-
-                    //add mini-hack
-                    DefaultCommandProcessor.REGISTRY.commands().put(cmd, customCommand);
+                    cache(custom);
 
                     event.getChannel().sendMessage(EmoteReference.CORRECT + "Saved to command ``" + cmd + "``!")
                             .queue();
@@ -601,41 +578,48 @@ public class CustomCmds {
         });
     }
 
-    @Subscribe
-    public void onPostLoad(PostLoadEvent e) {
-        Async.thread(() -> db().getCustomCommands().forEach(custom -> {
+    private Map<String, List<CustomTemplate>> guildCommands(String guildId) {
+        return customCommands.getUnchecked(guildId);
+    }
+
+    private void cache(CustomCommand custom) {
+        guildCommands(custom.getGuildId()).put(custom.getName(), CustomTemplate.compile(custom.getValues()));
+    }
+
+    private void uncache(CustomCommand custom) {
+        guildCommands(custom.getGuildId()).remove(custom.getName());
+    }
+
+    private Map<String, List<CustomTemplate>> loadCustomCommands(String guildId) {
+        Map<String, List<CustomTemplate>> commands = new ConcurrentHashMap<>();
+        for(CustomCommand custom : db().getCustomCommands(guildId)) {
             if(!NAME_PATTERN.matcher(custom.getName()).matches()) {
                 String newName = INVALID_CHARACTERS_PATTERN.matcher(custom.getName()).replaceAll("_");
-                log.info("Custom Command with Invalid Characters '%s' found. Replacing with '%'", custom.getName());
+                log.info("Custom Command with Invalid Characters '{}' found. Replacing with '{}'", custom.getName(), newName);
 
                 custom.deleteAsync();
                 custom = CustomCommand.of(custom.getGuildId(), newName, custom.getValues());
                 custom.saveAsync();
             }
 
-            if(DefaultCommandProcessor.REGISTRY.commands().containsKey(custom.getName()) && !DefaultCommandProcessor.REGISTRY
-                    .commands().get(custom.getName()).equals(customCommand)) {
+            if(DefaultCommandProcessor.REGISTRY.commands().containsKey(custom.getName())) {
                 custom.deleteAsync();
                 custom = CustomCommand.of(custom.getGuildId(), "_" + custom.getName(), custom.getValues());
                 custom.saveAsync();
             }
 
-            //add to registry
-            DefaultCommandProcessor.REGISTRY.commands().put(custom.getName(), customCommand);
+            commands.put(custom.getName(), CustomTemplate.compile(custom.getValues()));
+        }
 
-            customCommands.put(custom.getId(), custom.getValues());
-        }));
+        return commands;
     }
 
     private void runCustom(String response, GuildMessageReceivedEvent event) {
-        if(response.contains("$(")) {
-            Map<String, String> dynamicMap = new HashMap<>();
-            map("event", dynamicMap, event);
-            response = dynamicResolve(response, dynamicMap);
-        }
-
-        response = ConditionalCustoms.resolve(response, 0);
+        sendCustom(CustomTemplate.compile(response).evaluate(event), event);
+    }
 
+    //Sends an already resolved response.
+    private void sendCustom(String response, GuildMessageReceivedEvent event) {
         int c = response.indexOf(':');
         if(c != -1) {
             String m = response.substring(0, c);
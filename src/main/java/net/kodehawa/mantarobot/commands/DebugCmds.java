@@ -18,39 +18,39 @@ package net.kodehawa.mantarobot.commands;
 
 import com.google.common.eventbus.Subscribe;
 import com.sedmelluq.discord.lavaplayer.tools.PlayerLibrary;
+import gnu.trove.map.hash.TLongIntHashMap;
 import net.dv8tion.jda.core.JDA;
 import net.dv8tion.jda.core.JDAInfo;
 import net.dv8tion.jda.core.MessageBuilder;
 import net.dv8tion.jda.core.entities.Guild;
 import net.dv8tion.jda.core.entities.MessageEmbed;
-import net.dv8tion.jda.core.entities.User;
-import net.dv8tion.jda.core.entities.VoiceChannel;
 import net.dv8tion.jda.core.events.message.guild.GuildMessageReceivedEvent;
-import net.dv8tion.jda.core.utils.cache.SnowflakeCacheView;
 import net.kodehawa.mantarobot.MantaroBot;
 import net.kodehawa.mantarobot.MantaroInfo;
 import net.kodehawa.mantarobot.commands.currency.TextChannelGround;
 import net.kodehawa.mantarobot.core.CommandRegistry;
+import net.kodehawa.mantarobot.core.MantaroEventManager;
 import net.kodehawa.mantarobot.core.listeners.MantaroListener;
 import net.kodehawa.mantarobot.core.listeners.command.CommandListener;
 import net.kodehawa.mantarobot.core.listeners.events.PreLoadEvent;
 import net.kodehawa.mantarobot.core.modules.Module;
 import net.kodehawa.mantarobot.core.modules.commands.SimpleCommand;
 import net.kodehawa.mantarobot.core.modules.commands.base.Category;
+import net.kodehawa.mantarobot.core.modules.commands.base.CommandPermission;
 import net.kodehawa.mantarobot.core.processor.DefaultCommandProcessor;
 import net.kodehawa.mantarobot.core.shard.MantaroShard;
+import net.kodehawa.mantarobot.core.shard.ShardStats;
+import net.kodehawa.mantarobot.core.shard.watcher.ShardWatcher;
 import net.kodehawa.mantarobot.utils.DiscordUtils;
 import net.kodehawa.mantarobot.utils.Utils;
 import net.kodehawa.mantarobot.utils.commands.EmoteReference;
 import net.kodehawa.mantarobot.utils.commands.RateLimiter;
 
 import java.lang.management.ManagementFactory;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Objects;
-import java.util.Random;
+import java.util.*;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static net.kodehawa.mantarobot.commands.info.AsyncInfoMonitor.*;
 import static net.kodehawa.mantarobot.utils.Utils.handleDefaultRatelimit;
@@ -62,10 +62,6 @@ public class DebugCmds {
         cr.register("info", new SimpleCommand(Category.INFO) {
             @Override
             protected void call(GuildMessageReceivedEvent event, String content, String[] args) {
-                SnowflakeCacheView<Guild> guilds = MantaroBot.getInstance().getGuildCache();
-                SnowflakeCacheView<VoiceChannel> vc = MantaroBot.getInstance().getVoiceChannelCache();
-                SnowflakeCacheView<User> users = MantaroBot.getInstance().getUserCache();
-
                 event.getChannel().sendMessage("```prolog\n"
                         + " --------- Technical Information --------- \n\n"
                         + "Commands: " + DefaultCommandProcessor.REGISTRY.commands().values().stream().filter(command -> command.category() != null).count() + "\n"
@@ -77,16 +73,15 @@ public class DebugCmds {
                         + "CPU Cores: " + getAvailableProcessors() + "\n"
                         + "Shard Info: " + event.getJDA().getShardInfo()
                         + "\n\n --------- Mantaro Information --------- \n\n"
-                        + "Guilds: " + String.format("%,d", guilds.size()) + "\n"
-                        + "Users: " + String.format("%,d", users.size()) + "\n"
+                        + "Guilds: " + String.format("%,d", ShardStats.getTotalGuilds()) + "\n"
+                        + "Users: " + String.format("%,d", ShardStats.getUniqueUsers()) + "\n"
                         + "Shards: " + MantaroBot.getInstance().getShardedMantaro().getTotalShards() + " (Current: " + (MantaroBot.getInstance().getShardForGuild(event.getGuild().getId()).getId()) + ")" + "\n"
                         + "Threads: " + String.format("%,d", Thread.activeCount()) + "\n"
                         + "Executed Commands: " + String.format("%,d", CommandListener.getCommandTotalInt()) + "\n"
                         + "Logs: " + String.format("%,d", MantaroListener.getLogTotalInt()) + "\n"
                         + "Memory: " + String.format("%,dMB/%,dMB", (int)(getTotalMemory() - getFreeMemory()), (int)getMaxMemory()) + "\n"
-                        + "Music Connections: " + (int) vc.stream().filter(voiceChannel -> voiceChannel.getMembers().contains(voiceChannel.getGuild().getSelfMember())).count() + "\n"
-                        + "Active Connections: " + (int) vc.stream().filter(voiceChannel ->
-                        voiceChannel.getMembers().contains(voiceChannel.getGuild().getSelfMember()) && voiceChannel.getMembers().size() > 1).count() + "\n"
+                        + "Music Connections: " + String.format("%,d", ShardStats.getTotalVoiceConnections()) + "\n"
+                        + "Active Players: " + String.format("%,d", ShardStats.getTotalPlayers()) + "\n"
                         + "Queue Size: " + String.format("%,d", MantaroBot.getInstance().getAudioManager().getTotalQueueSize())
                         + "```").queue();
             }
@@ -167,11 +162,11 @@ public class DebugCmds {
                             "%-17s | %-9s | U: %-6d | G: %-4d | EV: %-8s | P: %-6s | VC: %-2d",
                             jda.getShardInfo() == null ? "Shard [0 / 1]" : jda.getShardInfo(),
                             jda.getStatus(),
-                            jda.getUserCache().size(),
-                            jda.getGuildCache().size(),
+                            shard.getStats().getUsers(),
+                            shard.getStats().getGuilds(),
                             shard.getEventManager().getLastJDAEventTimeDiff() + " ms",
                             jda.getPing(),
-                            jda.getVoiceChannelCache().stream().filter(voiceChannel -> voiceChannel.getMembers().contains(voiceChannel.getGuild().getSelfMember())).count()
+                            shard.getStats().getVoiceConnections()
                     ));
 
                     if(shard.getJDA().getShardInfo() != null && shard.getJDA().getShardInfo().equals(event.getJDA().getShardInfo())) {
@@ -225,11 +220,12 @@ public class DebugCmds {
                     }
 
                     boolean reconnect = shard.getStatus().equals(JDA.Status.RECONNECT_QUEUED);
-                    if(shard.getEventManager().getLastJDAEventTimeDiff() > 50000 && !reconnect)
+                    ShardWatcher watcher = bot.getShardedMantaro().getWatcher();
+                    if(watcher != null && watcher.getState(shard.getId()) != ShardWatcher.State.HEALTHY)
                         dead++;
                     if(reconnect)
                         reconnecting++;
-                    if(shard.getVoiceChannelCache().stream().filter(voiceChannel -> voiceChannel.getMembers().contains(voiceChannel.getGuild().getSelfMember())).count() == 0)
+                    if(shard.getStats().getVoiceConnections() == 0)
                         zeroVoiceConnections++;
                     if(shard.getEventManager().getLastJDAEventTimeDiff() > 1650 && !reconnect)
                         high++;
@@ -263,8 +259,8 @@ public class DebugCmds {
                         ,
                         Utils.getHumanizedTime(ManagementFactory.getRuntimeMXBean().getUptime()), MantaroInfo.VERSION, JDAInfo.VERSION, PlayerLibrary.VERSION, ping,
                         bot.getShardList().stream().filter(Objects::nonNull).map(shard -> shard.getId() + ": " + shard.getPing() + "ms").collect(Collectors.joining(", ")),
-                        dead, zeroVoiceConnections, reconnecting, connecting, high, String.format("%,d", bot.getGuildCache().size()),
-                        String.format("%,d", bot.getUserCache().size()), bot.getShardList().size()));
+                        dead, zeroVoiceConnections, reconnecting, connecting, high, String.format("%,d", ShardStats.getTotalGuilds()),
+                        String.format("%,d", ShardStats.getUniqueUsers()), bot.getShardList().size()));
 
                 event.getChannel().sendMessage(new MessageBuilder()
                         .append(EmoteReference.OK)
@@ -283,6 +279,75 @@ public class DebugCmds {
         });
     }
 
+    @Subscribe
+    public void eventstats(CommandRegistry cr) {
+        cr.register("eventstats", new SimpleCommand(Category.OWNER, CommandPermission.OWNER) {
+            @Override
+            protected void call(GuildMessageReceivedEvent event, String content, String[] args) {
+                MantaroBot bot = MantaroBot.getInstance();
+                List<MantaroEventManager> managers = bot.getShardedMantaro().getManagers();
+                double[] rates = new double[managers.size()];
+                double total = 0;
+                List<String> quiet = new ArrayList<>();
+                Map<String, Long> types = new HashMap<>();
+                TLongIntHashMap guilds = new TLongIntHashMap();
+
+                for(int i = 0; i < managers.size(); i++) {
+                    MantaroEventManager manager = managers.get(i);
+                    rates[i] = manager.getEventRate(10);
+                    total += rates[i];
+                    if(rates[i] == 0)
+                        quiet.add(String.valueOf(manager.getShardId()));
+
+                    manager.getEventCounts().forEach((type, count) -> types.merge(type.getSimpleName(), count.sum(), Long::sum));
+                    manager.getLastGuildEvents().forEachEntry((guildId, count) -> {
+                        guilds.adjustOrPutValue(guildId, count, count);
+                        return true;
+                    });
+                }
+
+                StringBuilder builder = new StringBuilder();
+                builder.append(String.format("Events/s (last 10s): %.1f\n", total));
+                builder.append("Busiest shards: ").append(IntStream.range(0, managers.size()).boxed()
+                        .sorted(Comparator.comparingDouble((Integer i) -> rates[i]).reversed())
+                        .limit(5)
+                        .map(i -> String.format("#%d (%.1f/s)", managers.get(i).getShardId(), rates[i]))
+                        .collect(Collectors.joining(", "))).append("\n");
+                builder.append("Shards without events: ").append(quiet.isEmpty() ? "none" : String.join(", ", quiet)).append("\n\n");
+
+                builder.append("--- Most common events\n");
+                types.entrySet().stream()
+                        .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                        .limit(10)
+                        .forEach(e -> builder.append(String.format("%-36s %,d\n", e.getKey(), e.getValue())));
+
+                builder.append("\n--- Busiest guilds (last minute)\n");
+                Arrays.stream(guilds.keys()).boxed()
+                        .sorted(Comparator.comparingInt((Long guildId) -> guilds.get(guildId)).reversed())
+                        .limit(10)
+                        .forEach(guildId -> {
+                            MantaroShard shard = bot.getShardForGuild(guildId);
+                            Guild guild = shard == null ? null : shard.getGuildById(guildId);
+                            builder.append(String.format("%-20d %-24.24s %,d\n", guildId, guild == null ? "?" : guild.getName(), guilds.get(guildId)));
+                        });
+
+                event.getChannel().sendMessage(new MessageBuilder()
+                        .append(EmoteReference.OK)
+                        .append("**Mantaro's Event Stats**")
+                        .append("\n")
+                        .appendCodeBlock(builder.toString(), "prolog")
+                        .build()).queue();
+            }
+
+            @Override
+            public MessageEmbed help(GuildMessageReceivedEvent event) {
+                return helpEmbed(event, "Event stats")
+                        .setDescription("**Shows how many events the shards are getting, and which guilds they come from**")
+                        .build();
+            }
+        });
+    }
+
     private String ratePing(long ping) {
         if(ping == 69) return "l-lewd! <:MantaroGasm:318869352851963904>";
         if(ping <= 1) return "supersonic speed! :upside_down:"; //just in case...
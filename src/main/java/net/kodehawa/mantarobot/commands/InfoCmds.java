@@ -37,6 +37,7 @@ import net.kodehawa.mantarobot.core.modules.commands.base.Category;
 import net.kodehawa.mantarobot.core.modules.commands.base.Command;
 import net.kodehawa.mantarobot.core.modules.commands.base.CommandPermission;
 import net.kodehawa.mantarobot.core.processor.DefaultCommandProcessor;
+import net.kodehawa.mantarobot.core.shard.ShardStats;
 import net.kodehawa.mantarobot.data.MantaroData;
 import net.kodehawa.mantarobot.db.entities.DBGuild;
 import net.kodehawa.mantarobot.db.entities.helpers.GuildData;
@@ -55,8 +56,6 @@ import java.util.stream.Collectors;
 
 import static net.kodehawa.mantarobot.commands.info.AsyncInfoMonitor.*;
 import static net.kodehawa.mantarobot.commands.info.HelpUtils.forType;
-import static net.kodehawa.mantarobot.commands.info.stats.StatsHelper.calculateDouble;
-import static net.kodehawa.mantarobot.commands.info.stats.StatsHelper.calculateInt;
 import static net.kodehawa.mantarobot.utils.commands.EmoteReference.BLUE_SMALL_MARKER;
 
 @Module
@@ -76,7 +75,6 @@ public class InfoCmds {
                 return new SubCommand() {
                     @Override
                     protected void call(GuildMessageReceivedEvent event, String content) {
-                        SnowflakeCacheView<Guild> guilds = MantaroBot.getInstance().getGuildCache();
                         SnowflakeCacheView<User> users = MantaroBot.getInstance().getUserCache();
                         SnowflakeCacheView<TextChannel> textChannels = MantaroBot.getInstance().getTextChannelCache();
                         SnowflakeCacheView<VoiceChannel> voiceChannels = MantaroBot.getInstance().getVoiceChannelCache();
@@ -99,7 +97,7 @@ public class InfoCmds {
                                 .addField("Uptime", Utils.getHumanizedTime(ManagementFactory.getRuntimeMXBean().getUptime()), false)
                                 .addField("Shards", String.valueOf(MantaroBot.getInstance().getShardedMantaro().getTotalShards()), true)
                                 .addField("Threads", String.format("%,d", Thread.activeCount()), true)
-                                .addField("Servers", String.format("%,d", guilds.size()), true)
+                                .addField("Servers", String.format("%,d", ShardStats.getTotalGuilds()), true)
                                 .addField("Users (Unique)", String.format("%,d", users.stream().mapToLong(ISnowflake::getIdLong).distinct().count()), true)
                                 .addField("Text Channels", String.format("%,d", textChannels.size()), true)
                                 .addField("Voice Channels", String.format("%,d", voiceChannels.size()), true)
@@ -372,26 +370,46 @@ public class InfoCmds {
                     protected void call(GuildMessageReceivedEvent event, String content) {
                         if(content.isEmpty()) {
                             event.getChannel().sendMessage(EmoteReference.MEGA + "**[Stats]** Y-Yeah... gathering them, hold on for a bit...").queue(message -> {
-                                GuildStatsManager.MILESTONE = (((int) (MantaroBot.getInstance().getGuildCache().size() + 99) / 100) * 100) + 100;
-                                List<Guild> guilds = MantaroBot.getInstance().getGuilds();
-
-                                List<VoiceChannel> voiceChannels = MantaroBot.getInstance().getVoiceChannels();
-                                List<VoiceChannel> musicChannels = voiceChannels.parallelStream().filter(vc -> vc.getMembers().contains(vc.getGuild().getSelfMember())).collect(Collectors.toList());
-
-                                IntSummaryStatistics usersPerGuild = calculateInt(guilds, value -> value.getMembers().size());
-                                IntSummaryStatistics onlineUsersPerGuild = calculateInt(guilds, value -> (int) value.getMembers().stream().filter(member -> !member.getOnlineStatus().equals(OnlineStatus.OFFLINE)).count());
-                                DoubleSummaryStatistics onlineUsersPerUserPerGuild = calculateDouble(guilds, value -> (double) value.getMembers().stream().filter(member -> !member.getOnlineStatus().equals(OnlineStatus.OFFLINE)).count() / (double) value.getMembers().size() * 100);
-                                DoubleSummaryStatistics listeningUsersPerUsersPerGuilds = calculateDouble(musicChannels, value -> (double) value.getMembers().size() / (double) value.getGuild().getMembers().size() * 100);
-                                DoubleSummaryStatistics listeningUsersPerOnlineUsersPerGuilds = calculateDouble(musicChannels, value -> (double) value.getMembers().size() / (double) value.getGuild().getMembers().stream().filter(member -> !member.getOnlineStatus().equals(OnlineStatus.OFFLINE)).count() * 100);
-                                IntSummaryStatistics textChannelsPerGuild = calculateInt(guilds, value -> value.getTextChannels().size());
-                                IntSummaryStatistics voiceChannelsPerGuild = calculateInt(guilds, value -> value.getVoiceChannels().size());
-
-                                int musicConnections = (int) voiceChannels.stream().filter(voiceChannel -> voiceChannel.getMembers().contains(
-                                        voiceChannel.getGuild().getSelfMember())).count();
-                                long exclusiveness = MantaroBot.getInstance().getGuildCache().stream().filter(g -> g.getMembers().stream().filter(member -> member.getUser().isBot()).count() == 1).count();
-                                double musicConnectionsPerServer = (double) musicConnections / (double) guilds.size() * 100;
-                                double exclusivenessPercent = (double) exclusiveness / (double) guilds.size() * 100;
-                                long bigGuilds = MantaroBot.getInstance().getGuildCache().stream().filter(g -> g.getMembers().size() > 500).count();
+                                long guildCount = ShardStats.getTotalGuilds();
+                                GuildStatsManager.MILESTONE = (((int) (guildCount + 99) / 100) * 100) + 100;
+
+                                //Everything that can't be counted ahead of time, in a single walk over the guilds.
+                                IntSummaryStatistics usersPerGuild = new IntSummaryStatistics();
+                                IntSummaryStatistics onlineUsersPerGuild = new IntSummaryStatistics();
+                                DoubleSummaryStatistics onlineUsersPerUserPerGuild = new DoubleSummaryStatistics();
+                                DoubleSummaryStatistics listeningUsersPerUsersPerGuilds = new DoubleSummaryStatistics();
+                                DoubleSummaryStatistics listeningUsersPerOnlineUsersPerGuilds = new DoubleSummaryStatistics();
+                                IntSummaryStatistics textChannelsPerGuild = new IntSummaryStatistics();
+                                IntSummaryStatistics voiceChannelsPerGuild = new IntSummaryStatistics();
+                                long exclusiveness = 0;
+
+                                for(Guild guild : MantaroBot.getInstance().getGuildCache()) {
+                                    int members = 0, online = 0, bots = 0;
+                                    for(Member member : guild.getMemberCache()) {
+                                        members++;
+                                        if(member.getOnlineStatus() != OnlineStatus.OFFLINE) online++;
+                                        if(member.getUser().isBot()) bots++;
+                                    }
+
+                                    usersPerGuild.accept(members);
+                                    onlineUsersPerGuild.accept(online);
+                                    onlineUsersPerUserPerGuild.accept((double) online / (double) members * 100);
+                                    textChannelsPerGuild.accept((int) guild.getTextChannelCache().size());
+                                    voiceChannelsPerGuild.accept((int) guild.getVoiceChannelCache().size());
+                                    if(bots == 1) exclusiveness++;
+
+                                    VoiceChannel musicChannel = guild.getSelfMember().getVoiceState().getChannel();
+                                    if(musicChannel != null) {
+                                        int listening = musicChannel.getMembers().size();
+                                        listeningUsersPerUsersPerGuilds.accept((double) listening / (double) members * 100);
+                                        listeningUsersPerOnlineUsersPerGuilds.accept((double) listening / (double) online * 100);
+                                    }
+                                }
+
+                                long musicConnections = ShardStats.getTotalVoiceConnections();
+                                double musicConnectionsPerServer = (double) musicConnections / (double) guildCount * 100;
+                                double exclusivenessPercent = (double) exclusiveness / (double) guildCount * 100;
+                                long bigGuilds = ShardStats.getTotalBigGuilds();
                                 message.editMessage(
                                         new EmbedBuilder()
                                                 .setColor(Color.PINK)
@@ -407,10 +425,11 @@ public class InfoCmds {
                                                 .addField("Music Listeners per Online Users per Server", String.format(Locale.ENGLISH, "Min: %.1f%%\nAvg: %.1f%%\nMax: %.1f%%", listeningUsersPerOnlineUsersPerGuilds.getMin(), listeningUsersPerOnlineUsersPerGuilds.getAverage(), listeningUsersPerOnlineUsersPerGuilds.getMax()), true)
                                                 .addField("Music Connections per Server", String.format(Locale.ENGLISH, "%.1f%% (%d Connections)", musicConnectionsPerServer, musicConnections), true)
                                                 .addField("Total queue size", Long.toString(MantaroBot.getInstance().getAudioManager().getTotalQueueSize()), true)
+                                                .addField("Active players", Long.toString(ShardStats.getTotalPlayers()), true)
                                                 .addField("Total commands (including custom)", String.valueOf(DefaultCommandProcessor.REGISTRY.commands().size()), true)
                                                 .addField("Exclusiveness in Total Servers", Math.round(exclusivenessPercent) + "% (" + exclusiveness + ")", false)
                                                 .addField("Big Servers", String.valueOf(bigGuilds), true)
-                                                .setFooter("! Guilds to next milestone (" + GuildStatsManager.MILESTONE + "): " + (GuildStatsManager.MILESTONE - MantaroBot.getInstance().getGuildCache().size())
+                                                .setFooter("! Guilds to next milestone (" + GuildStatsManager.MILESTONE + "): " + (GuildStatsManager.MILESTONE - guildCount)
                                                         , event.getJDA().getSelfUser().getAvatarUrl())
                                                 .build()
                                 ).override(true).queue();
@@ -537,7 +556,7 @@ public class InfoCmds {
                         .addField("Hourly", guildStatsManager.resume(GuildStatsManager.HOUR_EVENTS), false)
                         .addField("Daily", guildStatsManager.resume(GuildStatsManager.DAY_EVENTS), false)
                         .addField("Total", guildStatsManager.resume(GuildStatsManager.TOTAL_EVENTS), false)
-                        .setFooter("Guilds: " + MantaroBot.getInstance().getGuildCache().size(), null)
+                        .setFooter("Guilds: " + ShardStats.getTotalGuilds(), null)
                         .build()
                 ).queue();
             }
@@ -32,12 +32,12 @@ import net.kodehawa.mantarobot.core.modules.commands.base.CommandPermission;
 import net.kodehawa.mantarobot.data.MantaroData;
 import net.kodehawa.mantarobot.db.ManagedDatabase;
 import net.kodehawa.mantarobot.db.entities.DBGuild;
-import net.kodehawa.mantarobot.db.entities.MantaroObj;
+import net.kodehawa.mantarobot.db.entities.ScheduledAction;
 import net.kodehawa.mantarobot.db.entities.helpers.GuildData;
 import net.kodehawa.mantarobot.options.core.Option;
 import net.kodehawa.mantarobot.options.core.OptionType;
+import net.kodehawa.mantarobot.services.ActionScheduler;
 import net.kodehawa.mantarobot.utils.DiscordUtils;
-import net.kodehawa.mantarobot.utils.Pair;
 import net.kodehawa.mantarobot.utils.StringUtils;
 import net.kodehawa.mantarobot.utils.Utils;
 import net.kodehawa.mantarobot.utils.commands.EmoteReference;
@@ -98,8 +98,6 @@ public class MuteCmds {
                 //Regex from: Fabricio20
                 final String finalReason = timePattern.matcher(reason).replaceAll("");
 
-                MantaroObj data = db.getMantaroData();
-
                 event.getMessage().getMentionedUsers().forEach(user -> {
                     Member m = event.getGuild().getMember(user);
                     long time = guildData.getSetModTimeout() > 0 ? System.currentTimeMillis() + guildData.getSetModTimeout() : 0L;
@@ -126,8 +124,7 @@ public class MuteCmds {
                             return;
                         }
 
-                        data.getMutes().put(user.getIdLong(), Pair.of(event.getGuild().getId(), time));
-                        data.save();
+                        ActionScheduler.getInstance().schedule(ScheduledAction.of(ScheduledAction.Type.UNMUTE, event.getGuild().getId(), user.getId(), time));
                         dbGuild.save();
                     } else {
                         if(time > 0) {
@@ -136,8 +133,7 @@ public class MuteCmds {
                                 return;
                             }
 
-                            data.getMutes().put(user.getIdLong(), Pair.of(event.getGuild().getId(), time));
-                            data.save();
+                            ActionScheduler.getInstance().schedule(ScheduledAction.of(ScheduledAction.Type.UNMUTE, event.getGuild().getId(), user.getId(), time));
                             dbGuild.save();
                         } else {
                             event.getChannel().sendMessage(EmoteReference.ERROR + "You didn't specify any time!").queue();
@@ -347,6 +343,7 @@ public class MuteCmds {
                         event.getGuild().getController().removeSingleRoleFromMember(m, mutedRole)
                                 .reason(String.format("Unmuted by %#s: %s", event.getAuthor(), finalReason))
                                 .queue();
+                        ActionScheduler.getInstance().cancel(ScheduledAction.id(ScheduledAction.Type.UNMUTE, event.getGuild().getId(), user.getId()));
 
                         event.getChannel().sendMessage(EmoteReference.CORRECT + "Removed mute role from **" + m.getEffectiveName() + "**").queue();
                         dbg.getData().setCases(dbg.getData().getCases() + 1);
@@ -36,11 +36,12 @@ import net.kodehawa.mantarobot.core.modules.commands.SimpleCommand;
 import net.kodehawa.mantarobot.core.modules.commands.base.Category;
 import net.kodehawa.mantarobot.core.modules.commands.base.CommandPermission;
 import net.kodehawa.mantarobot.data.MantaroData;
+import net.kodehawa.mantarobot.db.entities.BlacklistEntry;
 import net.kodehawa.mantarobot.db.entities.DBGuild;
 import net.kodehawa.mantarobot.db.entities.DBUser;
-import net.kodehawa.mantarobot.db.entities.MantaroObj;
 import net.kodehawa.mantarobot.db.entities.Player;
 import net.kodehawa.mantarobot.db.entities.helpers.PlayerData;
+import net.kodehawa.mantarobot.services.BlacklistService;
 import net.kodehawa.mantarobot.utils.commands.EmoteReference;
 
 import javax.script.ScriptEngine;
@@ -71,18 +72,18 @@ public class OwnerCmd {
         cr.register("blacklist", new SimpleCommand(Category.OWNER, CommandPermission.OWNER) {
             @Override
             protected void call(GuildMessageReceivedEvent event, String content, String[] args) {
-                MantaroObj obj = MantaroData.db().getMantaroData();
+                BlacklistService blacklist = BlacklistService.getInstance();
                 if(args[0].equals("guild")) {
                     if(args[1].equals("add")) {
                         if(MantaroBot.getInstance().getGuildById(args[2]) == null) return;
-                        obj.getBlackListedGuilds().add(args[2]);
+                        if(!blacklist.add(BlacklistEntry.Type.GUILD, args[2])) return;
                         event.getChannel().sendMessage(EmoteReference.CORRECT + "Blacklisted Guild: " + MantaroBot.getInstance().getGuildById(args[2])).queue();
-                        obj.saveAsync();
                     } else if(args[1].equals("remove")) {
-                        if(!obj.getBlackListedGuilds().contains(args[2])) return;
-                        obj.getBlackListedGuilds().remove(args[2]);
+                        if(!blacklist.remove(BlacklistEntry.Type.GUILD, args[2])) {
+                            event.getChannel().sendMessage(EmoteReference.CORRECT + "Guild wasn't blacklisted, removed any entry left for it: " + args[2]).queue();
+                            return;
+                        }
                         event.getChannel().sendMessage(EmoteReference.CORRECT + "Unblacklisted Guild: " + args[2]).queue();
-                        obj.saveAsync();
                     }
                     return;
                 }
@@ -90,14 +91,14 @@ public class OwnerCmd {
                 if(args[0].equals("user")) {
                     if(args[1].equals("add")) {
                         if(MantaroBot.getInstance().getUserById(args[2]) == null) return;
-                        obj.getBlackListedUsers().add(args[2]);
+                        if(!blacklist.add(BlacklistEntry.Type.USER, args[2])) return;
                         event.getChannel().sendMessage(EmoteReference.CORRECT + "Blacklisted User: " + MantaroBot.getInstance().getUserById(args[2])).queue();
-                        obj.saveAsync();
                     } else if(args[1].equals("remove")) {
-                        if(!obj.getBlackListedUsers().contains(args[2])) return;
-                        obj.getBlackListedUsers().remove(args[2]);
+                        if(!blacklist.remove(BlacklistEntry.Type.USER, args[2])) {
+                            event.getChannel().sendMessage(EmoteReference.CORRECT + "User wasn't blacklisted, removed any entry left for it: " + args[2]).queue();
+                            return;
+                        }
                         event.getChannel().sendMessage(EmoteReference.CORRECT + "Unblacklisted User: " + MantaroBot.getInstance().getUserById(args[2])).queue();
-                        obj.saveAsync();
                     }
                 }
             }
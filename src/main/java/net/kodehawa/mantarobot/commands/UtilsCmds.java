@@ -23,6 +23,7 @@ import net.dv8tion.jda.core.EmbedBuilder;
 import net.dv8tion.jda.core.MessageBuilder;
 import net.dv8tion.jda.core.Permission;
 import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.entities.Member;
 import net.dv8tion.jda.core.entities.Message;
 import net.dv8tion.jda.core.entities.MessageEmbed;
 import net.dv8tion.jda.core.entities.User;
@@ -61,7 +62,6 @@ import java.util.Queue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 import static br.com.brjdevs.java.utils.collections.CollectionUtils.random;
 
@@ -110,20 +110,21 @@ public class UtilsCmds {
 
                     try {
                         if(cacher != null) {
-                            if(cacher.cachedBirthdays.isEmpty()) {
+                            if(cacher.getCount() == 0) {
                                 event.getChannel().sendMessage(EmoteReference.SAD + "Things seems a bit empty here...").queue();
                                 return;
                             }
 
-                            List<String> ids = event.getGuild().getMemberCache().stream().map(m -> m.getUser().getId()).collect(Collectors.toList());
-                            Map<String, String> guildCurrentBirthdays = new HashMap<>();
                             Calendar calendar = Calendar.getInstance();
-                            String calendarMonth = String.valueOf(calendar.get(Calendar.MONTH) + 1);
-                            String currentMonth = (calendarMonth.length() == 1 ? 0 : "") + calendarMonth;
-
-                            for(Map.Entry<String, String> birthdays : cacher.cachedBirthdays.entrySet()) {
-                                if(ids.contains(birthdays.getKey()) && birthdays.getValue().split("-")[1].equals(currentMonth)) {
-                                    guildCurrentBirthdays.put(birthdays.getKey(), birthdays.getValue());
+                            int month = calendar.get(Calendar.MONTH) + 1;
+                            List<String> guildCurrentBirthdays = new ArrayList<>();
+
+                            //Days come in order, so this is already sorted.
+                            for(int day = 1; day <= calendar.getActualMaximum(Calendar.DAY_OF_MONTH); day++) {
+                                for(long id : cacher.getBirthdays(month, day)) {
+                                    Member member = event.getGuild().getMemberById(id);
+                                    if(member != null)
+                                        guildCurrentBirthdays.add(String.format("+ %-20s : %02d-%02d ", member.getEffectiveName(), day, month));
                                 }
                             }
 
@@ -133,10 +134,7 @@ public class UtilsCmds {
                                 return;
                             }
 
-                            String birthdays = guildCurrentBirthdays.entrySet().stream()
-                                    .sorted(Comparator.comparingInt(entry -> Integer.parseInt(entry.getValue().split("-")[0])))
-                                    .map((entry) -> String.format("+ %-20s : %s ", event.getGuild().getMemberById(entry.getKey()).getEffectiveName(), entry.getValue()))
-                                    .collect(Collectors.joining("\n"));
+                            String birthdays = String.join("\n", guildCurrentBirthdays);
 
                             List<String> parts = DiscordUtils.divideString(1000, birthdays);
                             List<String> messages = new LinkedList<>();
@@ -329,7 +327,7 @@ public class UtilsCmds {
                 }
 
                 if(args[0].equals("list") || args[0].equals("ls")) {
-                    List<Reminder> reminders = Reminder.CURRENT_REMINDERS.get(event.getAuthor().getId());
+                    List<Reminder> reminders = Reminder.getReminders(event.getAuthor().getId());
 
                     if(reminders == null || reminders.isEmpty()) {
                         event.getChannel().sendMessage(EmoteReference.ERROR + "You have no reminders set!").queue();
@@ -352,7 +350,7 @@ public class UtilsCmds {
 
                 if(args[0].equals("cancel")) {
                     try {
-                        List<Reminder> reminders = Reminder.CURRENT_REMINDERS.get(event.getAuthor().getId());
+                        List<Reminder> reminders = Reminder.getReminders(event.getAuthor().getId());
 
                         if(reminders.isEmpty()) {
                             event.getChannel().sendMessage(EmoteReference.ERROR + "You have no reminders set!").queue();
@@ -411,7 +409,6 @@ public class UtilsCmds {
                         .stripMentions(event.getGuild(), Message.MentionType.EVERYONE, Message.MentionType.ROLE, Message.MentionType.HERE)
                         .sendTo(event.getChannel()).queue();
 
-                //TODO save to db
                 new Reminder.Builder()
                         .id(user.getId())
                         .reminder(toRemind)
@@ -16,7 +16,6 @@
 
 package net.kodehawa.mantarobot.commands.custom;
 
-import br.com.brjdevs.java.utils.texts.MatcherUtils;
 import com.google.gson.JsonPrimitive;
 import net.kodehawa.mantarobot.utils.URLEncoding;
 
@@ -24,12 +23,8 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.function.BiPredicate;
 import java.util.function.Function;
-import java.util.regex.Pattern;
 
 public class ConditionalCustoms {
-    private static final Pattern GETTER_MODIFIER = Pattern.compile("@[a-z]+\\{.*?}"),
-            FUNCNAME = Pattern.compile("\\{"),
-            SPLITTER = Pattern.compile(";", Pattern.LITERAL);
     private static final Map<String, Function<String[], String>> functions = new HashMap<>();
 
     static {
@@ -83,33 +78,10 @@ public class ConditionalCustoms {
         });
     }
 
-    public static String resolve(String string, int depth) {
-        if(!string.contains("@") || !string.contains("{") || !string.contains("}")) return string;
-        if(depth > 4) return string;
-
-        return MatcherUtils.replaceAll(GETTER_MODIFIER.matcher(string), s -> {
-            s = s.substring(1, s.length() - 1);
-
-            if(GETTER_MODIFIER.matcher(s).find())
-                s = resolve(s, depth + 1);
-
-            String[] parts = FUNCNAME.split(s, 2);
-
-            if(parts.length == 0)
-                return "`function name is empty`";
-
-            String name = parts[0];
-
-            if(!functions.containsKey(name))
-                return "`" + s + " isn't a function`";
-
-            Function<String[], String> f = functions.get(name);
-
-            if(parts.length == 1) {
-                return f.apply(new String[0]);
-            }
-
-            return f.apply(SPLITTER.split(parts[1], -1));
-        });
+    /**
+     * @return The function with the specified name, or null if there isn't one. Used by {@link CustomTemplate}.
+     */
+    static Function<String[], String> getFunction(String name) {
+        return functions.get(name);
     }
 }
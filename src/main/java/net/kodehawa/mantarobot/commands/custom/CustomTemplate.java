@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2016-2018 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ */
+
+package net.kodehawa.mantarobot.commands.custom;
+
+import net.dv8tion.jda.core.events.message.guild.GuildMessageReceivedEvent;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A custom command response, parsed once into a tree of text, {@code $(variable)} and {@code @function{arg;arg}} nodes.
+ * <p>
+ * This does the same job as running {@link Mapifier#dynamicResolve} and then resolving the {@link ConditionalCustoms} functions on the
+ * response, but without re-scanning the string on every run: variables are bound to their getter when compiling and only the ones the response uses
+ * get computed, and the output is written to a single {@link StringBuilder}. Function calls can be nested, and the values of variables
+ * are never parsed as functions or split into arguments.
+ */
+public final class CustomTemplate {
+    private final Node[] nodes;
+    private final boolean constant;
+
+    private CustomTemplate(List<Node> nodes) {
+        this.nodes = nodes.toArray(new Node[0]);
+        this.constant = nodes.size() == 1 && nodes.get(0) instanceof Text;
+    }
+
+    /**
+     * Parses a custom command response.
+     *
+     * @param source The response, as the user wrote it.
+     * @return The compiled template.
+     */
+    public static CustomTemplate compile(String source) {
+        Parser parser = new Parser(source);
+        return new CustomTemplate(parser.parse(false));
+    }
+
+    /**
+     * Compiles every response of a custom command.
+     */
+    public static List<CustomTemplate> compile(List<String> sources) {
+        List<CustomTemplate> templates = new ArrayList<>(sources.size());
+        for(String source : sources) {
+            templates.add(compile(source));
+        }
+        return templates;
+    }
+
+    /**
+     * Runs this template for the specified event.
+     *
+     * @param event The event that triggered the custom command.
+     * @return The resolved response.
+     */
+    public String evaluate(GuildMessageReceivedEvent event) {
+        if(constant)
+            return ((Text) nodes[0]).text;
+
+        StringBuilder out = new StringBuilder();
+        Context context = new Context(event);
+        for(Node node : nodes) {
+            node.evaluate(context, out);
+        }
+        return out.toString();
+    }
+
+    private interface Node {
+        void evaluate(Context context, StringBuilder out);
+    }
+
+    private static class Context {
+        final GuildMessageReceivedEvent event;
+        Map<String, String> values;
+
+        Context(GuildMessageReceivedEvent event) {
+            this.event = event;
+        }
+    }
+
+    private static class Text implements Node {
+        final String text;
+
+        Text(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public void evaluate(Context context, StringBuilder out) {
+            out.append(text);
+        }
+    }
+
+    private static class Variable implements Node {
+        final String key;
+        final Function<GuildMessageReceivedEvent, String> getter;
+
+        Variable(String key, Function<GuildMessageReceivedEvent, String> getter) {
+            this.key = key;
+            this.getter = getter;
+        }
+
+        @Override
+        public void evaluate(Context context, StringBuilder out) {
+            //Responses often use the same variable more than once, only compute it the first time.
+            if(context.values == null)
+                context.values = new HashMap<>();
+
+            String value = context.values.get(key);
+            if(value == null) {
+                value = getter.apply(context.event);
+                if(value == null)
+                    value = "";
+                context.values.put(key, value);
+            }
+
+            out.append(value);
+        }
+    }
+
+    private static class Call implements Node {
+        final Function<String[], String> function;
+        final Node[][] arguments;
+
+        Call(Function<String[], String> function, Node[][] arguments) {
+            this.function = function;
+            this.arguments = arguments;
+        }
+
+        @Override
+        public void evaluate(Context context, StringBuilder out) {
+            String[] values = new String[arguments.length];
+            StringBuilder argument = new StringBuilder();
+            for(int i = 0; i < arguments.length; i++) {
+                argument.setLength(0);
+                for(Node node : arguments[i]) {
+                    node.evaluate(context, argument);
+                }
+                values[i] = argument.toString();
+            }
+
+            out.append(function.apply(values));
+        }
+    }
+
+    private static class Parser {
+        //Calls nested deeper than this are left as text, like the old resolver did past depth 4 (but a bit more generous).
+        static final int MAX_DEPTH = 16;
+
+        final String source;
+        //Braces that are never closed. Nested calls and unclosed calls (left as text) keep the braces balanced the same way, so a call
+        //closes if and only if its brace does, and we can tell that before parsing it instead of backtracking.
+        final BitSet unclosed = new BitSet();
+        int position;
+        int depth;
+
+        Parser(String source) {
+            this.source = source;
+
+            int[] open = new int[source.length()];
+            int count = 0;
+            for(int i = 0; i < source.length(); i++) {
+                char c = source.charAt(i);
+                if(c == '{')
+                    open[count++] = i;
+                else if(c == '}' && count > 0)
+                    count--;
+            }
+            for(int i = 0; i < count; i++) {
+                unclosed.set(open[i]);
+            }
+        }
+
+        //Parses until the end of the source or, if inside a function call, until the next top-level ';' or '}'.
+        List<Node> parse(boolean inCall) {
+            List<Node> nodes = new ArrayList<>();
+            StringBuilder text = new StringBuilder();
+            int braces = 0;
+
+            while(position < source.length()) {
+                char c = source.charAt(position);
+
+                if(inCall && braces == 0 && (c == ';' || c == '}'))
+                    break;
+
+                if(c == '$') {
+                    Node variable = variable();
+                    if(variable != null) {
+                        flush(text, nodes);
+                        nodes.add(variable);
+                        continue;
+                    }
+                } else if(c == '@') {
+                    Node call = call();
+                    if(call != null) {
+                        flush(text, nodes);
+                        nodes.add(call);
+                        continue;
+                    }
+                } else if(inCall && c == '{') {
+                    braces++;
+                } else if(inCall && c == '}') {
+                    braces--;
+                }
+
+                text.append(c);
+                position++;
+            }
+
+            flush(text, nodes);
+            return nodes;
+        }
+
+        //$(key), unknown keys resolve to the key itself.
+        Node variable() {
+            if(!source.startsWith("$(", position))
+                return null;
+
+            int end = position + 2;
+            while(end < source.length() && isKeyChar(source.charAt(end))) end++;
+
+            if(end == position + 2 || end >= source.length() || source.charAt(end) != ')')
+                return null;
+
+            String key = source.substring(position + 2, end);
+            position = end + 1;
+
+            Function<GuildMessageReceivedEvent, String> getter = Mapifier.getter(key);
+            return getter == null ? new Text(key) : new Variable(key, getter);
+        }
+
+        //@name{arg;arg}, left as text if the call is never closed or is nested too deep.
+        Node call() {
+            int start = position;
+            if(depth >= MAX_DEPTH)
+                return null;
+
+            int nameEnd = start + 1;
+            while(nameEnd < source.length() && source.charAt(nameEnd) >= 'a' && source.charAt(nameEnd) <= 'z') nameEnd++;
+
+            if(nameEnd == start + 1 || nameEnd >= source.length() || source.charAt(nameEnd) != '{' || unclosed.get(nameEnd))
+                return null;
+
+            position = nameEnd + 1;
+            List<Node[]> arguments = new ArrayList<>();
+            depth++;
+            while(true) {
+                arguments.add(parse(true).toArray(new Node[0]));
+
+                //Can't run out of source, the brace is closed.
+                if(source.charAt(position++) == '}')
+                    break;
+            }
+            depth--;
+
+            String name = source.substring(start + 1, nameEnd);
+            Function<String[], String> function = ConditionalCustoms.getFunction(name);
+            if(function == null)
+                function = args -> "`" + name + "{" + String.join(";", args) + " isn't a function`";
+
+            return new Call(function, arguments.toArray(new Node[0][]));
+        }
+
+        static boolean isKeyChar(char c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '.';
+        }
+
+        static void flush(StringBuilder text, List<Node> nodes) {
+            if(text.length() > 0) {
+                nodes.add(new Text(text.toString()));
+                text.setLength(0);
+            }
+        }
+    }
+}
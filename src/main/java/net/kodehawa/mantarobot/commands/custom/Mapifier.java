@@ -23,9 +23,11 @@ import net.dv8tion.jda.core.entities.TextChannel;
 import net.dv8tion.jda.core.events.guild.member.GenericGuildMemberEvent;
 import net.dv8tion.jda.core.events.message.guild.GuildMessageReceivedEvent;
 
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
 import java.util.regex.Pattern;
 
 import static net.kodehawa.mantarobot.utils.StringUtils.splitArgs;
@@ -34,6 +36,67 @@ import static org.apache.commons.lang3.StringUtils.capitalize;
 
 public class Mapifier {
     private static final Pattern GETTER_MODIFIER = Pattern.compile("\\$\\([A-Za-z0-9.]+?\\)");
+    //The same keys map(String, Map, GuildMessageReceivedEvent) fills with the "event" prefix, but computed only when asked for.
+    private static final Map<String, Function<GuildMessageReceivedEvent, String>> EVENT_GETTERS = new HashMap<>();
+
+    static {
+        EVENT_GETTERS.put("event", event -> event.getMember().getAsMention() + "@" + event.getChannel().getAsMention());
+        channelGetters("event.channel", GuildMessageReceivedEvent::getChannel);
+        guildGetters("event.guild", GuildMessageReceivedEvent::getGuild);
+        memberGetters("event.me", event -> event.getGuild().getSelfMember());
+        memberGetters("event.author", GuildMessageReceivedEvent::getMember);
+        messageGetters("event.message", GuildMessageReceivedEvent::getMessage);
+    }
+
+    /**
+     * Gets the function that computes a single key of the map {@link #map(String, Map, GuildMessageReceivedEvent)} would build with the "event" prefix.
+     *
+     * @param key The key, like {@code event.author.name}.
+     * @return The function, or null if there is no such key.
+     */
+    public static Function<GuildMessageReceivedEvent, String> getter(String key) {
+        return EVENT_GETTERS.get(key);
+    }
+
+    private static void guildGetters(String prefix, Function<GuildMessageReceivedEvent, Guild> guild) {
+        EVENT_GETTERS.put(prefix, event -> guild.apply(event).getName());
+        EVENT_GETTERS.put(prefix + ".name", event -> guild.apply(event).getName());
+        memberGetters(prefix + ".owner", event -> guild.apply(event).getOwner());
+        EVENT_GETTERS.put(prefix + ".region", event -> guild.apply(event).getRegion().getName());
+        EVENT_GETTERS.put(prefix + ".totalusers", event -> String.valueOf(guild.apply(event).getMemberCache().size()));
+    }
+
+    private static void memberGetters(String prefix, Function<GuildMessageReceivedEvent, Member> member) {
+        EVENT_GETTERS.put(prefix, event -> member.apply(event).getAsMention());
+        EVENT_GETTERS.put(prefix + ".username", event -> member.apply(event).getUser().getName());
+        EVENT_GETTERS.put(prefix + ".discriminator", event -> member.apply(event).getUser().getDiscriminator());
+        EVENT_GETTERS.put(prefix + ".name", event -> member.apply(event).getEffectiveName());
+        EVENT_GETTERS.put(prefix + ".game", event -> member.apply(event).getGame() != null ? member.apply(event).getGame().getName() : "None");
+        EVENT_GETTERS.put(prefix + ".status", event -> capitalize(member.apply(event).getOnlineStatus().getKey()));
+        EVENT_GETTERS.put(prefix + ".mention", event -> member.apply(event).getAsMention());
+        EVENT_GETTERS.put(prefix + ".avatar", event -> member.apply(event).getUser().getEffectiveAvatarUrl());
+        EVENT_GETTERS.put(prefix + ".id", event -> member.apply(event).getUser().getId());
+    }
+
+    private static void messageGetters(String prefix, Function<GuildMessageReceivedEvent, Message> message) {
+        EVENT_GETTERS.put(prefix, event -> arguments(message.apply(event).getContentRaw()));
+        EVENT_GETTERS.put(prefix + ".raw", event -> arguments(message.apply(event).getContentRaw()));
+        EVENT_GETTERS.put(prefix + ".textual", event -> arguments(message.apply(event).getContentDisplay()));
+        EVENT_GETTERS.put(prefix + ".stripped", event -> arguments(message.apply(event).getContentStripped()));
+    }
+
+    private static void channelGetters(String prefix, Function<GuildMessageReceivedEvent, TextChannel> channel) {
+        EVENT_GETTERS.put(prefix, event -> channel.apply(event).getAsMention());
+        EVENT_GETTERS.put(prefix + ".topic", event -> channel.apply(event).getTopic());
+        EVENT_GETTERS.put(prefix + ".name", event -> channel.apply(event).getName());
+        EVENT_GETTERS.put(prefix + ".id", event -> channel.apply(event).getId());
+        EVENT_GETTERS.put(prefix + ".mention", event -> channel.apply(event).getAsMention());
+    }
+
+    //Everything after the command name, without pinging everyone.
+    private static String arguments(String content) {
+        return splitArgs(content.replace("@everyone", "\u200Deveryone").replace("@here", "\u200Dhere"), 2)[1];
+    }
 
     public static String dynamicResolve(String string, Map<String, String> dynamicMap) {
         if(!string.contains("$(")) return string;
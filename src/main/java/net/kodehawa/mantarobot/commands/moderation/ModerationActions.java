@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2016-2018 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ */
+
+
+package net.kodehawa.mantarobot.commands.moderation;
+
+import lombok.extern.slf4j.Slf4j;
+import net.dv8tion.jda.core.JDA;
+import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.entities.Member;
+import net.dv8tion.jda.core.entities.Role;
+import net.kodehawa.mantarobot.MantaroBot;
+import net.kodehawa.mantarobot.core.shard.MantaroShard;
+import net.kodehawa.mantarobot.data.MantaroData;
+import net.kodehawa.mantarobot.db.entities.DBGuild;
+import net.kodehawa.mantarobot.db.entities.ScheduledAction;
+import net.kodehawa.mantarobot.db.entities.helpers.GuildData;
+
+/**
+ * What to do when a timed mute or a temporary ban runs out. Run by {@link net.kodehawa.mantarobot.services.ActionScheduler}.
+ */
+@Slf4j
+public class ModerationActions {
+    public static boolean unmute(ScheduledAction action) {
+        if(!isReady(action.getGuildId()))
+            return false;
+
+        Guild guild = MantaroBot.getInstance().getGuildById(action.getGuildId());
+        if(guild == null) {
+            log.debug("Dropped unmute {} because guild == null", action.getId());
+            return true;
+        }
+
+        Member member = guild.getMemberById(action.getUserId());
+        if(member == null) {
+            log.debug("Dropped unmute {} because member == null", action.getId());
+            return true;
+        }
+
+        DBGuild dbGuild = MantaroData.db().getGuild(guild);
+        GuildData guildData = dbGuild.getData();
+        Role mutedRole = guildData.getMutedRole() == null ? null : guild.getRoleById(guildData.getMutedRole());
+        if(mutedRole == null) {
+            log.debug("Dropped unmute {} because role == null", action.getId());
+            return true;
+        }
+
+        log.debug("Unmuted {} because time ran out", action.getId());
+        guild.getController().removeSingleRoleFromMember(member, mutedRole).reason("Mute timeout expired").queue();
+        guildData.setCases(guildData.getCases() + 1);
+        dbGuild.saveAsync();
+        ModLog.log(guild.getSelfMember(), member.getUser(), "Mute timeout expired", ModLog.ModAction.UNMUTE, guildData.getCases());
+        return true;
+    }
+
+    public static boolean unban(ScheduledAction action) {
+        if(!isReady(action.getGuildId()))
+            return false;
+
+        Guild guild = MantaroBot.getInstance().getGuildById(action.getGuildId());
+        if(guild == null) {
+            log.debug("Dropped unban {} because guild == null", action.getId());
+            return true;
+        }
+
+        guild.getController().unban(action.getUserId()).queue();
+        ModLog.logUnban(guild.getSelfMember(), action.getUserId(), "The temporary ban ended.");
+        return true;
+    }
+
+    //Until the shard of the guild connects we can't tell if the guild is gone or just not loaded yet.
+    private static boolean isReady(String guildId) {
+        MantaroShard shard = MantaroBot.getInstance().getShardForGuild(guildId);
+        return shard != null && shard.getStatus() == JDA.Status.CONNECTED;
+    }
+}
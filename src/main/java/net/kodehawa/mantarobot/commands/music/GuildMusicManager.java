@@ -18,16 +18,21 @@ package net.kodehawa.mantarobot.commands.music;
 
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.player.event.AudioEventAdapter;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackEndReason;
 import lombok.Getter;
 import lombok.Setter;
 import net.dv8tion.jda.core.entities.Guild;
 import net.kodehawa.mantarobot.MantaroBot;
 import net.kodehawa.mantarobot.commands.music.handlers.AudioPlayerSendHandler;
 import net.kodehawa.mantarobot.commands.music.requester.TrackScheduler;
+import net.kodehawa.mantarobot.core.shard.MantaroShard;
 import net.kodehawa.mantarobot.utils.commands.EmoteReference;
 
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class GuildMusicManager {
     @Getter
@@ -38,13 +43,52 @@ public class GuildMusicManager {
     @Setter
     public boolean isAwaitingDeath;
     private ScheduledFuture<?> leaveTask = null;
+    //Whether this is counted as an active player on the stats of its shard.
+    private final AtomicBoolean active = new AtomicBoolean();
+    private final long guildId;
 
     public GuildMusicManager(AudioPlayerManager manager, String guildId) {
+        this.guildId = Long.parseLong(guildId);
         audioPlayer = manager.createPlayer();
         trackScheduler = new TrackScheduler(audioPlayer, guildId);
+        //Goes before the scheduler, so a track ending is seen before the scheduler starts the next one.
+        audioPlayer.addListener(new AudioEventAdapter() {
+            @Override
+            public void onTrackStart(AudioPlayer player, AudioTrack track) {
+                setActive(true);
+            }
+
+            @Override
+            public void onTrackEnd(AudioPlayer player, AudioTrack track, AudioTrackEndReason endReason) {
+                setActive(false);
+            }
+        });
         audioPlayer.addListener(trackScheduler);
     }
 
+    private void setActive(boolean active) {
+        if(this.active.getAndSet(active) == active)
+            return;
+
+        MantaroShard shard = MantaroBot.getInstance().getShardForGuild(guildId);
+        if(shard == null)
+            return;
+
+        if(active)
+            shard.getStats().playerStarted();
+        else
+            shard.getStats().playerStopped();
+    }
+
+    /**
+     * Stops the player for good, when the manager is getting dropped.
+     */
+    public void destroy() {
+        cancelLeave();
+        audioPlayer.destroy();
+        setActive(false);
+    }
+
     private void leave() {
         Guild guild = trackScheduler.getGuild();
 
@@ -62,6 +62,12 @@ public class MantaroAudioManager {
         return musicManager;
     }
 
+    public void removeMusicManager(String guildId) {
+        GuildMusicManager musicManager = musicManagers.remove(guildId);
+        if(musicManager != null)
+            musicManager.destroy();
+    }
+
     public long getTotalQueueSize() {
         return musicManagers.values().stream().map(m -> m.getTrackScheduler().getQueue().size()).mapToInt(Integer::intValue).sum();
     }
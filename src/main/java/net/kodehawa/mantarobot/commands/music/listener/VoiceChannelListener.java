@@ -24,15 +24,19 @@ import net.dv8tion.jda.core.events.guild.voice.GuildVoiceJoinEvent;
 import net.dv8tion.jda.core.events.guild.voice.GuildVoiceLeaveEvent;
 import net.dv8tion.jda.core.events.guild.voice.GuildVoiceMoveEvent;
 import net.dv8tion.jda.core.events.guild.voice.GuildVoiceMuteEvent;
-import net.dv8tion.jda.core.hooks.EventListener;
 import net.kodehawa.mantarobot.MantaroBot;
 import net.kodehawa.mantarobot.commands.music.GuildMusicManager;
 import net.kodehawa.mantarobot.commands.music.requester.TrackScheduler;
+import net.kodehawa.mantarobot.core.listeners.TypedEventListener;
 import net.kodehawa.mantarobot.utils.commands.EmoteReference;
 
 import java.util.concurrent.TimeUnit;
 
-public class VoiceChannelListener implements EventListener {
+public class VoiceChannelListener implements TypedEventListener {
+    private static final Class<?>[] EVENTS = {
+            GuildVoiceMoveEvent.class, GuildVoiceJoinEvent.class, GuildVoiceLeaveEvent.class, GuildVoiceMuteEvent.class
+    };
+
     private static boolean validate(GuildVoiceState state) {
         return state == null || !state.inVoiceChannel();
     }
@@ -41,6 +45,11 @@ public class VoiceChannelListener implements EventListener {
         return vc.getMembers().stream().filter(m -> !m.getUser().isBot()).count() == 0;
     }
 
+    @Override
+    public Class<?>[] getEventTypes() {
+        return EVENTS;
+    }
+
     @Override
     public void onEvent(Event event) {
         if(event instanceof GuildVoiceMoveEvent) {
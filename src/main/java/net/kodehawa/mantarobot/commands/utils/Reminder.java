@@ -16,87 +16,102 @@
 
 package net.kodehawa.mantarobot.commands.utils;
 
-import com.fasterxml.jackson.annotation.JsonIgnore;
-import com.fasterxml.jackson.annotation.JsonProperty;
+import net.dv8tion.jda.core.JDA;
 import net.dv8tion.jda.core.entities.Message;
 import net.dv8tion.jda.core.entities.User;
 import net.kodehawa.mantarobot.MantaroBot;
+import net.kodehawa.mantarobot.core.MantaroCore;
+import net.kodehawa.mantarobot.core.shard.MantaroShard;
 import net.kodehawa.mantarobot.data.MantaroData;
 import net.kodehawa.mantarobot.db.entities.DBUser;
+import net.kodehawa.mantarobot.db.entities.ScheduledAction;
+import net.kodehawa.mantarobot.services.ActionScheduler;
 import net.kodehawa.mantarobot.utils.commands.EmoteReference;
 
-import java.util.*;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
+/**
+ * A reminder of an user, stored as a {@link ScheduledAction} so it survives restarts.
+ */
 public class Reminder {
-    @JsonIgnore
-    public static final Map<String, List<Reminder>> CURRENT_REMINDERS = new HashMap<>();
-    @JsonIgnore
-    private static final ScheduledExecutorService service = Executors.newSingleThreadScheduledExecutor();
-    @JsonIgnore
-    private Future<?> scheduledReminder;
-
     public final String id;
     public final String reminder;
     public final long time;
     private final long scheduledAtMillis;
     private final String userId;
-    private final long offset;
 
-    private Reminder(@JsonProperty("id") String id, @JsonProperty("userId") String userId, @JsonProperty("reminder") String reminder,
-                     @JsonProperty("scheduledAtMillis") long scheduledAt, @JsonProperty("time") long time, @JsonProperty("offset") long offset) {
+    private Reminder(String id, String userId, String reminder, long scheduledAt, long time) {
         this.id = id;
         this.userId = userId;
         this.reminder = reminder;
         this.time = time;
         this.scheduledAtMillis = scheduledAt;
-        this.offset = offset;
+    }
 
-        CURRENT_REMINDERS.computeIfAbsent(userId, (wew) -> new ArrayList<>());
-        DBUser user = MantaroData.db().getUser(userId);
-        user.getData().setReminderN(user.getData().getReminderN() + 1);
-        user.saveAsync();
+    private Reminder(ScheduledAction action) {
+        this(action.getId(), action.getUserId(), action.getData(), action.getCreatedAt(), action.getTime());
+    }
+
+    /**
+     * @return The pending reminders of an user, soonest first.
+     */
+    public static List<Reminder> getReminders(String userId) {
+        return ActionScheduler.getInstance().getActions(userId, ScheduledAction.Type.REMINDER).stream()
+                .map(Reminder::new)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Sends a due reminder. Run by {@link ActionScheduler}.
+     */
+    public static boolean remind(ScheduledAction action) {
+        User user = MantaroBot.getInstance().getUserById(action.getUserId());
+        if(user == null) {
+            //On startup the user could be on a shard that didn't connect yet, don't drop reminders that came due while we were down.
+            return isReady();
+        }
+
+        //Ignore "cannot open a private channel with this user"
+        AtomicReference<Consumer<Message>> c = new AtomicReference<>();
+        Consumer<Throwable> ignore = (t) -> {};
+
+        user.openPrivateChannel().queue(channel -> channel.sendMessage(
+                EmoteReference.POPPER + "**Reminder!**\n" + "You asked me to remind you of: " + action.getData() + "\nAt: " + new Date(action.getCreatedAt())
+        ).queue(c.get(), ignore));
+        return true;
+    }
+
+    //Until every shard is connected we can't tell if the user is gone or just not loaded yet.
+    private static boolean isReady() {
+        if(!MantaroCore.hasLoadedCompletely())
+            return false;
+
+        for(MantaroShard shard : MantaroBot.getInstance().getShardList()) {
+            //Skipped because of upToShard.
+            if(shard != null && shard.getStatus() != JDA.Status.CONNECTED)
+                return false;
+        }
+        return true;
     }
 
     public void schedule() {
-        CURRENT_REMINDERS.computeIfPresent(userId, (id, list) -> {
-            list.add(this);
-            return list;
-        });
-
-        scheduledReminder = service.schedule(() -> {
-            User user = MantaroBot.getInstance().getUserById(userId);
-            if(user == null) return;
-            removeCurrent();
-
-            //Ignore "cannot open a private channel with this user"
-            AtomicReference<Consumer<Message>> c = new AtomicReference<>();
-            Consumer<Throwable> ignore = (t) -> {};
-
-            user.openPrivateChannel().queue(channel -> channel.sendMessage(
-                    EmoteReference.POPPER + "**Reminder!**\n" + "You asked me to remind you of: " + reminder + "\nAt: " + new Date(scheduledAtMillis)
-            ).queue(c.get(), ignore));
-        }, (time - scheduledAtMillis) - offset, TimeUnit.MILLISECONDS);
+        ActionScheduler.getInstance().schedule(new ScheduledAction(id, ScheduledAction.Type.REMINDER, null, userId, time, scheduledAtMillis, reminder));
+
+        DBUser user = MantaroData.db().getUser(userId);
+        user.getData().setReminderN(user.getData().getReminderN() + 1);
+        user.saveAsync();
     }
 
     public Reminder cancel() {
-        removeCurrent();
-        scheduledReminder.cancel(true);
+        ActionScheduler.getInstance().cancel(id);
         return this;
     }
 
-    private void removeCurrent() {
-        CURRENT_REMINDERS.computeIfPresent(userId, (id, list) -> {
-            list.remove(this);
-            return list;
-        });
-    }
-
     public static class Builder {
         private long current;
         private String reminder;
@@ -140,7 +155,7 @@ public class Reminder {
             if(current <= 0)
                 throw new IllegalArgumentException("Current time must be positive and >0");
 
-            return new Reminder(UUID.randomUUID().toString(), userId, reminder, current, time, offset);
+            return new Reminder(UUID.randomUUID().toString(), userId, reminder, current, time - offset);
         }
     }
 }
@@ -18,57 +18,121 @@ package net.kodehawa.mantarobot.commands.utils.birthday;
 
 import com.rethinkdb.model.OptArgs;
 import com.rethinkdb.net.Cursor;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
 import lombok.extern.slf4j.Slf4j;
 import net.kodehawa.mantarobot.data.MantaroData;
+import net.kodehawa.mantarobot.db.entities.DBUser;
 
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import static com.rethinkdb.RethinkDB.r;
 
 /**
- * Caches the birthday date of all users seen on bot startup and adds them to a local ConcurrentHashMap.
+ * Caches the birthday date of all users on bot startup (and every so often after that), indexed by month and day.
  * This will later be used on {@link BirthdayTask}
+ * <p>
+ * Only the id and the birthday of the users that have one set are read, one at a time from the cursor, and every day (as MMdd) points to
+ * the ids of the users born on it, so finding today's birthdays is a lookup instead of going through all of them.
  */
 @Slf4j
 public class BirthdayCacher {
-    public Map<String, String> cachedBirthdays = new ConcurrentHashMap<>();
+    private static final long[] NONE = new long[0];
+
     public volatile boolean isDone;
     private ExecutorService executorService = Executors.newFixedThreadPool(1);
+    //MMdd -> ids of the users born that day. Replaced as a whole on every refresh, never modified after that.
+    private volatile TIntObjectMap<long[]> birthdays = new TIntObjectHashMap<>();
+    private volatile int count;
 
     public BirthdayCacher() {
         log.info("Caching birthdays...");
         cache();
     }
 
+    /**
+     * @param month The month, from 1 to 12.
+     * @param day   The day of the month.
+     * @return The ids of every user whose birthday is on that day. Don't modify it.
+     */
+    public long[] getBirthdays(int month, int day) {
+        long[] ids = birthdays.get(month * 100 + day);
+        return ids == null ? NONE : ids;
+    }
+
+    /**
+     * @return How many users have their birthday cached.
+     */
+    public int getCount() {
+        return count;
+    }
+
     public void cache() {
         executorService.submit(() -> {
             try {
-                Cursor<Map> m = r.table("users").run(MantaroData.conn(), OptArgs.of("read_mode", "outdated"));
-                cachedBirthdays.clear();
-                List<Map> m1 = m.toList();
-
-                for(Map r : m1) {
-                    //Blame rethinkdb for the casting hell thx
-                    String birthday = (String) ((HashMap) r.get("data")).get("birthday");
-                    if(birthday != null && !birthday.isEmpty()) {
-                        log.debug("-> PROCESS: {}", r);
-                        cachedBirthdays.put(String.valueOf(r.get("id")), birthday);
+                TIntObjectMap<TLongArrayList> days = new TIntObjectHashMap<>();
+                int total = 0;
+
+                //Blame rethinkdb for the casting hell thx
+                try(Cursor<Map> cursor = r.table(DBUser.DB_TABLE)
+                        .hasFields(r.hashMap("data", "birthday"))
+                        .pluck("id", r.hashMap("data", "birthday"))
+                        .run(MantaroData.conn(), OptArgs.of("read_mode", "outdated"))) {
+                    for(Map user : cursor) {
+                        Object data = user.get("data");
+                        int day = data instanceof Map ? day(((Map) data).get("birthday")) : -1;
+                        if(day == -1)
+                            continue;
+
+                        long id;
+                        try {
+                            id = Long.parseLong(String.valueOf(user.get("id")));
+                        } catch(NumberFormatException e) {
+                            continue;
+                        }
+
+                        TLongArrayList ids = days.get(day);
+                        if(ids == null)
+                            days.put(day, ids = new TLongArrayList());
+                        ids.add(id);
+                        total++;
                     }
                 }
 
-                log.debug("-> [CACHE] Birthdays: {}", cachedBirthdays);
+                TIntObjectMap<long[]> index = new TIntObjectHashMap<>(days.size());
+                days.forEachEntry((day, ids) -> {
+                    index.put(day, ids.toArray());
+                    return true;
+                });
 
-                m.close();
+                birthdays = index;
+                count = total;
                 isDone = true;
-                log.info("Cached all birthdays!");
+                log.info("Cached all birthdays! ({} users)", total);
             } catch(Exception e) {
                 e.printStackTrace();
             }
         });
     }
+
+    //dd-MM-yyyy -> MMdd, or -1 if it isn't a valid date.
+    private static int day(Object birthday) {
+        if(!(birthday instanceof String) || ((String) birthday).length() < 5)
+            return -1;
+
+        String date = (String) birthday;
+        try {
+            int day = Integer.parseInt(date.substring(0, 2));
+            int month = Integer.parseInt(date.substring(3, 5));
+            if(day < 1 || day > 31 || month < 1 || month > 12)
+                return -1;
+
+            return month * 100 + day;
+        } catch(NumberFormatException e) {
+            return -1;
+        }
+    }
 }
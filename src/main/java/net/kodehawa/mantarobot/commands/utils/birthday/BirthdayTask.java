@@ -16,6 +16,8 @@
 
 package net.kodehawa.mantarobot.commands.utils.birthday;
 
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
 import io.sentry.Sentry;
 import lombok.extern.slf4j.Slf4j;
 import net.dv8tion.jda.core.JDA;
@@ -27,9 +29,9 @@ import net.dv8tion.jda.core.utils.cache.SnowflakeCacheView;
 import net.kodehawa.mantarobot.MantaroBot;
 import net.kodehawa.mantarobot.data.MantaroData;
 import net.kodehawa.mantarobot.db.ManagedDatabase;
+import net.kodehawa.mantarobot.db.entities.DBGuild;
 import net.kodehawa.mantarobot.db.entities.helpers.GuildData;
 import net.kodehawa.mantarobot.utils.commands.EmoteReference;
-import org.apache.commons.lang3.time.FastDateFormat;
 
 import java.util.Calendar;
 import java.util.Map;
@@ -37,7 +39,6 @@ import java.util.stream.Collectors;
 
 @Slf4j
 public class BirthdayTask {
-    private static FastDateFormat dateFormat = FastDateFormat.getInstance("dd-MM-yyyy");
     private ManagedDatabase db = MantaroData.db();
 
     public void handle(int shardId) {
@@ -53,12 +54,15 @@ public class BirthdayTask {
             log.info("Checking birthdays in shard {} to assign roles...", jda.getShardInfo() == null ? 0 : jda.getShardInfo().getShardId());
             long start = System.currentTimeMillis();
             Calendar cal = Calendar.getInstance();
-            String now = dateFormat.format(cal.getTime()).substring(0, 5);
-            Map<String, String> cached = cache.cachedBirthdays;
+            //Only people whose birthday is today get the role, everyone else that has it loses it.
+            long[] today = cache.getBirthdays(cal.get(Calendar.MONTH) + 1, cal.get(Calendar.DAY_OF_MONTH));
+            TLongSet todaySet = new TLongHashSet(today);
             SnowflakeCacheView<Guild> guilds = jda.getGuildCache();
+            //Get every guild of the shard at once, doing it one by one takes a round-trip per guild.
+            Map<String, DBGuild> dbGuilds = db.getGuilds(guilds.stream().map(Guild::getId).collect(Collectors.toList()));
 
             for(Guild guild : guilds) {
-                GuildData tempData = db.getGuild(guild).getData();
+                GuildData tempData = dbGuilds.get(guild.getId()).getData();
                 if(tempData.getBirthdayChannel() != null && tempData.getBirthdayRole() != null) {
                     Role birthdayRole = guild.getRoleById(tempData.getBirthdayRole());
                     TextChannel channel = guild.getTextChannelById(tempData.getBirthdayChannel());
@@ -73,53 +77,44 @@ public class BirthdayTask {
                         if(birthdayRole.isManaged())
                             continue;
 
-                        Map<String, String> guildMap = cached.entrySet().stream().filter(map -> guild.getMemberById(map.getKey()) != null)
-                                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-
-                        for(Map.Entry<String, String> data : guildMap.entrySet()) {
-                            Member member = guild.getMemberById(data.getKey());
-                            String birthday = data.getValue();
-
-                            if(birthday == null) {
-                                log.debug("Birthday is null? Continuing to next iteration...");
-                                continue; //shouldn't happen
-                            }
-                            //else start the assigning
-
-                            //tada!
-                            if(birthday.substring(0, 5).equals(now)) {
-                                log.debug("Assigning birthday role on guild {} (M: {})", guild.getId(), member.getEffectiveName());
-                                if(!member.getRoles().contains(birthdayRole)) {
-                                    try {
-                                        guild.getController().addSingleRoleToMember(member, birthdayRole)
-                                                .reason("Birthday assigner. If you see this happening for every member of your server, or in unintended ways, please do ~>opts birthday disable")
-                                                .queue(s -> {
+                        //tada!
+                        for(long id : today) {
+                            Member member = guild.getMemberById(id);
+                            if(member == null || member.getRoles().contains(birthdayRole))
+                                continue;
+
+                            log.debug("Assigning birthday role on guild {} (M: {})", guild.getId(), member.getEffectiveName());
+                            try {
+                                guild.getController().addSingleRoleToMember(member, birthdayRole)
+                                        .reason("Birthday assigner. If you see this happening for every member of your server, or in unintended ways, please do ~>opts birthday disable")
+                                        .queue(s -> {
                                                     channel.sendMessage(String.format(EmoteReference.POPPER + "**%s is a year older now! Wish them a happy birthday.** :tada:",
                                                             member.getEffectiveName())).queue();
                                                     MantaroBot.getInstance().getStatsClient().increment("birthdays_logged");
                                                 }
                                         );
-                                        log.debug("Assigned birthday role on guild {} (M: {})", guild.getId(), member.getEffectiveName());
-                                        i++;
-                                        //Something went boom, ignore and continue
-                                    } catch(Exception e) {
-                                        log.debug("Something went boom while assigning a birthday role?...");
-                                    }
-                                }
-                            } else {
-                                //day passed
-                                if(member.getRoles().contains(birthdayRole)) {
-                                    try {
-                                        log.debug("Removing birthday role on guild {} (M: {})", guild.getId(), member.getEffectiveName());
-                                        guild.getController().removeRolesFromMember(member, birthdayRole)
-                                                .reason("Birthday assigner. If you see this happening for every member of your server, or in unintended ways, please do ~>opts birthday disable")
-                                                .queue();
-                                        r++;
-                                        //Something went boom, ignore and continue
-                                    } catch(Exception e) {
-                                        log.debug("Something went boom while removing a birthday role?...");
-                                    }
-                                }
+                                log.debug("Assigned birthday role on guild {} (M: {})", guild.getId(), member.getEffectiveName());
+                                i++;
+                                //Something went boom, ignore and continue
+                            } catch(Exception e) {
+                                log.debug("Something went boom while assigning a birthday role?...");
+                            }
+                        }
+
+                        //day passed. Not just for yesterday's birthdays: a run could have been missed, or someone changed their birthday.
+                        for(Member member : guild.getMembersWithRoles(birthdayRole)) {
+                            if(todaySet.contains(member.getUser().getIdLong()))
+                                continue;
+
+                            try {
+                                log.debug("Removing birthday role on guild {} (M: {})", guild.getId(), member.getEffectiveName());
+                                guild.getController().removeRolesFromMember(member, birthdayRole)
+                                        .reason("Birthday assigner. If you see this happening for every member of your server, or in unintended ways, please do ~>opts birthday disable")
+                                        .queue();
+                                r++;
+                                //Something went boom, ignore and continue
+                            } catch(Exception e) {
+                                log.debug("Something went boom while removing a birthday role?...");
                             }
                         }
                     }
@@ -18,7 +18,6 @@ package net.kodehawa.mantarobot.core;
 
 import com.google.common.base.Preconditions;
 import lombok.extern.slf4j.Slf4j;
-import net.dv8tion.jda.core.entities.Member;
 import net.dv8tion.jda.core.events.message.guild.GuildMessageReceivedEvent;
 import net.kodehawa.mantarobot.MantaroBot;
 import net.kodehawa.mantarobot.commands.info.stats.manager.CategoryStatsManager;
@@ -29,20 +28,20 @@ import net.kodehawa.mantarobot.core.modules.commands.SubCommand;
 import net.kodehawa.mantarobot.core.modules.commands.TreeCommand;
 import net.kodehawa.mantarobot.core.modules.commands.base.Category;
 import net.kodehawa.mantarobot.core.modules.commands.base.Command;
-import net.kodehawa.mantarobot.core.modules.commands.base.CommandPermission;
 import net.kodehawa.mantarobot.data.Config;
 import net.kodehawa.mantarobot.data.MantaroData;
-import net.kodehawa.mantarobot.db.entities.DBGuild;
-import net.kodehawa.mantarobot.db.entities.helpers.GuildData;
+import net.kodehawa.mantarobot.services.BlacklistService;
 import net.kodehawa.mantarobot.utils.commands.EmoteReference;
 
 import java.util.*;
+import java.util.function.BiFunction;
 
 @Slf4j
 public class CommandRegistry {
 
     private final Map<String, Command> commands;
     private final Config conf = MantaroData.config().get();
+    private BiFunction<GuildMessageReceivedEvent, String, Command> fallback;
 
     public CommandRegistry(Map<String, Command> commands) {
         this.commands = Preconditions.checkNotNull(commands);
@@ -65,66 +64,33 @@ public class CommandRegistry {
         if(command == null) {
             command = commands.get(cmdName.toLowerCase());
 
-            if(command == null)
-                return false;
-        }
-
-        //Variable used in lambda expression should be final or effectively final...
-        final Command cmd = command;
-
-        if(MantaroData.db().getMantaroData().getBlackListedUsers().contains(event.getAuthor().getId())) {
-            return false;
-        }
+            if(command == null) {
+                command = fallback == null ? null : fallback.apply(event, cmdName);
 
-        DBGuild dbg = MantaroData.db().getGuild(event.getGuild());
-        GuildData data = dbg.getData();
-
-        if(data.getDisabledCommands().contains(cmd instanceof AliasCommand ? ((AliasCommand) cmd).getOriginalName() : cmdName)) {
-            return false;
+                if(command == null)
+                    return false;
+            }
         }
 
-        List<String> channelDisabledCommands = data.getChannelSpecificDisabledCommands().get(event.getChannel().getId());
-        if(channelDisabledCommands != null && channelDisabledCommands.contains(cmd instanceof AliasCommand ? ((AliasCommand) cmd).getOriginalName() : cmdName)) {
-            return false;
-        }
-
-        if(data.getDisabledUsers().contains(event.getAuthor().getId()) && !isAdmin(event.getMember())) {
-            return false;
-        }
-
-        if(data.getDisabledChannels().contains(event.getChannel().getId()) && (cmd instanceof AliasCommand ? ((AliasCommand) cmd).parentCategory() != Category.MODERATION : cmd.category() != Category.MODERATION)) {
-            return false;
-        }
-
-        if(conf.isPremiumBot() && (cmd instanceof AliasCommand ? ((AliasCommand) cmd).parentCategory() == Category.CURRENCY : cmd.category() == Category.CURRENCY)) {
-            return false;
-        }
-
-        if(data.getDisabledCategories().contains(cmd instanceof AliasCommand ? ((AliasCommand) cmd).parentCategory() : cmd.category())) {
-            return false;
-        }
+        final Command cmd = command;
 
-        if(data.getChannelSpecificDisabledCategories().computeIfAbsent(event.getChannel().getId(), c ->
-                new ArrayList<>()).contains(cmd instanceof AliasCommand ? ((AliasCommand) cmd).parentCategory() : cmd.category())) {
+        if(BlacklistService.getInstance().isBlacklistedUser(event.getAuthor().getIdLong())) {
             return false;
         }
 
-        if(!data.getDisabledRoles().isEmpty() && event.getMember().getRoles().stream().anyMatch(r -> data.getDisabledRoles().contains(r.getId())) && !isAdmin(event.getMember())) {
-            return false;
-        }
+        String name = cmd instanceof AliasCommand ? ((AliasCommand) cmd).getOriginalName() : cmdName;
+        Category category = cmd instanceof AliasCommand ? ((AliasCommand) cmd).parentCategory() : cmd.category();
 
-        HashMap<String, List<String>> roleSpecificDisabledCommands = data.getRoleSpecificDisabledCommands();
-        if(event.getMember().getRoles().stream().anyMatch(r -> roleSpecificDisabledCommands.computeIfAbsent(r.getId(), s -> new ArrayList<>()).contains(cmd instanceof AliasCommand ? ((AliasCommand) cmd).getOriginalName() : cmdName)) && !isAdmin(event.getMember())) {
+        if(!GuildCommandPolicy.of(event.getGuild().getIdLong()).canRun(event.getMember(), event.getChannel().getIdLong(), name, category)) {
             return false;
         }
 
-        HashMap<String, List<Category>> roleSpecificDisabledCategories = data.getRoleSpecificDisabledCategories();
-        if(event.getMember().getRoles().stream().anyMatch(r -> roleSpecificDisabledCategories.computeIfAbsent(r.getId(), s -> new ArrayList<>()).contains(cmd instanceof AliasCommand ? ((AliasCommand) cmd).parentCategory() : cmd.category())) && !isAdmin(event.getMember())) {
+        if(conf.isPremiumBot() && category == Category.CURRENCY) {
             return false;
         }
 
         //If we are in the patreon bot, deny all requests from unknown guilds.
-        if(conf.isPremiumBot() && !conf.isOwner(event.getAuthor()) && !dbg.isPremium()) {
+        if(conf.isPremiumBot() && !conf.isOwner(event.getAuthor()) && !MantaroData.db().getGuild(event.getGuild()).isPremium()) {
             event.getChannel().sendMessage(EmoteReference.ERROR + "Seems like you're trying to use the Patreon bot when this guild is **not** marked as premium. " +
                     "**If you think this is an error please contact Kodehawa#3457 or poke me on #donators in the support guild**").queue();
             return false;
@@ -152,6 +118,14 @@ public class CommandRegistry {
         return true;
     }
 
+    /**
+     * Sets the function used to resolve commands that aren't registered, like the custom commands of a guild.
+     * It gets called with the event and the command name, and should return null if there is no such command.
+     */
+    public void setFallback(BiFunction<GuildMessageReceivedEvent, String, Command> fallback) {
+        this.fallback = fallback;
+    }
+
     public Command register(String name, Command command) {
         commands.putIfAbsent(name, command);
         log.debug("Registered command " + name);
@@ -173,8 +147,4 @@ public class CommandRegistry {
     public void addSubCommandTo(SimpleTreeCommand command, String name, SubCommand subCommand) {
         command.addSubCommand(name, subCommand);
     }
-
-    private boolean isAdmin(Member member) {
-        return CommandPermission.ADMIN.test(member);
-    }
 }
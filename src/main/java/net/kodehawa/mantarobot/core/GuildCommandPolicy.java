@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2016-2018 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ */
+
+package net.kodehawa.mantarobot.core;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+import net.dv8tion.jda.core.entities.Member;
+import net.dv8tion.jda.core.entities.Role;
+import net.kodehawa.mantarobot.core.modules.commands.base.Category;
+import net.kodehawa.mantarobot.core.modules.commands.base.CommandPermission;
+import net.kodehawa.mantarobot.data.MantaroData;
+import net.kodehawa.mantarobot.db.entities.DBGuild;
+import net.kodehawa.mantarobot.db.entities.helpers.GuildData;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable, precompiled view of the command restrictions (and custom prefix) a guild has configured on its {@link GuildData}.
+ * <p>
+ * {@link CommandRegistry#process} used to walk every disabled-command collection on each command call (and write empty lists into them on the way).
+ * This compiles them once into primitive sets keyed by snowflake, command names are stored as 64-bit hashes and categories as ordinal bitmasks,
+ * so checking if a member can run a command is only a handful of hash lookups.
+ * <p>
+ * Policies are cached per guild and rebuilt when the guild gets saved or deleted (see {@link net.kodehawa.mantarobot.db.ManagedDatabase#save}).
+ * Changes done by other processes only get here through the changefeed, if it runs on this one, so policies are also rebuilt 10 minutes after
+ * they were compiled, no matter how often they're used.
+ */
+public final class GuildCommandPolicy {
+    //Shared by every guild that hasn't configured any restriction, which is most of them.
+    private static final GuildCommandPolicy EMPTY = new GuildCommandPolicy();
+    private static final Cache<Long, GuildCommandPolicy> policies = CacheBuilder.newBuilder()
+            .concurrencyLevel(10)
+            .maximumSize(150000)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .build();
+
+    private final TLongSet disabledCommands;
+    private final int disabledCategories;
+    private final TLongSet disabledChannels;
+    private final TLongSet disabledUsers;
+    private final TLongSet disabledRoles;
+    private final TLongObjectMap<TLongSet> channelDisabledCommands;
+    private final TLongIntMap channelDisabledCategories;
+    private final TLongObjectMap<TLongSet> roleDisabledCommands;
+    private final TLongIntMap roleDisabledCategories;
+    private final boolean checksRoles;
+    private final String customPrefix;
+
+    private GuildCommandPolicy() {
+        this.disabledCommands = new TLongHashSet(0);
+        this.disabledCategories = 0;
+        this.disabledChannels = new TLongHashSet(0);
+        this.disabledUsers = new TLongHashSet(0);
+        this.disabledRoles = new TLongHashSet(0);
+        this.channelDisabledCommands = new TLongObjectHashMap<>(0);
+        this.channelDisabledCategories = new TLongIntHashMap(0);
+        this.roleDisabledCommands = new TLongObjectHashMap<>(0);
+        this.roleDisabledCategories = new TLongIntHashMap(0);
+        this.checksRoles = false;
+        this.customPrefix = null;
+    }
+
+    private GuildCommandPolicy(GuildData data) {
+        this.disabledCommands = hashes(data.getDisabledCommands());
+        this.disabledCategories = mask(data.getDisabledCategories());
+        this.disabledChannels = ids(data.getDisabledChannels());
+        this.disabledUsers = ids(data.getDisabledUsers());
+        this.disabledRoles = ids(data.getDisabledRoles());
+
+        this.channelDisabledCommands = new TLongObjectHashMap<>();
+        for(Map.Entry<String, List<String>> entry : data.getChannelSpecificDisabledCommands().entrySet()) {
+            long id = parseId(entry.getKey());
+            if(id != 0 && entry.getValue() != null && !entry.getValue().isEmpty())
+                channelDisabledCommands.put(id, hashes(entry.getValue()));
+        }
+
+        this.channelDisabledCategories = new TLongIntHashMap();
+        for(Map.Entry<String, List<Category>> entry : data.getChannelSpecificDisabledCategories().entrySet()) {
+            long id = parseId(entry.getKey());
+            int mask = mask(entry.getValue());
+            if(id != 0 && mask != 0)
+                channelDisabledCategories.put(id, mask);
+        }
+
+        this.roleDisabledCommands = new TLongObjectHashMap<>();
+        for(Map.Entry<String, List<String>> entry : data.getRoleSpecificDisabledCommands().entrySet()) {
+            long id = parseId(entry.getKey());
+            if(id != 0 && entry.getValue() != null && !entry.getValue().isEmpty())
+                roleDisabledCommands.put(id, hashes(entry.getValue()));
+        }
+
+        this.roleDisabledCategories = new TLongIntHashMap();
+        for(Map.Entry<String, List<Category>> entry : data.getRoleSpecificDisabledCategories().entrySet()) {
+            long id = parseId(entry.getKey());
+            int mask = mask(entry.getValue());
+            if(id != 0 && mask != 0)
+                roleDisabledCategories.put(id, mask);
+        }
+
+        this.checksRoles = !disabledRoles.isEmpty() || !roleDisabledCommands.isEmpty() || !roleDisabledCategories.isEmpty();
+        this.customPrefix = data.getGuildCustomPrefix() == null || data.getGuildCustomPrefix().isEmpty() ? null : data.getGuildCustomPrefix();
+    }
+
+    /**
+     * Compiles the policy of the specified guild data. Guilds without any restriction share the same empty policy.
+     *
+     * @param data The guild data to compile.
+     * @return The compiled policy.
+     */
+    public static GuildCommandPolicy compile(GuildData data) {
+        GuildCommandPolicy policy = new GuildCommandPolicy(data);
+        return policy.isEmpty() ? EMPTY : policy;
+    }
+
+    /**
+     * Gets the cached policy for a guild, loading the guild from the database and compiling it if it isn't cached yet.
+     *
+     * @param guildId The id of the guild.
+     * @return The compiled policy of the guild.
+     */
+    public static GuildCommandPolicy of(long guildId) {
+        GuildCommandPolicy policy = policies.getIfPresent(guildId);
+        if(policy == null) {
+            DBGuild dbGuild = MantaroData.db().getGuild(String.valueOf(guildId));
+            policy = compile(dbGuild.getData());
+            policies.put(guildId, policy);
+        }
+
+        return policy;
+    }
+
+    /**
+     * Gets the cached policy for a guild, without loading it.
+     *
+     * @param guildId The id of the guild.
+     * @return The compiled policy of the guild, or null if it isn't cached.
+     */
+    public static GuildCommandPolicy getIfCached(long guildId) {
+        return policies.getIfPresent(guildId);
+    }
+
+    /**
+     * Replaces the cached policy of this guild with a freshly compiled one. Called when a guild gets saved.
+     *
+     * @param guild The guild that just got saved.
+     */
+    public static void update(DBGuild guild) {
+        long id = parseId(guild.getId());
+        if(id != 0)
+            policies.put(id, compile(guild.getData()));
+    }
+
+    /**
+     * Drops the cached policy of this guild, so it gets loaded again on the next command. Called when a guild gets deleted.
+     *
+     * @param guildId The id of the guild.
+     */
+    public static void invalidate(String guildId) {
+        long id = parseId(guildId);
+        if(id != 0)
+            policies.invalidate(id);
+    }
+
+    /**
+     * Checks if a member can run a command in the specified channel.
+     *
+     * @param member    The member that triggered the command.
+     * @param channelId The channel the command was triggered on.
+     * @param command   The name of the command, or the original name if it's an alias.
+     * @param category  The category of the command, or the category of the parent if it's an alias.
+     * @return Whether the command should be run.
+     */
+    public boolean canRun(Member member, long channelId, String command, Category category) {
+        if(this == EMPTY)
+            return true;
+
+        long commandHash = hash(command);
+        int categoryBit = category == null ? 0 : 1 << category.ordinal();
+
+        if(disabledCommands.contains(commandHash))
+            return false;
+
+        TLongSet channelCommands = channelDisabledCommands.get(channelId);
+        if(channelCommands != null && channelCommands.contains(commandHash))
+            return false;
+
+        if(disabledUsers.contains(member.getUser().getIdLong()) && !isAdmin(member))
+            return false;
+
+        if(disabledChannels.contains(channelId) && category != Category.MODERATION)
+            return false;
+
+        if((disabledCategories & categoryBit) != 0)
+            return false;
+
+        if((channelDisabledCategories.get(channelId) & categoryBit) != 0)
+            return false;
+
+        if(checksRoles) {
+            for(Role role : member.getRoles()) {
+                long roleId = role.getIdLong();
+                TLongSet roleCommands = roleDisabledCommands.get(roleId);
+                if(disabledRoles.contains(roleId) || (roleCommands != null && roleCommands.contains(commandHash))
+                        || (roleDisabledCategories.get(roleId) & categoryBit) != 0) {
+                    return isAdmin(member);
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return The custom prefix of this guild, or null if it doesn't have one.
+     */
+    public String getCustomPrefix() {
+        return customPrefix;
+    }
+
+    private boolean isEmpty() {
+        return customPrefix == null && disabledCommands.isEmpty() && disabledCategories == 0 && disabledChannels.isEmpty() && disabledUsers.isEmpty() && !checksRoles
+                && channelDisabledCommands.isEmpty() && channelDisabledCategories.isEmpty();
+    }
+
+    private static boolean isAdmin(Member member) {
+        return CommandPermission.ADMIN.test(member);
+    }
+
+    //FNV-1a, this is only used for set membership so collisions are not a real concern with 64 bits.
+    private static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for(int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private static TLongSet hashes(Collection<String> names) {
+        TLongSet set = new TLongHashSet(names.size());
+        for(String name : names) {
+            if(name != null)
+                set.add(hash(name));
+        }
+        return set;
+    }
+
+    private static TLongSet ids(Collection<String> ids) {
+        TLongSet set = new TLongHashSet(ids.size());
+        for(String s : ids) {
+            long id = parseId(s);
+            if(id != 0)
+                set.add(id);
+        }
+        return set;
+    }
+
+    private static int mask(Collection<Category> categories) {
+        int mask = 0;
+        if(categories == null)
+            return mask;
+
+        for(Category category : categories) {
+            if(category != null)
+                mask |= 1 << category.ordinal();
+        }
+        return mask;
+    }
+
+    private static long parseId(String id) {
+        if(id == null)
+            return 0;
+
+        try {
+            return Long.parseLong(id);
+        } catch(NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2016-2018 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ */
+
+package net.kodehawa.mantarobot.core;
+
+import com.rethinkdb.model.OptArgs;
+import com.rethinkdb.net.Cursor;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.map.hash.TLongLongHashMap;
+import lombok.extern.slf4j.Slf4j;
+import net.kodehawa.mantarobot.data.MantaroData;
+import net.kodehawa.mantarobot.db.entities.DBGuild;
+import net.kodehawa.mantarobot.db.entities.helpers.GuildData;
+import net.kodehawa.mantarobot.utils.Mapifier;
+
+import java.util.Map;
+
+import static com.rethinkdb.RethinkDB.r;
+
+/**
+ * Bitmap of the optional features every guild uses (log channel, link protection, join messages...), so the listeners can tell a guild
+ * doesn't use any of them without loading its {@link DBGuild}. Most guilds don't use any, so they aren't even kept here.
+ * <p>
+ * Everything gets loaded on startup (see {@link #load()}), and a guild gets updated whenever it's saved or deleted
+ * (see {@link net.kodehawa.mantarobot.db.ManagedDatabase#save}). Until the first load finishes, guilds we don't know about are loaded
+ * from the database when first asked about, like it was done before. Changes done by other nodes (or the dashboard) only reach this
+ * process through the changefeed, if it runs here, so everything also gets reloaded every so often.
+ */
+@Slf4j
+public final class GuildFeatures {
+    public static final int LOG_CHANNEL = 1;
+    public static final int LINK_PROTECTION = 1 << 1;
+    public static final int LEVEL_UP_MESSAGES = 1 << 2;
+    public static final int JOIN_MESSAGE = 1 << 3;
+    public static final int LEAVE_MESSAGE = 1 << 4;
+    public static final int AUTO_ROLE = 1 << 5;
+
+    private static final int SHARDS = 16;
+    private static final int UNKNOWN = -1;
+    //Split so the shards don't wait on each other to check the guilds they get messages from.
+    private static final TLongIntHashMap[] features = new TLongIntHashMap[SHARDS];
+    //When guilds were last updated here, so a load doesn't overwrite them with what it read before the save got to the table (saves are
+    //written behind). Guarded by the map of the same index.
+    private static final TLongLongHashMap[] updatedAt = new TLongLongHashMap[SHARDS];
+    private static final long SAVE_GRACE = 60000;
+    private static volatile boolean loaded;
+
+    static {
+        for(int i = 0; i < SHARDS; i++) {
+            features[i] = new TLongIntHashMap(16, 0.5f, 0, UNKNOWN);
+            updatedAt[i] = new TLongLongHashMap();
+        }
+    }
+
+    private GuildFeatures() { }
+
+    /**
+     * Checks if a guild uses any of the specified features.
+     *
+     * @param guildId  The id of the guild.
+     * @param features The features to look for, OR'd together.
+     * @return Whether the guild uses at least one of them.
+     */
+    public static boolean has(long guildId, int features) {
+        return (of(guildId) & features) != 0;
+    }
+
+    /**
+     * @param guildId The id of the guild.
+     * @return The features the guild uses.
+     */
+    public static int of(long guildId) {
+        TLongIntHashMap map = map(guildId);
+        int value;
+        synchronized(map) {
+            value = map.get(guildId);
+        }
+
+        if(value != UNKNOWN)
+            return value;
+        //Anything that has features got loaded, or saved after that.
+        if(loaded)
+            return 0;
+
+        value = compute(MantaroData.db().getGuild(String.valueOf(guildId)).getData());
+        set(guildId, value);
+        return value;
+    }
+
+    /**
+     * Updates the features of a guild that just got saved.
+     *
+     * @param guild The saved guild.
+     */
+    public static void update(DBGuild guild) {
+        long id = parseId(guild.getId());
+        if(id != 0)
+            set(id, compute(guild.getData()));
+    }
+
+    /**
+     * Clears the features of a guild that just got deleted.
+     *
+     * @param guildId The id of the guild.
+     */
+    public static void invalidate(String guildId) {
+        long id = parseId(guildId);
+        if(id != 0)
+            set(id, 0);
+    }
+
+    /**
+     * Reads the features of every guild from the database, replacing what we had. Run on startup and then every so often, on a background thread.
+     */
+    @SuppressWarnings("unchecked")
+    public static synchronized void load() {
+        long start = System.currentTimeMillis();
+        int count = 0;
+
+        TLongIntHashMap[] read = new TLongIntHashMap[SHARDS];
+        for(int i = 0; i < SHARDS; i++) {
+            read[i] = new TLongIntHashMap();
+        }
+
+        try(Cursor<Map> cursor = r.table(DBGuild.DB_TABLE)
+                .pluck("id", r.hashMap("data", r.array("guildLogChannel", "linkProtection", "enabledLevelUpMessages", "levelUpChannel",
+                        "levelUpMessage", "joinMessage", "leaveMessage", "logJoinChannel", "logLeaveChannel", "logJoinLeaveChannel", "guildAutoRole")))
+                .run(MantaroData.conn(), OptArgs.of("read_mode", "outdated"))) {
+            for(Map guild : cursor) {
+                long id = parseId(String.valueOf(guild.get("id")));
+                if(id == 0 || !(guild.get("data") instanceof Map))
+                    continue;
+
+                int value = compute(Mapifier.fromMap(GuildData.class, (Map<String, Object>) guild.get("data")));
+                if(value == 0)
+                    continue;
+
+                read[index(id)].put(id, value);
+                count++;
+            }
+        } catch(Exception e) {
+            log.error("Error loading guild features", e);
+            return;
+        }
+
+        long since = start - SAVE_GRACE;
+        for(int i = 0; i < SHARDS; i++) {
+            TLongIntHashMap map = features[i];
+            TLongIntHashMap fresh = read[i];
+            TLongLongHashMap updated = updatedAt[i];
+            synchronized(map) {
+                //Don't overwrite anything saved since shortly before we started reading. Anything else not on the table doesn't use any feature now.
+                map.retainEntries((id, value) -> fresh.containsKey(id) || updated.get(id) >= since);
+                fresh.forEachEntry((id, value) -> {
+                    if(updated.get(id) < since)
+                        map.put(id, value);
+                    return true;
+                });
+                updated.retainEntries((id, time) -> time >= since);
+            }
+        }
+
+        loaded = true;
+        log.info("Loaded the features of {} guilds in {}ms", count, System.currentTimeMillis() - start);
+    }
+
+    private static int compute(GuildData data) {
+        int value = 0;
+        if(data.getGuildLogChannel() != null)
+            value |= LOG_CHANNEL;
+        if(data.isLinkProtection())
+            value |= LINK_PROTECTION;
+        if(data.isEnabledLevelUpMessages() && data.getLevelUpChannel() != null && data.getLevelUpMessage() != null)
+            value |= LEVEL_UP_MESSAGES;
+        if(data.getJoinMessage() != null && (data.getLogJoinLeaveChannel() != null || data.getLogJoinChannel() != null))
+            value |= JOIN_MESSAGE;
+        if(data.getLeaveMessage() != null && (data.getLogJoinLeaveChannel() != null || data.getLogLeaveChannel() != null))
+            value |= LEAVE_MESSAGE;
+        if(data.getGuildAutoRole() != null)
+            value |= AUTO_ROLE;
+        return value;
+    }
+
+    private static void set(long guildId, int value) {
+        int index = index(guildId);
+        TLongIntHashMap map = features[index];
+        synchronized(map) {
+            updatedAt[index].put(guildId, System.currentTimeMillis());
+
+            //Guilds without features are only kept until the first load finishes, after that not being here means the same.
+            if(value == 0 && loaded)
+                map.remove(guildId);
+            else
+                map.put(guildId, value);
+        }
+    }
+
+    private static TLongIntHashMap map(long guildId) {
+        return features[index(guildId)];
+    }
+
+    private static int index(long guildId) {
+        //The lower bits of a snowflake are mostly the same, the timestamp on the upper ones isn't.
+        return (int) ((guildId >>> 22) & (SHARDS - 1));
+    }
+
+    private static long parseId(String id) {
+        if(id == null)
+            return 0;
+
+        try {
+            return Long.parseLong(id);
+        } catch(NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -16,30 +16,261 @@
 
 package net.kodehawa.mantarobot.core;
 
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
 import lombok.extern.slf4j.Slf4j;
 import net.dv8tion.jda.core.events.Event;
-import net.dv8tion.jda.core.hooks.InterfacedEventManager;
-import net.kodehawa.mantarobot.core.listeners.events.ShardMonitorEvent;
+import net.dv8tion.jda.core.events.guild.GenericGuildEvent;
+import net.dv8tion.jda.core.hooks.EventListener;
+import net.dv8tion.jda.core.hooks.IEventManager;
+import net.kodehawa.mantarobot.core.listeners.TypedEventListener;
+import net.kodehawa.mantarobot.core.shard.watcher.ShardHeartbeats;
+import net.kodehawa.mantarobot.utils.RateMeter;
 import org.slf4j.Logger;
 
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hands every event only to the listeners that handle it.
+ * <p>
+ * The listeners an event class goes to are worked out the first time that class is seen (see {@link TypedEventListener}) and kept on an
+ * array, so most events (presence updates, typing...) don't call any listener at all instead of going through the instanceof chain of
+ * every one of them. The routes get recalculated whenever a listener is added or removed.
+ * <p>
+ * Every call is timed, and the timings are kept per listener name (so every shard adds to the same ones), see {@link #getTimings()}.
+ * Every event also gets published on the {@link ShardHeartbeats} of the shard, which is how the shard watcher knows it's alive.
+ * <p>
+ * Events are counted too: per second over the last minute, by type, and by guild over the current minute (see {@link #rotateGuildEvents()}),
+ * so the busy shards and guilds, and the shards that stopped getting anything, can be seen on the stats and the eventstats command.
+ */
 @Slf4j
-public class MantaroEventManager extends InterfacedEventManager {
-    private long LAST_JDA_EVENT;
+public class MantaroEventManager implements IEventManager {
+    private static final Map<String, Timings> timings = new ConcurrentHashMap<>();
+
+    private final List<EventListener> listeners = new CopyOnWriteArrayList<>();
+    //Replaced (not cleared) when listeners change, so a route calculated with the old listeners can't end up on it.
+    private volatile Map<Class<?>, Handler[]> routes = new ConcurrentHashMap<>();
+    private final int shardId;
+    private final ShardHeartbeats heartbeats;
+    private final RateMeter rate = new RateMeter();
+    private final Map<Class<?>, LongAdder> eventCounts = new ConcurrentHashMap<>();
+    //guild id -> events since the last rotation.
+    private final TLongIntHashMap guildEvents = new TLongIntHashMap();
+    private volatile TLongIntMap lastGuildEvents = new TLongIntHashMap(0);
+
+    public MantaroEventManager(int shardId, ShardHeartbeats heartbeats) {
+        this.shardId = shardId;
+        this.heartbeats = heartbeats;
+    }
 
     public static Logger getLog() {
         return log;
     }
 
+    /**
+     * @return The timings of every listener, by name.
+     */
+    public static Map<String, Timings> getTimings() {
+        return Collections.unmodifiableMap(timings);
+    }
+
+    @Override
+    public void register(Object listener) {
+        if(!(listener instanceof EventListener))
+            throw new IllegalArgumentException("Listener must implement EventListener");
+
+        listeners.add((EventListener) listener);
+        routes = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public void unregister(Object listener) {
+        listeners.remove(listener);
+        routes = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public List<Object> getRegisteredListeners() {
+        return Collections.unmodifiableList(new ArrayList<>(listeners));
+    }
+
     @Override
     public void handle(Event event) {
-        if(!(event instanceof ShardMonitorEvent)) {
-            LAST_JDA_EVENT = System.currentTimeMillis();
+        long now = System.currentTimeMillis();
+        boolean tracked = heartbeats.dispatchStarted(shardId, now);
+        count(event, now);
+        try {
+            for(Handler handler : routes.computeIfAbsent(event.getClass(), this::route)) {
+                handler.handle(event);
+            }
+        } finally {
+            if(tracked)
+                heartbeats.dispatchFinished(shardId);
         }
-
-        super.handle(event);
     }
 
     public long getLastJDAEventTimeDiff() {
-        return System.currentTimeMillis() - LAST_JDA_EVENT;
+        return System.currentTimeMillis() - heartbeats.getLastEvent(shardId);
+    }
+
+    public int getShardId() {
+        return shardId;
+    }
+
+    /**
+     * @param window How many seconds to average over, up to a minute.
+     * @return The events this shard got per second.
+     */
+    public double getEventRate(int window) {
+        return rate.rate(System.currentTimeMillis(), window);
+    }
+
+    /**
+     * @return How many events of every type this shard got since it started.
+     */
+    public Map<Class<?>, LongAdder> getEventCounts() {
+        return Collections.unmodifiableMap(eventCounts);
+    }
+
+    /**
+     * Starts counting the events of every guild from zero. Called once a minute.
+     *
+     * @return The events every guild got since the last call.
+     */
+    public TLongIntMap rotateGuildEvents() {
+        TLongIntMap counts;
+        synchronized(guildEvents) {
+            counts = new TLongIntHashMap(guildEvents);
+            guildEvents.clear();
+        }
+        lastGuildEvents = counts;
+        return counts;
+    }
+
+    /**
+     * @return What the last call to {@link #rotateGuildEvents()} returned. Don't modify it.
+     */
+    public TLongIntMap getLastGuildEvents() {
+        return lastGuildEvents;
+    }
+
+    private void count(Event event, long now) {
+        rate.record(now);
+
+        LongAdder counter = eventCounts.get(event.getClass());
+        if(counter == null)
+            counter = eventCounts.computeIfAbsent(event.getClass(), ignored -> new LongAdder());
+        counter.increment();
+
+        if(event instanceof GenericGuildEvent) {
+            long guildId = ((GenericGuildEvent) event).getGuild().getIdLong();
+            synchronized(guildEvents) {
+                guildEvents.adjustOrPutValue(guildId, 1, 1);
+            }
+        }
+    }
+
+    private Handler[] route(Class<?> eventClass) {
+        List<Handler> handlers = new ArrayList<>();
+        for(EventListener listener : listeners) {
+            if(!(listener instanceof TypedEventListener)) {
+                handlers.add(new Handler(listener, listener.getClass().getSimpleName()));
+                continue;
+            }
+
+            TypedEventListener typed = (TypedEventListener) listener;
+            for(Class<?> type : typed.getEventTypes()) {
+                if(type.isAssignableFrom(eventClass)) {
+                    handlers.add(new Handler(listener, typed.getName()));
+                    break;
+                }
+            }
+        }
+        return handlers.toArray(new Handler[0]);
+    }
+
+    private static class Handler {
+        private final EventListener listener;
+        private final Timings timings;
+
+        Handler(EventListener listener, String name) {
+            this.listener = listener;
+            this.timings = MantaroEventManager.timings.computeIfAbsent(name, ignored -> new Timings());
+        }
+
+        void handle(Event event) {
+            long start = System.nanoTime();
+            try {
+                listener.onEvent(event);
+            } catch(Throwable t) {
+                log.error("One of the EventListeners had an uncaught exception", t);
+            } finally {
+                timings.record(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Histogram of how long the calls to a listener took, in power of two buckets of microseconds.
+     */
+    public static class Timings {
+        private static final int BUCKETS = 32;
+
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        //Since the last reset, bucket i counts calls that took less than 2^i microseconds (and at least 2^(i-1)).
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        void record(long nanos) {
+            calls.increment();
+            totalNanos.add(nanos);
+            long micros = nanos / 1000;
+            buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+        }
+
+        /**
+         * @return How many times the listener was called.
+         */
+        public long getCalls() {
+            return calls.sum();
+        }
+
+        /**
+         * @return How long the listener has taken on average, in microseconds.
+         */
+        public double getAverageMicros() {
+            long count = calls.sum();
+            return count == 0 ? 0 : totalNanos.sum() / 1000D / count;
+        }
+
+        /**
+         * Takes the calls recorded since the last time this was called and resets them.
+         *
+         * @param percentile The percentile to get, from 0 to 1.
+         * @return The upper bound of the bucket the percentile falls on, in microseconds, or 0 if there were no calls.
+         */
+        public long drainPercentile(double percentile) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for(int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.getAndSet(i, 0);
+                total += counts[i];
+            }
+            if(total == 0)
+                return 0;
+
+            long target = (long) Math.ceil(total * percentile);
+            long seen = 0;
+            for(int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if(seen >= target)
+                    return 1L << i;
+            }
+            return 1L << (BUCKETS - 1);
+        }
     }
 }
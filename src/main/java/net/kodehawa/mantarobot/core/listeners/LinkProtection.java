@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2016-2018 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ */
+
+package net.kodehawa.mantarobot.core.listeners;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.extern.slf4j.Slf4j;
+import net.dv8tion.jda.core.JDA;
+import net.dv8tion.jda.core.Permission;
+import net.dv8tion.jda.core.entities.Invite;
+import net.dv8tion.jda.core.entities.Member;
+import net.dv8tion.jda.core.entities.User;
+import net.dv8tion.jda.core.events.message.guild.GuildMessageReceivedEvent;
+import net.dv8tion.jda.core.exceptions.ErrorResponseException;
+import net.kodehawa.mantarobot.MantaroBot;
+import net.kodehawa.mantarobot.core.GuildFeatures;
+import net.kodehawa.mantarobot.data.MantaroData;
+import net.kodehawa.mantarobot.db.entities.helpers.GuildData;
+import net.kodehawa.mantarobot.utils.commands.EmoteReference;
+
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Deletes invites to other servers on guilds with link protection enabled, without making the event thread wait on anything.
+ * <p>
+ * Every pattern needs the literal "discord" on the message, so anything without it (almost everything) is dropped right away, before even
+ * looking at the settings of the guild, and so is anything from a guild without link protection (see {@link GuildFeatures}).
+ * The rest gets its guild fetched on a database thread, and invites get resolved asynchronously:
+ * resolved codes are cached, codes that don't resolve are cached for a while too, and only so many lookups can be going on at once.
+ */
+@Slf4j
+public class LinkProtection {
+    //The regex to filter discord invites.
+    private static final Pattern DISCORD_INVITE = Pattern.compile(
+            "(?:discord(?:(?:\\.|.?dot.?)gg|app(?:\\.|.?dot.?)com/invite)/(?<id>" +
+                    "([\\w]{10,16}|[a-zA-Z0-9]{4,8})))");
+
+    private static final Pattern DISCORD_INVITE_2 = Pattern.compile(
+            "(https?://)?discord(app(\\.|\\s*?dot\\s*?)com\\s+?/\\s+?invite\\s*?/\\s*?|(\\.|\\s*?dot\\s*?)(gg|me|io)\\s*?/\\s*?)([a-zA-Z0-9\\-_]+)"
+    );
+
+    private static final Pattern THIRD_PARTY_INVITE = Pattern.compile(
+            "(https?://)?discord(\\.|\\s*?dot\\s*?)(me|io)\\s*?/\\s*?([a-zA-Z0-9\\-_]+)"
+    );
+
+    private static final int MAX_RESOLVING = 50;
+    //Couldn't be resolved, so we don't know which guild it's from.
+    private static final long UNKNOWN = -1;
+
+    //invite code -> id of the guild it's from
+    private static final Cache<String, Long> INVITES = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .build();
+    private static final Cache<String, Boolean> UNKNOWN_INVITES = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .build();
+    private static final ConcurrentMap<String, CompletableFuture<Long>> resolving = new ConcurrentHashMap<>();
+    private static final Semaphore resolvePermits = new Semaphore(MAX_RESOLVING);
+
+    public static void check(GuildMessageReceivedEvent event) {
+        String content = event.getMessage().getContentRaw();
+        if(!content.contains("discord") || !GuildFeatures.has(event.getGuild().getIdLong(), GuildFeatures.LINK_PROTECTION))
+            return;
+
+        Member member = event.getMember();
+        //Ignore myself.
+        if(member == null || event.getAuthor().getIdLong() == event.getJDA().getSelfUser().getIdLong())
+            return;
+        if(member.hasPermission(Permission.ADMINISTRATOR) || member.hasPermission(Permission.MANAGE_SERVER))
+            return;
+
+        MantaroData.db().getGuildAsync(event.getGuild().getId()).thenCompose(dbGuild -> {
+            GuildData guildData = dbGuild.getData();
+            if(!guildData.isLinkProtection() || guildData.getLinkProtectionAllowedChannels().contains(event.getChannel().getId()) ||
+                    guildData.getLinkProtectionAllowedUsers().contains(event.getAuthor().getId()))
+                return CompletableFuture.completedFuture(false);
+
+            //Ignore log channel.
+            if(guildData.getGuildLogChannel() != null && event.getChannel().getId().equals(guildData.getGuildLogChannel()))
+                return CompletableFuture.completedFuture(false);
+
+            return hasInvite(event.getJDA(), event.getGuild().getIdLong(), content);
+        }).thenAccept(invite -> {
+            if(invite)
+                block(event);
+        }).exceptionally(e -> {
+            log.error("Error running link protection", e);
+            return null;
+        });
+    }
+
+    private static void block(GuildMessageReceivedEvent event) {
+        Member bot = event.getGuild().getSelfMember();
+        MantaroBot.getInstance().getStatsClient().increment("links_blocked");
+        if(bot.hasPermission(event.getChannel(), Permission.MESSAGE_MANAGE) || bot.hasPermission(Permission.ADMINISTRATOR)) {
+            User author = event.getAuthor();
+            event.getMessage().delete().queue();
+            event.getChannel().sendMessage(EmoteReference.ERROR + "**You cannot advertise here.** Deleted invite link sent by **" + author.getName() + "#" + author.getDiscriminator() + "**.").queue();
+        } else {
+            event.getChannel().sendMessage(EmoteReference.ERROR + "I cannot remove the invite link because I don't have permission to delete messages!").queue();
+        }
+    }
+
+    private static CompletableFuture<Boolean> hasInvite(JDA jda, long guildId, String message) {
+        if(THIRD_PARTY_INVITE.matcher(message).find())
+            return CompletableFuture.completedFuture(true);
+        Matcher m = DISCORD_INVITE_2.matcher(message);
+        if(!m.find())
+            return CompletableFuture.completedFuture(false);
+
+        String invite = m.group(0);
+        String code = invite.substring(invite.lastIndexOf('/') + 1).trim();
+        return resolve(jda, code).thenApply(id -> id == UNKNOWN ? DISCORD_INVITE.matcher(message).find() : id != guildId);
+    }
+
+    private static CompletableFuture<Long> resolve(JDA jda, String code) {
+        Long cached = INVITES.getIfPresent(code);
+        if(cached != null)
+            return CompletableFuture.completedFuture(cached);
+        if(UNKNOWN_INVITES.getIfPresent(code) != null)
+            return CompletableFuture.completedFuture(UNKNOWN);
+
+        CompletableFuture<Long> pending = resolving.get(code);
+        if(pending != null)
+            return pending;
+
+        //Too many lookups going on already, don't pile more behind them.
+        if(!resolvePermits.tryAcquire())
+            return CompletableFuture.completedFuture(UNKNOWN);
+
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        pending = resolving.putIfAbsent(code, future);
+        if(pending != null) {
+            resolvePermits.release();
+            return pending;
+        }
+
+        try {
+            Invite.resolve(jda, code).queue(invite -> {
+                long id = invite.getGuild().getIdLong();
+                INVITES.put(code, id);
+                finish(code, future, id);
+            }, error -> {
+                //Only remember invites that don't exist, anything else (like a timeout) can work next time.
+                if(error instanceof ErrorResponseException)
+                    UNKNOWN_INVITES.put(code, true);
+                finish(code, future, UNKNOWN);
+            });
+        } catch(Exception e) {
+            finish(code, future, UNKNOWN);
+        }
+
+        return future;
+    }
+
+    private static void finish(String code, CompletableFuture<Long> future, long id) {
+        resolving.remove(code);
+        resolvePermits.release();
+        future.complete(id);
+    }
+}
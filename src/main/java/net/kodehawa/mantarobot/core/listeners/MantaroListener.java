@@ -16,12 +16,9 @@
 
 package net.kodehawa.mantarobot.core.listeners;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import lombok.extern.slf4j.Slf4j;
 import net.dv8tion.jda.core.JDA;
-import net.dv8tion.jda.core.Permission;
 import net.dv8tion.jda.core.entities.*;
 import net.dv8tion.jda.core.events.*;
 import net.dv8tion.jda.core.events.guild.GuildBanEvent;
@@ -37,16 +34,16 @@ import net.dv8tion.jda.core.events.message.guild.GuildMessageDeleteEvent;
 import net.dv8tion.jda.core.events.message.guild.GuildMessageReceivedEvent;
 import net.dv8tion.jda.core.events.message.guild.GuildMessageUpdateEvent;
 import net.dv8tion.jda.core.exceptions.PermissionException;
-import net.dv8tion.jda.core.hooks.EventListener;
 import net.kodehawa.mantarobot.MantaroBot;
 import net.kodehawa.mantarobot.commands.custom.EmbedJSON;
 import net.kodehawa.mantarobot.commands.info.stats.manager.GuildStatsManager;
 import net.kodehawa.mantarobot.commands.info.stats.manager.GuildStatsManager.LoggedEvent;
+import net.kodehawa.mantarobot.core.GuildFeatures;
 import net.kodehawa.mantarobot.core.MantaroCore;
 import net.kodehawa.mantarobot.core.listeners.command.CommandListener;
 import net.kodehawa.mantarobot.core.listeners.entities.CachedMessage;
-import net.kodehawa.mantarobot.core.listeners.events.ShardMonitorEvent;
 import net.kodehawa.mantarobot.core.shard.MantaroShard;
+import net.kodehawa.mantarobot.core.shard.ShardStats;
 import net.kodehawa.mantarobot.data.MantaroData;
 import net.kodehawa.mantarobot.db.ManagedDatabase;
 import net.kodehawa.mantarobot.db.entities.DBGuild;
@@ -54,6 +51,7 @@ import net.kodehawa.mantarobot.db.entities.DBUser;
 import net.kodehawa.mantarobot.db.entities.PremiumKey;
 import net.kodehawa.mantarobot.db.entities.helpers.GuildData;
 import net.kodehawa.mantarobot.log.LogUtils;
+import net.kodehawa.mantarobot.services.BlacklistService;
 import net.kodehawa.mantarobot.utils.SentryHelper;
 import net.kodehawa.mantarobot.utils.commands.EmoteReference;
 import net.kodehawa.mantarobot.utils.data.GsonDataManager;
@@ -64,33 +62,20 @@ import java.time.OffsetDateTime;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Optional;
-import java.util.concurrent.ExecutionException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import static net.kodehawa.mantarobot.commands.custom.Mapifier.dynamicResolve;
 import static net.kodehawa.mantarobot.commands.custom.Mapifier.map;
 
 @Slf4j
-public class MantaroListener implements EventListener {
-    //The regex to filter discord invites.
-    private static final Pattern DISCORD_INVITE = Pattern.compile(
-            "(?:discord(?:(?:\\.|.?dot.?)gg|app(?:\\.|.?dot.?)com/invite)/(?<id>" +
-                    "([\\w]{10,16}|[a-zA-Z0-9]{4,8})))");
-
-    private static final Pattern DISCORD_INVITE_2 = Pattern.compile(
-            "(https?://)?discord(app(\\.|\\s*?dot\\s*?)com\\s+?/\\s+?invite\\s*?/\\s*?|(\\.|\\s*?dot\\s*?)(gg|me|io)\\s*?/\\s*?)([a-zA-Z0-9\\-_]+)"
-    );
-
-    private static final Pattern THIRD_PARTY_INVITE = Pattern.compile(
-            "(https?://)?discord(\\.|\\s*?dot\\s*?)(me|io)\\s*?/\\s*?([a-zA-Z0-9\\-_]+)"
-    );
-
-    private static final Cache<String, Long> INVITES = CacheBuilder.newBuilder()
-            .maximumSize(10000)
-            .build();
-
+public class MantaroListener implements TypedEventListener {
+    private static final Class<?>[] EVENTS = {
+            GuildMessageReceivedEvent.class, GuildMemberJoinEvent.class, GuildMemberLeaveEvent.class, GuildMemberRoleAddEvent.class,
+            GuildMessageUpdateEvent.class, GuildMessageDeleteEvent.class, GuildUnbanEvent.class, GuildBanEvent.class, GuildJoinEvent.class,
+            GuildLeaveEvent.class, StatusChangeEvent.class, DisconnectEvent.class, ExceptionEvent.class, HttpRequestEvent.class,
+            ReconnectedEvent.class, ResumedEvent.class
+    };
+    private static final int JOIN_FEATURES = GuildFeatures.LOG_CHANNEL | GuildFeatures.JOIN_MESSAGE | GuildFeatures.AUTO_ROLE;
+    private static final int LEAVE_FEATURES = GuildFeatures.LOG_CHANNEL | GuildFeatures.LEAVE_MESSAGE;
     private static int logTotal = 0;
     private final ManagedDatabase db = MantaroData.db();
     private final DateFormat df = new SimpleDateFormat("HH:mm:ss");
@@ -110,32 +95,13 @@ public class MantaroListener implements EventListener {
         return logTotal;
     }
 
-    private static boolean hasInvite(JDA jda, Guild guild, String message) {
-        if(THIRD_PARTY_INVITE.matcher(message).find())
-            return true;
-        Matcher m = DISCORD_INVITE_2.matcher(message);
-        if(!m.find())
-            return false;
-
-        String invite = m.group(0);
-        String code = invite.substring(invite.lastIndexOf('/') + 1).trim();
-        try {
-            return INVITES.get(code, () -> Invite.resolve(jda, code).complete().getGuild().getIdLong()) != guild.getIdLong();
-        } catch(ExecutionException e) {
-            log.error("Error running invite validator", e);
-            return DISCORD_INVITE.matcher(message).find();
-        }
+    @Override
+    public Class<?>[] getEventTypes() {
+        return EVENTS;
     }
 
     @Override
     public void onEvent(Event event) {
-        if(event instanceof ShardMonitorEvent) {
-            if(MantaroBot.getInstance().getShardedMantaro().getShards()[shardId].getEventManager().getLastJDAEventTimeDiff() > 30000)
-                return;
-            ((ShardMonitorEvent) event).alive(shardId, ShardMonitorEvent.MANTARO_LISTENER);
-            return;
-        }
-
         if(event instanceof GuildMessageReceivedEvent) {
             MantaroBot.getInstance().getStatsClient().increment("messages_received");
             GuildMessageReceivedEvent e = (GuildMessageReceivedEvent) event;
@@ -144,12 +110,15 @@ public class MantaroListener implements EventListener {
         }
 
         if(event instanceof GuildMemberJoinEvent) {
-            shard.getThreadPool().execute(() -> onUserJoin((GuildMemberJoinEvent) event));
+            //Most guilds don't do anything when someone joins or leaves, no need to load them.
+            if(GuildFeatures.has(((GuildMemberJoinEvent) event).getGuild().getIdLong(), JOIN_FEATURES))
+                shard.getThreadPool().execute(() -> onUserJoin((GuildMemberJoinEvent) event));
             return;
         }
 
         if(event instanceof GuildMemberLeaveEvent) {
-            shard.getThreadPool().execute(() -> onUserLeave((GuildMemberLeaveEvent) event));
+            if(GuildFeatures.has(((GuildMemberLeaveEvent) event).getGuild().getIdLong(), LEAVE_FEATURES))
+                shard.getThreadPool().execute(() -> onUserLeave((GuildMemberLeaveEvent) event));
             return;
         }
 
@@ -188,10 +157,9 @@ public class MantaroListener implements EventListener {
 
             onJoin(e);
 
-            if(MantaroCore.hasLoadedCompletely()) {
-                MantaroBot.getInstance().getStatsClient().gauge("guilds", MantaroBot.getInstance().getGuildCache().size());
-                MantaroBot.getInstance().getStatsClient().gauge("users", MantaroBot.getInstance().getUserCache().size());
-            }
+            //Users are gauged with the other periodic stats, counting them once is too expensive to do on every join.
+            if(MantaroCore.hasLoadedCompletely())
+                MantaroBot.getInstance().getStatsClient().gauge("guilds", ShardStats.getTotalGuilds());
 
             return;
         }
@@ -199,10 +167,9 @@ public class MantaroListener implements EventListener {
         if(event instanceof GuildLeaveEvent) {
             onLeave((GuildLeaveEvent) event);
 
-            if(MantaroCore.hasLoadedCompletely()) {
-                MantaroBot.getInstance().getStatsClient().gauge("guilds", MantaroBot.getInstance().getGuildCache().size());
-                MantaroBot.getInstance().getStatsClient().gauge("users", MantaroBot.getInstance().getUserCache().size());
-            }
+            //Users are gauged with the other periodic stats, counting them once is too expensive to do on every leave.
+            if(MantaroCore.hasLoadedCompletely())
+                MantaroBot.getInstance().getStatsClient().gauge("guilds", ShardStats.getTotalGuilds());
 
             return;
         }
@@ -293,6 +260,9 @@ public class MantaroListener implements EventListener {
     }
 
     private void logBan(GuildBanEvent event) {
+        if(!GuildFeatures.has(event.getGuild().getIdLong(), GuildFeatures.LOG_CHANNEL))
+            return;
+
         String hour = df.format(new Date(System.currentTimeMillis()));
         String logChannel = MantaroData.db().getGuild(event.getGuild()).getData().getGuildLogChannel();
         if(logChannel != null) {
@@ -306,21 +276,25 @@ public class MantaroListener implements EventListener {
     }
 
     private void logDelete(GuildMessageDeleteEvent event) {
+        if(!GuildFeatures.has(event.getGuild().getIdLong(), GuildFeatures.LOG_CHANNEL))
+            return;
+
         try {
             String hour = df.format(new Date(System.currentTimeMillis()));
-            String logChannel = MantaroData.db().getGuild(event.getGuild()).getData().getGuildLogChannel();
+            GuildData data = MantaroData.db().getGuild(event.getGuild()).getData();
+            String logChannel = data.getGuildLogChannel();
 
             if(logChannel != null) {
                 TextChannel tc = event.getGuild().getTextChannelById(logChannel);
                 if(tc == null) return;
-                CachedMessage deletedMessage = CommandListener.getMessageCache().get(event.getMessageId(), Optional::empty).orElse(null);
+                CachedMessage deletedMessage = CommandListener.getMessageCache().get(event.getMessageIdLong());
 
                 if(deletedMessage != null && !deletedMessage.getContent().isEmpty() && !event.getChannel().getId().equals(logChannel) && !deletedMessage.getAuthor().getId().equals(event.getJDA().getSelfUser().getId())) {
-                    if(MantaroData.db().getGuild(event.getGuild()).getData().getModlogBlacklistedPeople().contains(deletedMessage.getAuthor().getId())) {
+                    if(data.getModlogBlacklistedPeople().contains(deletedMessage.getAuthor().getId())) {
                         return;
                     }
 
-                    if(MantaroData.db().getGuild(event.getGuild()).getData().getLogExcludedChannels().contains(event.getChannel().getId())) {
+                    if(data.getLogExcludedChannels().contains(event.getChannel().getId())) {
                         return;
                     }
 
@@ -337,29 +311,33 @@ public class MantaroListener implements EventListener {
     }
 
     private void logEdit(GuildMessageUpdateEvent event) {
+        if(!GuildFeatures.has(event.getGuild().getIdLong(), GuildFeatures.LOG_CHANNEL))
+            return;
+
         try {
             String hour = df.format(new Date(System.currentTimeMillis()));
-            String logChannel = MantaroData.db().getGuild(event.getGuild()).getData().getGuildLogChannel();
+            GuildData data = MantaroData.db().getGuild(event.getGuild()).getData();
+            String logChannel = data.getGuildLogChannel();
 
             if(logChannel != null) {
                 TextChannel tc = event.getGuild().getTextChannelById(logChannel);
                 if(tc == null) return;
                 User author = event.getAuthor();
-                CachedMessage editedMessage = CommandListener.getMessageCache().get(event.getMessage().getId(), Optional::empty).orElse(null);
+                CachedMessage editedMessage = CommandListener.getMessageCache().get(event.getMessageIdLong());
 
                 if(editedMessage != null && !editedMessage.getContent().isEmpty() && !event.getChannel().getId().equals(logChannel)) {
 
-                    if(MantaroData.db().getGuild(event.getGuild()).getData().getLogExcludedChannels().contains(event.getChannel().getId())) {
+                    if(data.getLogExcludedChannels().contains(event.getChannel().getId())) {
                         return;
                     }
 
-                    if(MantaroData.db().getGuild(event.getGuild()).getData().getModlogBlacklistedPeople().contains(editedMessage.getAuthor().getId())) {
+                    if(data.getModlogBlacklistedPeople().contains(editedMessage.getAuthor().getId())) {
                         return;
                     }
 
                     tc.sendMessage(String.format(EmoteReference.WARNING + "`[%s]` Message created by **%s#%s** in channel **%s** was modified.\n```diff\n-%s\n+%s```",
                             hour, author.getName(), author.getDiscriminator(), event.getChannel().getName(), editedMessage.getContent().replace("```", ""), event.getMessage().getContentDisplay().replace("```", ""))).queue();
-                    CommandListener.getMessageCache().put(event.getMessage().getId(), Optional.of(new CachedMessage(event.getAuthor().getIdLong(), event.getMessage().getContentDisplay())));
+                    CommandListener.getMessageCache().put(event.getMessageIdLong(), event.getAuthor().getIdLong(), event.getMessage().getContentDisplay());
                     logTotal++;
                 }
             }
@@ -385,6 +363,9 @@ public class MantaroListener implements EventListener {
     }
 
     private void logUnban(GuildUnbanEvent event) {
+        if(!GuildFeatures.has(event.getGuild().getIdLong(), GuildFeatures.LOG_CHANNEL))
+            return;
+
         try {
             String hour = df.format(new Date(System.currentTimeMillis()));
             String logChannel = MantaroData.db().getGuild(event.getGuild()).getData().getGuildLogChannel();
@@ -422,9 +403,8 @@ public class MantaroListener implements EventListener {
         }
 
         try {
-            if(MantaroData.db().getMantaroData().getBlackListedGuilds().contains(event.getGuild().getId())
-                    || MantaroData.db().getMantaroData().getBlackListedUsers().contains(
-                    event.getGuild().getOwner().getUser().getId())) {
+            if(BlacklistService.getInstance().isBlacklistedGuild(event.getGuild().getIdLong())
+                    || BlacklistService.getInstance().isBlacklistedUser(event.getGuild().getOwner().getUser().getIdLong())) {
                 event.getGuild().leave().queue();
                 return;
             }
@@ -440,15 +420,14 @@ public class MantaroListener implements EventListener {
 
     private void onLeave(GuildLeaveEvent event) {
         try {
-            if(MantaroData.db().getMantaroData().getBlackListedGuilds().contains(event.getGuild().getId())
-                    || MantaroData.db().getMantaroData().getBlackListedUsers().contains(
-                    event.getGuild().getOwner().getUser().getId())) {
+            if(BlacklistService.getInstance().isBlacklistedGuild(event.getGuild().getIdLong())
+                    || BlacklistService.getInstance().isBlacklistedUser(event.getGuild().getOwner().getUser().getIdLong())) {
                 log.info("Left " + event.getGuild() + " because of a blacklist entry. (O:" + event.getGuild().getOwner() + ")");
                 return;
             }
 
             MantaroBot.getInstance().getStatsClient().increment("guild_leave");
-            MantaroBot.getInstance().getAudioManager().getMusicManagers().remove(event.getGuild().getId());
+            MantaroBot.getInstance().getAudioManager().removeMusicManager(event.getGuild().getId());
             GuildStatsManager.log(LoggedEvent.LEAVE);
         } catch(Exception e) {
             if(!(e instanceof NullPointerException) && !(e instanceof IllegalArgumentException)) {
@@ -462,37 +441,7 @@ public class MantaroListener implements EventListener {
             return;
 
         //Moderation features
-        DBGuild dbGuild = MantaroData.db().getGuild(event.getGuild());
-        GuildData guildData = dbGuild.getData();
-
-        //link protection
-        if(guildData.isLinkProtection() && !guildData.getLinkProtectionAllowedChannels().contains(event.getChannel().getId()) &&
-                !guildData.getLinkProtectionAllowedUsers().contains(event.getAuthor().getId())) {
-            if(event.getMember() != null && !event.getMember().hasPermission(Permission.ADMINISTRATOR) && !event.getMember().hasPermission(Permission.MANAGE_SERVER)
-                    && hasInvite(event.getJDA(), event.getGuild(), event.getMessage().getContentRaw())) {
-                Member bot = event.getGuild().getSelfMember();
-                MantaroBot.getInstance().getStatsClient().increment("links_blocked");
-                if(bot.hasPermission(event.getChannel(), Permission.MESSAGE_MANAGE) || bot.hasPermission(Permission.ADMINISTRATOR)) {
-                    User author = event.getAuthor();
-
-                    //Ignore myself.
-                    if(event.getAuthor().getId().equals(event.getJDA().getSelfUser().getId())) {
-                        return;
-                    }
-
-                    //Ignore log channel.
-                    if(guildData.getGuildLogChannel() != null && event.getChannel().getId().equals(guildData.getGuildLogChannel())) {
-                        return;
-                    }
-
-                    //Yes, I know the check previously done is redundant, but in case someone decides to change the law of nature, it should do	.
-                    event.getMessage().delete().queue();
-                    event.getChannel().sendMessage(EmoteReference.ERROR + "**You cannot advertise here.** Deleted invite link sent by **" + author.getName() + "#" + author.getDiscriminator() + "**.").queue();
-                } else {
-                    event.getChannel().sendMessage(EmoteReference.ERROR + "I cannot remove the invite link because I don't have permission to delete messages!").queue();
-                }
-            }
-        }
+        LinkProtection.check(event);
     }
 
     private void onUserJoin(GuildMemberJoinEvent event) {
@@ -500,7 +449,7 @@ public class MantaroListener implements EventListener {
         GuildData data = dbg.getData();
 
         try {
-            String role = MantaroData.db().getGuild(event.getGuild()).getData().getGuildAutoRole();
+            String role = data.getGuildAutoRole();
 
             String hour = df.format(new Date(System.currentTimeMillis()));
             if(role != null) {
@@ -521,7 +470,7 @@ public class MantaroListener implements EventListener {
                 } catch(Exception ignored) { }
             }
 
-            String logChannel = MantaroData.db().getGuild(event.getGuild()).getData().getGuildLogChannel();
+            String logChannel = data.getGuildLogChannel();
             if(logChannel != null) {
                 TextChannel tc = event.getGuild().getTextChannelById(logChannel);
                 if(tc != null && tc.canTalk()) {
@@ -555,7 +504,7 @@ public class MantaroListener implements EventListener {
                 return;
             }
 
-            String logChannel = MantaroData.db().getGuild(event.getGuild()).getData().getGuildLogChannel();
+            String logChannel = data.getGuildLogChannel();
             if(logChannel != null) {
                 TextChannel tc = event.getGuild().getTextChannelById(logChannel);
                 if(tc != null && tc.canTalk()) {
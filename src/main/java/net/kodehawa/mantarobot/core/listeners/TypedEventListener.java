@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2016-2018 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ */
+
+package net.kodehawa.mantarobot.core.listeners;
+
+import net.dv8tion.jda.core.events.Event;
+import net.dv8tion.jda.core.hooks.EventListener;
+
+/**
+ * A listener that only cares about some events. {@link net.kodehawa.mantarobot.core.MantaroEventManager} only hands it events that are
+ * instances of one of its types, so it doesn't get called for everything else (like presence updates, which are most of the events).
+ * Listeners that don't implement this get every event.
+ */
+public interface TypedEventListener extends EventListener {
+    /**
+     * @return The events this listener handles. Subclasses of them are handled too.
+     */
+    Class<?>[] getEventTypes();
+
+    /**
+     * @return The name its timings are reported as.
+     */
+    default String getName() {
+        return getClass().getSimpleName();
+    }
+
+    /**
+     * Wraps a listener (like a lambda) so it only gets the specified events.
+     */
+    static TypedEventListener of(String name, EventListener listener, Class<?>... types) {
+        return new TypedEventListener() {
+            @Override
+            public Class<?>[] getEventTypes() {
+                return types;
+            }
+
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public void onEvent(Event event) {
+                listener.onEvent(event);
+            }
+        };
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2016-2018 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ */
+
+package net.kodehawa.mantarobot.core.listeners.command;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.timgroup.statsd.StatsDClient;
+import lombok.extern.slf4j.Slf4j;
+import net.kodehawa.mantarobot.MantaroBot;
+import net.kodehawa.mantarobot.data.Config;
+import net.kodehawa.mantarobot.data.MantaroData;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs commands for every shard on a fixed amount of worker threads.
+ * <p>
+ * Every guild gets its own queue, and workers take one task from each guild with pending work in turn, so a guild spamming commands
+ * only delays itself. The amount of pending tasks is bounded both per guild and globally: when either bound is hit the new task is shed.
+ * Tasks that waited for longer than {@link Config.CommandExecutorInfo#maxWaitMs} are also shed instead of run, as whoever ran the command
+ * probably gave up on it already.
+ * <p>
+ * On JDKs that support them, workers can run on virtual threads (see {@link Config.CommandExecutorInfo#virtualThreads}).
+ */
+@Slf4j
+public class CommandExecutor {
+    private static volatile CommandExecutor instance;
+
+    private final Map<Long, GuildQueue> queues = new ConcurrentHashMap<>();
+    private final BlockingQueue<GuildQueue> ready = new LinkedBlockingQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final int maxPending;
+    private final int maxPendingPerGuild;
+    private final long maxWaitMs;
+
+    private CommandExecutor(Config.CommandExecutorInfo info) {
+        this.maxPending = info.maxPending;
+        this.maxPendingPerGuild = info.maxPendingPerGuild;
+        this.maxWaitMs = info.maxWaitMs;
+
+        int threads = info.threads > 0 ? info.threads : Math.max(8, Runtime.getRuntime().availableProcessors() * 4);
+        ThreadFactory factory = info.virtualThreads ? virtualThreadFactory() : null;
+        boolean virtual = factory != null;
+        if(factory == null) {
+            factory = new ThreadFactoryBuilder().setNameFormat("CommandExecutor Thread-%d").setDaemon(true).build();
+        }
+
+        for(int i = 0; i < threads; i++) {
+            factory.newThread(this::work).start();
+        }
+
+        log.info("Started command executor with {} {} workers", threads, virtual ? "virtual" : "platform");
+    }
+
+    public static CommandExecutor getInstance() {
+        if(instance == null) {
+            synchronized(CommandExecutor.class) {
+                if(instance == null)
+                    instance = new CommandExecutor(MantaroData.config().get().commandExecutor);
+            }
+        }
+
+        return instance;
+    }
+
+    //Thread.ofVirtual() only exists on JDK 19+, and we still compile for 8.
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch(Exception e) {
+            log.warn("Virtual threads were requested but aren't supported by this JVM, falling back to platform threads");
+            return null;
+        }
+    }
+
+    private static StatsDClient stats() {
+        MantaroBot bot = MantaroBot.getInstance();
+        return bot == null ? null : bot.getStatsClient();
+    }
+
+    /**
+     * Queues a task to be run on behalf of a guild.
+     *
+     * @param guildId The guild the task comes from.
+     * @param task    The task to run.
+     * @return Whether the task was queued. False means it was shed.
+     */
+    public boolean execute(long guildId, Runnable task) {
+        if(pending.get() >= maxPending) {
+            reject("global");
+            return false;
+        }
+
+        while(true) {
+            GuildQueue queue = queues.computeIfAbsent(guildId, GuildQueue::new);
+            synchronized(queue) {
+                //Got removed while we were getting it, try again with a new one.
+                if(queue.removed)
+                    continue;
+
+                if(queue.tasks.size() >= maxPendingPerGuild) {
+                    reject("guild");
+                    return false;
+                }
+
+                queue.tasks.add(new Task(task, System.currentTimeMillis()));
+                pending.incrementAndGet();
+                if(!queue.scheduled) {
+                    queue.scheduled = true;
+                    ready.add(queue);
+                }
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * @return How many tasks are waiting to be run.
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    private void reject(String reason) {
+        StatsDClient stats = stats();
+        if(stats != null)
+            stats.increment("command_rejected", "reason:" + reason);
+    }
+
+    private void work() {
+        while(true) {
+            Task task;
+            try {
+                GuildQueue queue = ready.take();
+                synchronized(queue) {
+                    task = queue.tasks.poll();
+                    if(queue.tasks.isEmpty()) {
+                        queue.scheduled = false;
+                        queue.removed = true;
+                        queues.remove(queue.guildId, queue);
+                    } else {
+                        //Back of the line, so other guilds get their turn.
+                        ready.add(queue);
+                    }
+                }
+            } catch(InterruptedException e) {
+                return;
+            }
+
+            if(task == null)
+                continue;
+
+            pending.decrementAndGet();
+            long start = System.currentTimeMillis();
+            long waited = start - task.queuedAt;
+            StatsDClient stats = stats();
+            if(stats != null)
+                stats.histogram("command_queue_wait", waited);
+
+            if(waited > maxWaitMs) {
+                reject("stale");
+                continue;
+            }
+
+            try {
+                task.runnable.run();
+            } catch(Throwable t) {
+                log.error("Uncaught error running command task", t);
+            }
+
+            if(stats != null)
+                stats.histogram("command_run_time", System.currentTimeMillis() - start);
+        }
+    }
+
+    private static class GuildQueue {
+        final long guildId;
+        final ArrayDeque<Task> tasks = new ArrayDeque<>();
+        boolean removed;
+        boolean scheduled;
+
+        GuildQueue(long guildId) {
+            this.guildId = guildId;
+        }
+    }
+
+    private static class Task {
+        final long queuedAt;
+        final Runnable runnable;
+
+        Task(Runnable runnable, long queuedAt) {
+            this.runnable = runnable;
+            this.queuedAt = queuedAt;
+        }
+    }
+}
@@ -16,8 +16,6 @@
 
 package net.kodehawa.mantarobot.core.listeners.command;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
 import com.rethinkdb.gen.exc.ReqlError;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
@@ -27,22 +25,20 @@ import net.dv8tion.jda.core.entities.TextChannel;
 import net.dv8tion.jda.core.events.Event;
 import net.dv8tion.jda.core.events.message.guild.GuildMessageReceivedEvent;
 import net.dv8tion.jda.core.exceptions.PermissionException;
-import net.dv8tion.jda.core.hooks.EventListener;
-import net.kodehawa.mantarobot.MantaroBot;
 import net.kodehawa.mantarobot.commands.currency.profile.Badge;
 import net.kodehawa.mantarobot.commands.custom.EmbedJSON;
-import net.kodehawa.mantarobot.core.listeners.entities.CachedMessage;
-import net.kodehawa.mantarobot.core.listeners.events.ShardMonitorEvent;
+import net.kodehawa.mantarobot.core.GuildFeatures;
+import net.kodehawa.mantarobot.core.listeners.TypedEventListener;
 import net.kodehawa.mantarobot.core.listeners.operations.InteractiveOperations;
 import net.kodehawa.mantarobot.core.processor.core.ICommandProcessor;
 import net.kodehawa.mantarobot.core.shard.MantaroShard;
 import net.kodehawa.mantarobot.data.MantaroData;
-import net.kodehawa.mantarobot.db.entities.DBGuild;
 import net.kodehawa.mantarobot.db.entities.Player;
 import net.kodehawa.mantarobot.db.entities.helpers.GuildData;
 import net.kodehawa.mantarobot.db.entities.helpers.PlayerData;
 import net.kodehawa.mantarobot.utils.SentryHelper;
 import net.kodehawa.mantarobot.utils.Snow64;
+import net.kodehawa.mantarobot.utils.cache.MessageCache;
 import net.kodehawa.mantarobot.utils.commands.EmoteReference;
 import net.kodehawa.mantarobot.utils.commands.RateLimiter;
 import net.kodehawa.mantarobot.utils.data.GsonDataManager;
@@ -50,7 +46,6 @@ import org.redisson.client.RedisException;
 
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
 
@@ -58,10 +53,11 @@ import static net.kodehawa.mantarobot.commands.custom.Mapifier.dynamicResolve;
 import static net.kodehawa.mantarobot.commands.custom.Mapifier.map;
 
 @Slf4j
-public class CommandListener implements EventListener {
-    //Message cache of 65000 cached messages. If it reaches 65000 it will delete the first one stored, and continue being 65000
+public class CommandListener implements TypedEventListener {
+    private static final Class<?>[] EVENTS = { GuildMessageReceivedEvent.class };
+    //Message cache for edit/delete logs, bounded by bytes. Once full, the oldest messages get overwritten.
     @Getter
-    private static final Cache<String, Optional<CachedMessage>> messageCache = CacheBuilder.newBuilder().concurrencyLevel(10).maximumSize(65000).build();
+    private static final MessageCache messageCache = new MessageCache(MantaroData.config().get().messageCacheBytes, MantaroData.config().get().messageCacheOffHeap);
     private static final RateLimiter experienceRatelimiter = new RateLimiter(TimeUnit.SECONDS, 18);
     //Commands ran this session.
     private static int commandTotal = 0;
@@ -92,30 +88,90 @@ public class CommandListener implements EventListener {
     }
 
     @Override
-    public void onEvent(Event event) {
-        if(event instanceof ShardMonitorEvent) {
-            if(MantaroBot.getInstance().getShardedMantaro().getShards()[shardId].getEventManager().getLastJDAEventTimeDiff() > 30000)
-                return;
-
-            //Hey, this listener is alive! (This won't pass if somehow this is blocked)
-            ((ShardMonitorEvent) event).alive(shardId, ShardMonitorEvent.COMMAND_LISTENER);
-
-            return;
-        }
+    public Class<?>[] getEventTypes() {
+        return EVENTS;
+    }
 
+    @Override
+    public void onEvent(Event event) {
         if(event instanceof GuildMessageReceivedEvent) {
             GuildMessageReceivedEvent msg = (GuildMessageReceivedEvent) event;
-            //Inserts a cached message into the cache. This only holds the id and the content, and is way lighter than saving the entire jda object.
-            messageCache.put(msg.getMessage().getId(), Optional.of(new CachedMessage(msg.getAuthor().getIdLong(), msg.getMessage().getContentDisplay())));
+            //Inserts a cached message into the cache. This only holds the ids and the content, and only for guilds that log edits and deletes.
+            if(GuildFeatures.has(msg.getGuild().getIdLong(), GuildFeatures.LOG_CHANNEL))
+                messageCache.put(msg.getMessageIdLong(), msg.getAuthor().getIdLong(), msg.getMessage().getContentDisplay());
 
             //Ignore myself and bots.
             if(msg.getAuthor().isBot() || msg.getAuthor().equals(msg.getJDA().getSelfUser()))
                 return;
 
-            shard.getCommandPool().execute(() -> onCommand(msg));
+            //Only commands go through the command executor, so regular chatter can't fill up the queue of a busy guild.
+            if(commandProcessor.isCommand(msg)) {
+                CommandExecutor.getInstance().execute(msg.getGuild().getIdLong(), () -> onCommand(msg));
+            } else {
+                giveExperience(msg);
+            }
         }
     }
 
+    //Checks are cheap, so they're done before handing it to the shard pool. This is best effort, the pool drops it if it's full.
+    private void giveExperience(GuildMessageReceivedEvent event) {
+        //Only run experience if the user is not rate limited (clears every 30 seconds)
+        if(random.nextInt(15) > 7 && experienceRatelimiter.process(event.getAuthor()))
+            shard.getThreadPool().execute(() -> onExperience(event));
+    }
+
+    private void onExperience(GuildMessageReceivedEvent event) {
+        try {
+            Member self = event.getGuild().getSelfMember();
+            if(!self.getPermissions(event.getChannel()).contains(Permission.MESSAGE_WRITE) && !self.hasPermission(Permission.ADMINISTRATOR))
+                return;
+
+            if(event.getMember() == null)
+                return;
+
+            //Don't run the experience handler on this channel if there's an InteractiveOperation running as there might be issues with
+            //some nasty race conditions involving player save.
+            if(InteractiveOperations.get(event.getChannel()) != null)
+                return;
+
+            Player player = MantaroData.db().getPlayer(event.getAuthor());
+            PlayerData data = player.getData();
+
+            if(player.isLocked())
+                return;
+
+            // ---------- GLOBAL EXPERIENCE CHECK ---------- //
+
+            //Set level to 1 if level is zero.
+            if(player.getLevel() == 0)
+                player.setLevel(1);
+
+            //Set player experience to a random number between 1 and 5.
+            data.setExperience(data.getExperience() + Math.round(random.nextInt(5)));
+
+            //Apply some black magic.
+            if(data.getExperience() > (player.getLevel() * Math.log10(player.getLevel()) * 1000) + (50 * player.getLevel() / 2)) {
+                player.setLevel(player.getLevel() + 1);
+                //Check if the member is not null, just to be sure it happened in-between.
+                if(player.getLevel() > 1 && event.getGuild().getMemberById(player.getUserId()) != null) {
+                    if(GuildFeatures.has(event.getGuild().getIdLong(), GuildFeatures.LEVEL_UP_MESSAGES)) {
+                        GuildData guildData = MantaroData.db().getGuild(event.getGuild()).getData();
+                        String levelUpChannel = guildData.getLevelUpChannel();
+                        String levelUpMessage = guildData.getLevelUpMessage();
+
+                        //Player has leveled up!
+                        if(levelUpMessage != null && levelUpChannel != null) {
+                            processMessage(String.valueOf(player.getLevel()), levelUpMessage, levelUpChannel, event);
+                        }
+                    }
+                }
+            }
+
+            //This time, actually remember to save the player so you don't have to restart 102 shards to fix it.
+            player.saveAsync();
+        } catch(Exception ignored) { }
+    }
+
     private void onCommand(GuildMessageReceivedEvent event) {
         try {
             Member self = event.getGuild().getSelfMember();
@@ -125,56 +181,9 @@ public class CommandListener implements EventListener {
             if(commandProcessor.run(event)) {
                 commandTotal++;
             } else {
+                //Wasn't a command after all (we didn't know the custom prefix of the guild yet).
                 //Only run experience if no command has been executed, avoids weird race conditions when saving player status.
-                try {
-                    //Only run experience if the user is not rate limited (clears every 30 seconds)
-                    if(random.nextInt(15) > 7 && !event.getAuthor().isBot() && experienceRatelimiter.process(event.getAuthor())) {
-                        if(event.getMember() == null)
-                            return;
-
-                        //Don't run the experience handler on this channel if there's an InteractiveOperation running as there might be issues with
-                        //some nasty race conditions involving player save.
-                        if(InteractiveOperations.get(event.getChannel()) != null)
-                            return;
-
-                        Player player = MantaroData.db().getPlayer(event.getAuthor());
-                        PlayerData data = player.getData();
-                        DBGuild dbGuild = MantaroData.db().getGuild(event.getGuild());
-                        GuildData guildData = dbGuild.getData();
-
-                        if(player.isLocked())
-                            return;
-
-                        // ---------- GLOBAL EXPERIENCE CHECK ---------- //
-
-                        //Set level to 1 if level is zero.
-                        if(player.getLevel() == 0)
-                            player.setLevel(1);
-
-                        //Set player experience to a random number between 1 and 5.
-                        data.setExperience(data.getExperience() + Math.round(random.nextInt(5)));
-
-                        //Apply some black magic.
-                        if(data.getExperience() > (player.getLevel() * Math.log10(player.getLevel()) * 1000) + (50 * player.getLevel() / 2)) {
-                            player.setLevel(player.getLevel() + 1);
-                            //Check if the member is not null, just to be sure it happened in-between.
-                            if(player.getLevel() > 1 && event.getGuild().getMemberById(player.getUserId()) != null) {
-                                if(guildData.isEnabledLevelUpMessages()) {
-                                    String levelUpChannel = guildData.getLevelUpChannel();
-                                    String levelUpMessage = guildData.getLevelUpMessage();
-
-                                    //Player has leveled up!
-                                    if(levelUpMessage != null && levelUpChannel != null) {
-                                        processMessage(String.valueOf(player.getLevel()), levelUpMessage, levelUpChannel, event);
-                                    }
-                                }
-                            }
-                        }
-
-                        //This time, actually remember to save the player so you don't have to restart 102 shards to fix it.
-                        player.saveAsync();
-                    }
-                } catch(Exception ignored) { }
+                giveExperience(event);
             }
         } catch(IndexOutOfBoundsException e) {
             event.getChannel().sendMessage(EmoteReference.ERROR + "Your query returned no results or you used the incorrect arguments, seemingly. Just in case, check command help!").queue();
@@ -21,6 +21,7 @@ import net.dv8tion.jda.core.events.Event;
 import net.dv8tion.jda.core.events.message.guild.GuildMessageReceivedEvent;
 import net.dv8tion.jda.core.hooks.EventListener;
 import net.jodah.expiringmap.ExpiringMap;
+import net.kodehawa.mantarobot.core.listeners.TypedEventListener;
 import net.kodehawa.mantarobot.core.listeners.operations.core.InteractiveOperation;
 import net.kodehawa.mantarobot.core.listeners.operations.core.Operation;
 
@@ -201,7 +202,14 @@ public class InteractiveOperations {
     /**
      * This class listens for all RunningOperation instances. Basically handles the operation run and termination procedures.
      */
-    public static class InteractiveListener implements EventListener {
+    public static class InteractiveListener implements TypedEventListener {
+        private static final Class<?>[] EVENTS = { GuildMessageReceivedEvent.class };
+
+        @Override
+        public Class<?>[] getEventTypes() {
+            return EVENTS;
+        }
+
         @Override
         public void onEvent(Event e) {
             if(!(e instanceof GuildMessageReceivedEvent))
@@ -23,6 +23,7 @@ import net.dv8tion.jda.core.events.message.react.MessageReactionRemoveAllEvent;
 import net.dv8tion.jda.core.events.message.react.MessageReactionRemoveEvent;
 import net.dv8tion.jda.core.hooks.EventListener;
 import net.jodah.expiringmap.ExpiringMap;
+import net.kodehawa.mantarobot.core.listeners.TypedEventListener;
 import net.kodehawa.mantarobot.core.listeners.operations.core.Operation;
 import net.kodehawa.mantarobot.core.listeners.operations.core.ReactionOperation;
 
@@ -166,7 +167,16 @@ public final class ReactionOperations {
         return r;
     }
 
-    public static class ReactionListener implements EventListener {
+    public static class ReactionListener implements TypedEventListener {
+        private static final Class<?>[] EVENTS = {
+                MessageReactionAddEvent.class, MessageReactionRemoveEvent.class, MessageReactionRemoveAllEvent.class
+        };
+
+        @Override
+        public Class<?>[] getEventTypes() {
+            return EVENTS;
+        }
+
         @Override
         public void onEvent(Event e) {
 
@@ -21,6 +21,7 @@ import net.dv8tion.jda.core.Permission;
 import net.dv8tion.jda.core.events.message.guild.GuildMessageReceivedEvent;
 import net.kodehawa.mantarobot.MantaroBot;
 import net.kodehawa.mantarobot.core.CommandRegistry;
+import net.kodehawa.mantarobot.core.GuildCommandPolicy;
 import net.kodehawa.mantarobot.core.processor.core.ICommandProcessor;
 import net.kodehawa.mantarobot.data.MantaroData;
 import net.kodehawa.mantarobot.utils.commands.EmoteReference;
@@ -42,27 +43,24 @@ public class DefaultCommandProcessor implements ICommandProcessor {
         String rawCmd = event.getMessage().getContentRaw();
         //Mantaro prefixes.
         String[] prefix = MantaroData.config().get().prefix;
-        //Guild-specific prefix.
-        String customPrefix = MantaroData.db().getGuild(event.getGuild()).getData().getGuildCustomPrefix();
         //What prefix did this person use.
         String usedPrefix = null;
-        //Lower-case raw cmd check, only used for prefix checking.
-        String lowerRawCmd = rawCmd.toLowerCase();
 
         for(String s : prefix) {
-            if(lowerRawCmd.startsWith(s)) usedPrefix = s;
+            if(startsWithIgnoreCase(rawCmd, s)) usedPrefix = s;
         }
 
-        if(usedPrefix != null && lowerRawCmd.startsWith(usedPrefix.toLowerCase())) {
-            rawCmd = rawCmd.substring(usedPrefix.length());
-        }
-        else if(customPrefix != null && lowerRawCmd.startsWith(customPrefix.toLowerCase())) {
-            rawCmd = rawCmd.substring(customPrefix.length());
-        }
-        else if(usedPrefix == null) {
-            return false;
+        if(usedPrefix == null) {
+            //Guild-specific prefix. This comes from the compiled guild policy, so it doesn't hit the database once the guild is known.
+            String customPrefix = GuildCommandPolicy.of(event.getGuild().getIdLong()).getCustomPrefix();
+            if(customPrefix == null || !startsWithIgnoreCase(rawCmd, customPrefix))
+                return false;
+
+            usedPrefix = customPrefix;
         }
 
+        rawCmd = rawCmd.substring(usedPrefix.length());
+
         String[] parts = splitArgs(rawCmd, 2);
         String cmdName = parts[0], content = parts[1];
 
@@ -81,4 +79,25 @@ public class DefaultCommandProcessor implements ICommandProcessor {
 
         return true;
     }
+
+    @Override
+    public boolean isCommand(GuildMessageReceivedEvent event) {
+        String rawCmd = event.getMessage().getContentRaw();
+        for(String s : MantaroData.config().get().prefix) {
+            if(startsWithIgnoreCase(rawCmd, s)) return true;
+        }
+
+        //Don't load the guild here, if we don't know its prefix yet let run() find out.
+        GuildCommandPolicy policy = GuildCommandPolicy.getIfCached(event.getGuild().getIdLong());
+        if(policy == null)
+            return true;
+
+        String customPrefix = policy.getCustomPrefix();
+        return customPrefix != null && startsWithIgnoreCase(rawCmd, customPrefix);
+    }
+
+    //Case-insensitive startsWith that doesn't need to lowercase (and copy) the whole message.
+    static boolean startsWithIgnoreCase(String message, String prefix) {
+        return message.regionMatches(true, 0, prefix, 0, prefix.length());
+    }
 }
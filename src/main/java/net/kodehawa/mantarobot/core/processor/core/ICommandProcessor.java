@@ -24,4 +24,10 @@ import net.dv8tion.jda.core.events.message.guild.GuildMessageReceivedEvent;
  */
 public interface ICommandProcessor {
     boolean run(GuildMessageReceivedEvent event);
+
+    /**
+     * Checks if a message looks like a command, without running it. Cheap enough to be done on the event thread for every message.
+     * This can have false positives, in which case {@link #run(GuildMessageReceivedEvent)} returns false, but never false negatives.
+     */
+    boolean isCommand(GuildMessageReceivedEvent event);
 }
@@ -25,7 +25,9 @@ import net.dv8tion.jda.core.AccountType;
 import net.dv8tion.jda.core.JDA;
 import net.dv8tion.jda.core.JDABuilder;
 import net.dv8tion.jda.core.entities.Game;
+import net.dv8tion.jda.core.events.ReadyEvent;
 import net.dv8tion.jda.core.exceptions.RateLimitedException;
+import net.dv8tion.jda.core.hooks.EventListener;
 import net.dv8tion.jda.core.utils.SessionController;
 import net.dv8tion.jda.core.utils.SessionControllerAdapter;
 import net.kodehawa.mantarobot.MantaroBot;
@@ -33,10 +35,12 @@ import net.kodehawa.mantarobot.commands.music.listener.VoiceChannelListener;
 import net.kodehawa.mantarobot.commands.utils.birthday.BirthdayTask;
 import net.kodehawa.mantarobot.core.MantaroEventManager;
 import net.kodehawa.mantarobot.core.listeners.MantaroListener;
+import net.kodehawa.mantarobot.core.listeners.TypedEventListener;
 import net.kodehawa.mantarobot.core.listeners.command.CommandListener;
 import net.kodehawa.mantarobot.core.listeners.operations.InteractiveOperations;
 import net.kodehawa.mantarobot.core.listeners.operations.ReactionOperations;
 import net.kodehawa.mantarobot.core.processor.core.ICommandProcessor;
+import net.kodehawa.mantarobot.core.shard.jda.ShardRouter;
 import net.kodehawa.mantarobot.data.Config;
 import net.kodehawa.mantarobot.data.MantaroData;
 import net.kodehawa.mantarobot.utils.Utils;
@@ -46,11 +50,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.security.auth.login.LoginException;
-import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Objects;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static net.kodehawa.mantarobot.data.MantaroData.config;
 import static net.kodehawa.mantarobot.utils.Utils.pretty;
@@ -68,6 +70,10 @@ public class MantaroShard implements JDA {
     private static final VoiceChannelListener VOICE_CHANNEL_LISTENER = new VoiceChannelListener();
     private final CommandListener commandListener;
     private final MantaroListener mantaroListener;
+    private final EventListener readyListener;
+    private final EventListener routerListener;
+    @Getter
+    private final ShardStats stats = new ShardStats();
     private final int shardId;
     private final int totalShards;
     private BirthdayTask birthdayTask = new BirthdayTask();
@@ -83,10 +89,15 @@ public class MantaroShard implements JDA {
     public final MantaroEventManager manager;
     @Getter
     private final ExecutorService threadPool;
-    @Getter
-    private final ExecutorService commandPool;
     @Delegate
     private JDA jda;
+    private volatile long startedAt;
+    //How long the last start took to get to READY, 0 if it didn't yet.
+    @Getter
+    private volatile long startupTime;
+    //Tasks the thread pool couldn't take, and when we last complained about it.
+    private final AtomicLong droppedTasks = new AtomicLong();
+    private final AtomicLong lastDropWarning = new AtomicLong();
 
     /**
      * Builds a new instance of a MantaroShard.
@@ -109,25 +120,43 @@ public class MantaroShard implements JDA {
                         .setNameFormat("MantaroShard-Executor[" + shardId + "/" + totalShards + "] Thread-%d")
                         .build();
 
-        ThreadFactory commandTPNamedFactory =
-                new ThreadFactoryBuilder()
-                        .setNameFormat("MantaroShard-Command[" + shardId + "/" + totalShards + "] Thread-%d")
-                        .build();
+        log = LoggerFactory.getLogger("MantaroShard-" + shardId);
 
-        threadPool = Executors.newCachedThreadPool(normalTPNamedFactory);
-        commandPool = Executors.newCachedThreadPool(commandTPNamedFactory);
+        //Only used for join/leave messages, experience and the like, commands run on the CommandExecutor.
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(4, 4, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(5000), normalTPNamedFactory,
+                (r, executor) -> onDroppedTask());
+        pool.allowCoreThreadTimeOut(true);
+        threadPool = pool;
 
-        log = LoggerFactory.getLogger("MantaroShard-" + shardId);
+        routerListener = ShardRouter.getInstance().listener(shardId);
         mantaroListener = new MantaroListener(shardId, this);
         commandListener = new CommandListener(shardId, this, commandProcessor);
+        readyListener = TypedEventListener.of("ReadyListener", event -> {
+            startupTime = System.currentTimeMillis() - startedAt;
+            log.info("Shard #{} is ready, took {}ms to start", shardId, startupTime);
+        }, ReadyEvent.class);
 
         start(false);
     }
 
+    //A full pool drops tasks at message rate, so they're only counted, and logged once a minute at most.
+    private void onDroppedTask() {
+        long dropped = droppedTasks.incrementAndGet();
+        MantaroBot bot = MantaroBot.getInstance();
+        if(bot != null)
+            bot.getStatsClient().increment("shard_pool_rejected", "shard:" + shardId);
+
+        long now = System.currentTimeMillis();
+        long last = lastDropWarning.get();
+        if(now - last > 60000 && lastDropWarning.compareAndSet(last, now))
+            log.warn("Shard {} thread pool is full, {} tasks dropped so far", shardId, dropped);
+    }
+
     /**
      * Starts a new Shard.
      * This method builds a {@link JDA} instance and then attempts to start it up.
-     * This locks until the shard finds a status of AWAITING_LOGIN_CONFIRMATION + 5 seconds.
+     * This doesn't wait for the shard to log in: the login is queued on the shared {@link SessionController}, which takes care of the identify rate limit.
+     * Listeners are added right away, so the shard starts handling events (and commands) as soon as it's READY.
      * <p>
      * The newly-started shard will have auto reconnect enabled, a core pool size of 18 and a new NAS instance. The rest is defined either on global or instance
      * variables.
@@ -162,25 +191,22 @@ public class MantaroShard implements JDA {
                 .useSharding(shardId, totalShards)
                 .setGame(Game.playing("Hold on to your seatbelts!"));
 
-        if(shardId < getTotalShards() - 1) {
-            jda = jdaBuilder.buildAsync();
-        } else {
-            //Block until all shards start up properly.
-            jda = jdaBuilder.buildBlocking();
-        }
+        //Added before logging in, so no event gets lost between the shard getting READY and us adding them.
+        addListeners(jdaBuilder);
 
-        //Assume everything is alright~
-        addListeners();
+        startedAt = System.currentTimeMillis();
+        startupTime = 0;
+        jda = jdaBuilder.buildAsync();
     }
 
-    private void addListeners() {
+    private void addListeners(JDABuilder builder) {
         log.debug("Added all listeners for shard {}", shardId);
-        jda.addEventListener(mantaroListener, commandListener, VOICE_CHANNEL_LISTENER, InteractiveOperations.listener(), ReactionOperations.listener());
+        builder.addEventListener(readyListener, routerListener, stats, mantaroListener, commandListener, VOICE_CHANNEL_LISTENER, InteractiveOperations.listener(), ReactionOperations.listener());
     }
 
     private void removeListeners() {
         log.debug("Removed all listeners for shard {}", shardId);
-        jda.removeEventListener(mantaroListener, commandListener, VOICE_CHANNEL_LISTENER, InteractiveOperations.listener(), ReactionOperations.listener());
+        jda.removeEventListener(readyListener, routerListener, stats, mantaroListener, commandListener, VOICE_CHANNEL_LISTENER, InteractiveOperations.listener(), ReactionOperations.listener());
     }
 
     /**
@@ -212,20 +238,14 @@ public class MantaroShard implements JDA {
                 return;
             }
 
-            AtomicInteger users = new AtomicInteger(0), guilds = new AtomicInteger(0);
-            if(MantaroBot.getInstance() != null) {
-                Arrays.stream(MantaroBot.getInstance().getShardedMantaro().getShards()).filter(Objects::nonNull).map(MantaroShard::getJDA).forEach(jda -> {
-                    users.addAndGet((int) jda.getUserCache().size());
-                    guilds.addAndGet((int) jda.getGuildCache().size());
-                });
-            }
+            long users = ShardStats.getTotalUsers(), guilds = ShardStats.getTotalGuilds();
             String newStatus = new JSONObject(Utils.wgetResty(config.apiTwoUrl + "/mantaroapi/splashes/random", null)).getString("splash")
                     .replace("%ramgb%", String.valueOf(((long) (Runtime.getRuntime().maxMemory() * 1.2D)) >> 30L))
-                    .replace("%usercount%", users.toString())
-                    .replace("%guildcount%", guilds.toString())
+                    .replace("%usercount%", String.valueOf(users))
+                    .replace("%guildcount%", String.valueOf(guilds))
                     .replace("%shardcount%", String.valueOf(getTotalShards()))
-                    .replace("%prettyusercount%", pretty(users.get()))
-                    .replace("%prettyguildcount%", pretty(guilds.get()));
+                    .replace("%prettyusercount%", pretty((int) users))
+                    .replace("%prettyguildcount%", pretty((int) guilds));
 
             getJDA().getPresence().setGame(Game.playing(String.format("%shelp | %s | [%d]", config().get().prefix[0], newStatus, getId())));
             log.debug("Changed status to: " + newStatus);
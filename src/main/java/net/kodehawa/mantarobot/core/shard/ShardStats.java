@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2016-2018 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ */
+
+package net.kodehawa.mantarobot.core.shard;
+
+import gnu.trove.set.hash.TLongHashSet;
+import net.dv8tion.jda.core.JDA;
+import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.entities.GuildVoiceState;
+import net.dv8tion.jda.core.events.Event;
+import net.dv8tion.jda.core.events.ReadyEvent;
+import net.dv8tion.jda.core.events.ReconnectedEvent;
+import net.dv8tion.jda.core.events.guild.GuildAvailableEvent;
+import net.dv8tion.jda.core.events.guild.GuildJoinEvent;
+import net.dv8tion.jda.core.events.guild.GuildLeaveEvent;
+import net.dv8tion.jda.core.events.guild.member.GuildMemberJoinEvent;
+import net.dv8tion.jda.core.events.guild.member.GuildMemberLeaveEvent;
+import net.dv8tion.jda.core.events.guild.voice.GuildVoiceJoinEvent;
+import net.dv8tion.jda.core.events.guild.voice.GuildVoiceLeaveEvent;
+import net.kodehawa.mantarobot.MantaroBot;
+import net.kodehawa.mantarobot.core.listeners.TypedEventListener;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToLongFunction;
+
+/**
+ * Aggregate counters of a shard (guilds, users, voice connections, active players and big guilds), kept up to date with its events
+ * so reading them doesn't need to walk the caches. The static methods add them up over every shard.
+ * <p>
+ * Guild and user counts are just the sizes of the caches of the shard, which are cheap to read, sampled when they can change. This means
+ * {@link #getTotalUsers()} counts users that share guilds with more than one shard once per shard, use {@link #getUniqueUsers()} when that matters.
+ * Big guilds and voice connections are kept as sets of guild ids, so seeing the same event twice can't make them drift, and everything but the
+ * active players is recounted from scratch when the shard gets (re)connected. Active players are reported by
+ * {@link net.kodehawa.mantarobot.commands.music.GuildMusicManager}, as they outlive the session of the shard.
+ */
+public class ShardStats implements TypedEventListener {
+    private static final Class<?>[] EVENTS = {
+            ReadyEvent.class, ReconnectedEvent.class, GuildJoinEvent.class, GuildAvailableEvent.class, GuildLeaveEvent.class,
+            GuildMemberJoinEvent.class, GuildMemberLeaveEvent.class, GuildVoiceJoinEvent.class, GuildVoiceLeaveEvent.class
+    };
+    //Guilds with more members than this are "big".
+    public static final int BIG_GUILD = 500;
+
+    private final TLongHashSet bigGuilds = new TLongHashSet();
+    private final TLongHashSet voiceGuilds = new TLongHashSet();
+    private final AtomicInteger players = new AtomicInteger();
+    private volatile long guilds;
+    private volatile long users;
+
+    public static long getTotalGuilds() {
+        return total(ShardStats::getGuilds);
+    }
+
+    /**
+     * @return The users cached on every shard, users on more than one of them are counted once per shard.
+     */
+    public static long getTotalUsers() {
+        return total(ShardStats::getUsers);
+    }
+
+    /**
+     * @return The users cached on every shard, counted once. This goes over every user, so don't call it on every event.
+     */
+    public static long getUniqueUsers() {
+        return MantaroBot.getInstance().getUserCache().size();
+    }
+
+    public static long getTotalVoiceConnections() {
+        return total(ShardStats::getVoiceConnections);
+    }
+
+    public static long getTotalPlayers() {
+        return total(ShardStats::getPlayers);
+    }
+
+    public static long getTotalBigGuilds() {
+        return total(ShardStats::getBigGuilds);
+    }
+
+    private static long total(ToLongFunction<ShardStats> counter) {
+        MantaroBot bot = MantaroBot.getInstance();
+        if(bot == null)
+            return 0;
+
+        long total = 0;
+        for(MantaroShard shard : bot.getShardedMantaro().getShards()) {
+            if(shard != null)
+                total += counter.applyAsLong(shard.getStats());
+        }
+        return total;
+    }
+
+    public long getGuilds() {
+        return guilds;
+    }
+
+    public long getUsers() {
+        return users;
+    }
+
+    public long getVoiceConnections() {
+        synchronized(voiceGuilds) {
+            return voiceGuilds.size();
+        }
+    }
+
+    public long getPlayers() {
+        return players.get();
+    }
+
+    public long getBigGuilds() {
+        synchronized(bigGuilds) {
+            return bigGuilds.size();
+        }
+    }
+
+    public void playerStarted() {
+        players.incrementAndGet();
+    }
+
+    public void playerStopped() {
+        players.decrementAndGet();
+    }
+
+    @Override
+    public Class<?>[] getEventTypes() {
+        return EVENTS;
+    }
+
+    @Override
+    public void onEvent(Event event) {
+        if(event instanceof ReadyEvent || event instanceof ReconnectedEvent) {
+            recount(event.getJDA());
+        } else if(event instanceof GuildJoinEvent) {
+            guildAdded(((GuildJoinEvent) event).getGuild());
+        } else if(event instanceof GuildAvailableEvent) {
+            guildAdded(((GuildAvailableEvent) event).getGuild());
+        } else if(event instanceof GuildLeaveEvent) {
+            long id = ((GuildLeaveEvent) event).getGuild().getIdLong();
+            set(bigGuilds, id, false);
+            set(voiceGuilds, id, false);
+            sample(event.getJDA());
+        } else if(event instanceof GuildMemberJoinEvent) {
+            Guild guild = ((GuildMemberJoinEvent) event).getGuild();
+            set(bigGuilds, guild.getIdLong(), isBig(guild));
+            users = event.getJDA().getUserCache().size();
+        } else if(event instanceof GuildMemberLeaveEvent) {
+            Guild guild = ((GuildMemberLeaveEvent) event).getGuild();
+            set(bigGuilds, guild.getIdLong(), isBig(guild));
+            users = event.getJDA().getUserCache().size();
+        } else if(event instanceof GuildVoiceJoinEvent) {
+            GuildVoiceJoinEvent e = (GuildVoiceJoinEvent) event;
+            if(e.getMember().equals(e.getGuild().getSelfMember()))
+                set(voiceGuilds, e.getGuild().getIdLong(), true);
+        } else if(event instanceof GuildVoiceLeaveEvent) {
+            GuildVoiceLeaveEvent e = (GuildVoiceLeaveEvent) event;
+            if(e.getMember().equals(e.getGuild().getSelfMember()))
+                set(voiceGuilds, e.getGuild().getIdLong(), false);
+        }
+    }
+
+    private void guildAdded(Guild guild) {
+        set(bigGuilds, guild.getIdLong(), isBig(guild));
+        set(voiceGuilds, guild.getIdLong(), isConnected(guild));
+        sample(guild.getJDA());
+    }
+
+    //The only full walk, once per session.
+    private void recount(JDA jda) {
+        TLongHashSet big = new TLongHashSet();
+        TLongHashSet voice = new TLongHashSet();
+        jda.getGuildCache().forEach(guild -> {
+            if(isBig(guild))
+                big.add(guild.getIdLong());
+            if(isConnected(guild))
+                voice.add(guild.getIdLong());
+        });
+
+        synchronized(bigGuilds) {
+            bigGuilds.clear();
+            bigGuilds.addAll(big);
+        }
+        synchronized(voiceGuilds) {
+            voiceGuilds.clear();
+            voiceGuilds.addAll(voice);
+        }
+        sample(jda);
+    }
+
+    private void sample(JDA jda) {
+        guilds = jda.getGuildCache().size();
+        users = jda.getUserCache().size();
+    }
+
+    private static boolean isBig(Guild guild) {
+        return guild.getMemberCache().size() > BIG_GUILD;
+    }
+
+    private static boolean isConnected(Guild guild) {
+        GuildVoiceState state = guild.getSelfMember().getVoiceState();
+        return state != null && state.inVoiceChannel();
+    }
+
+    private static void set(TLongHashSet set, long guildId, boolean present) {
+        synchronized(set) {
+            if(present)
+                set.add(guildId);
+            else
+                set.remove(guildId);
+        }
+    }
+}
@@ -20,25 +20,31 @@ import br.com.brjdevs.java.utils.async.Async;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.natanbc.discordbotsapi.DiscordBotsAPI;
 import com.github.natanbc.discordbotsapi.PostingException;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.timgroup.statsd.StatsDClient;
 import gnu.trove.impl.unmodifiable.TUnmodifiableLongSet;
 import gnu.trove.set.TLongSet;
 import gnu.trove.set.hash.TLongHashSet;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
-import net.dv8tion.jda.core.entities.VoiceChannel;
-import net.dv8tion.jda.core.utils.cache.SnowflakeCacheView;
+import net.dv8tion.jda.core.JDA;
 import net.kodehawa.mantarobot.MantaroBot;
 import net.kodehawa.mantarobot.MantaroInfo;
+import net.kodehawa.mantarobot.core.GuildFeatures;
 import net.kodehawa.mantarobot.core.LoadState;
 import net.kodehawa.mantarobot.core.MantaroCore;
 import net.kodehawa.mantarobot.core.MantaroEventManager;
+import net.kodehawa.mantarobot.core.listeners.command.CommandExecutor;
 import net.kodehawa.mantarobot.core.listeners.events.PostLoadEvent;
 import net.kodehawa.mantarobot.core.processor.core.ICommandProcessor;
+import net.kodehawa.mantarobot.core.shard.watcher.ShardHeartbeats;
 import net.kodehawa.mantarobot.core.shard.watcher.ShardWatcher;
 import net.kodehawa.mantarobot.data.Config;
 import net.kodehawa.mantarobot.data.MantaroData;
 import net.kodehawa.mantarobot.log.LogUtils;
 import net.kodehawa.mantarobot.services.Carbonitex;
+import net.kodehawa.mantarobot.services.BlacklistService;
+import net.kodehawa.mantarobot.services.LeaderboardService;
 import net.kodehawa.mantarobot.utils.SentryHelper;
 import net.kodehawa.mantarobot.utils.Utils;
 import okhttp3.*;
@@ -46,7 +52,12 @@ import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collector;
 import java.util.stream.Collectors;
@@ -74,6 +85,10 @@ public class ShardedMantaro {
     @Getter
     private final int totalShards;
     @Getter
+    private final ShardHeartbeats heartbeats;
+    @Getter
+    private ShardWatcher watcher;
+    @Getter
     private TUnmodifiableLongSet discordBotsUpvoters = new TUnmodifiableLongSet(new TLongHashSet());
     private final ObjectMapper objectMapper = new ObjectMapper();
 
@@ -84,6 +99,7 @@ public class ShardedMantaro {
         this.totalShards = shardAmount;
         processor = commandProcessor;
         shards = new MantaroShard[this.totalShards];
+        heartbeats = new ShardHeartbeats(this.totalShards);
     }
 
     private static int getRecommendedShards(String token) {
@@ -113,29 +129,62 @@ public class ShardedMantaro {
 
     /**
      * Starts building all the necessary Shards to start this bot instance.
-     * After finishing loading all the necessary shards, this will call {@link ShardedMantaro#startPostLoadProcedure(long)} and set everything so the bot
-     * will be functioning completely (sends {@link PostLoadEvent}, marks the core as ready, starts posting stats to most popular discord bot lists,
-     * starts the birthday checker and starts the ShardWatcherThread both on all the started shards.
+     * Shards are built {@link Config#shardStartupThreads} at a time, and their logins are queued on the shared session controller, which respects
+     * the identify rate limit. Every shard starts handling commands as soon as it's READY, without waiting for the rest.
+     * The {@link ShardWatcher} starts as soon as every shard is built, so it can take care of the ones that get stuck logging in.
+     * After all the shards are connected, or {@link Config#shardStartupTimeout} passed, this will call {@link ShardedMantaro#startPostLoadProcedure(long)}
+     * and set everything so the bot will be functioning completely (sends {@link PostLoadEvent}, marks the core as ready, starts posting stats to
+     * most popular discord bot lists and starts the birthday checker on all the started shards).
      */
     public void shard() {
         try {
             MantaroCore.setLoadState(LoadState.LOADING_SHARDS);
             log.info("Spawning shards...");
             long start = System.currentTimeMillis();
-            for(int i = 0; i < totalShards; i++) {
-                if(MantaroData.config().get().upToShard != 0 && i > MantaroData.config().get().upToShard) continue;
 
-                log.info("Starting shard #" + i + " of " + totalShards);
+            //Get the command workers up before the first shard can receive a command.
+            CommandExecutor.getInstance();
+
+            ExecutorService startupPool = Executors.newFixedThreadPool(Math.max(1, config.shardStartupThreads),
+                    new ThreadFactoryBuilder().setNameFormat("ShardStartup Thread-%d").setDaemon(true).build());
+            List<Future<?>> builds = new ArrayList<>();
+
+            for(int i = 0; i < totalShards; i++) {
+                if(config.upToShard != 0 && i > config.upToShard) continue;
 
                 //The custom event manager instance is important so we can track when we received the last event, or if we're receiving events at all.
-                MantaroEventManager manager = new MantaroEventManager();
+                MantaroEventManager manager = new MantaroEventManager(i, heartbeats);
                 managers.add(manager);
 
-                //Builds the new MantaroShard instance, which will start the shard.
-                shards[i] = new MantaroShard(i, totalShards, manager, processor);
-                log.debug("Finished loading shard #" + i + ".");
+                int shardId = i;
+                builds.add(startupPool.submit(() -> {
+                    log.info("Starting shard #" + shardId + " of " + totalShards);
+                    long shardStart = System.currentTimeMillis();
+
+                    //Builds the new MantaroShard instance, which will queue the shard login.
+                    shards[shardId] = new MantaroShard(shardId, totalShards, manager, processor);
+                    log.debug("Built shard #{} in {}ms", shardId, System.currentTimeMillis() - shardStart);
+                    return null;
+                }));
+            }
+
+            try {
+                for(Future<?> build : builds) {
+                    build.get();
+                }
+            } finally {
+                startupPool.shutdown();
             }
 
+            //Shards still logging in are left alone until the deadline, after that they're treated like any other shard.
+            long deadline = System.currentTimeMillis() + config.shardStartupTimeout + 5000L * builds.size();
+            log.info("Built all shards... Starting ShardWatcher!");
+            watcher = new ShardWatcher(this);
+            watcher.setLoginDeadline(deadline);
+            watcher.start();
+
+            waitForShards(deadline);
+
             //Beep-boop, we finished loading!
             this.startPostLoadProcedure(start);
         } catch(Exception e) {
@@ -144,6 +193,35 @@ public class ShardedMantaro {
         }
     }
 
+    //Blocks until all the started shards are connected, or until the deadline passes.
+    private void waitForShards(long deadline) throws InterruptedException {
+        long lastReport = System.currentTimeMillis();
+        while(true) {
+            int started = 0, connected = 0;
+            for(MantaroShard shard : shards) {
+                if(shard == null) continue;
+                started++;
+                if(shard.getStatus() == JDA.Status.CONNECTED) connected++;
+            }
+
+            if(connected == started)
+                return;
+
+            if(System.currentTimeMillis() > deadline) {
+                log.warn("Only {} out of {} shards connected before the startup timeout, continuing anyway. ShardWatcher will take care of the rest.",
+                        connected, started);
+                return;
+            }
+
+            if(System.currentTimeMillis() - lastReport > 30000) {
+                log.info("{} out of {} shards connected...", connected, started);
+                lastReport = System.currentTimeMillis();
+            }
+
+            Thread.sleep(500);
+        }
+    }
+
     private void startPostLoadProcedure(long start) {
         long end = System.currentTimeMillis();
         MantaroBot bot = MantaroBot.getInstance();
@@ -153,9 +231,8 @@ public class ShardedMantaro {
 
         System.out.println("[-=-=-=-=-=- MANTARO STARTED -=-=-=-=-=-]");
         LogUtils.shard(String.format("Loaded all %d shards in %d seconds.", totalShards, (end - start) / 1000));
-        log.info("Loaded all shards successfully... Starting ShardWatcher! Status: {}", MantaroCore.getLoadState());
+        log.info("Loaded all shards successfully... Status: {}", MantaroCore.getLoadState());
 
-        Async.thread("ShardWatcherThread", new ShardWatcher());
         bot.getCore().getShardEventBus().post(new PostLoadEvent());
 
         startUpdaters();
@@ -163,20 +240,43 @@ public class ShardedMantaro {
 
         Async.task(() -> {
             try {
-                SnowflakeCacheView<VoiceChannel> vc = MantaroBot.getInstance().getVoiceChannelCache();
-                MantaroBot.getInstance().getStatsClient().gauge("music_players", vc.stream().filter(voiceChannel -> voiceChannel.getMembers().contains(voiceChannel.getGuild().getSelfMember())).count());
-            } catch (Exception ignored) {} //Avoid the scheduled task to unexpectedly end on exception (probably ConcurrentModificationException but let's just catch all errors)
+                MantaroBot.getInstance().getStatsClient().gauge("music_players", ShardStats.getTotalVoiceConnections());
+                MantaroBot.getInstance().getStatsClient().gauge("music_active_players", ShardStats.getTotalPlayers());
+                MantaroBot.getInstance().getStatsClient().gauge("users", ShardStats.getUniqueUsers());
+            } catch (Exception ignored) {} //Avoid the scheduled task to unexpectedly end on exception
         }, 20, TimeUnit.SECONDS);
+
+        Async.task("Event stats task", () -> {
+            try {
+                StatsDClient stats = MantaroBot.getInstance().getStatsClient();
+                MantaroEventManager.getTimings().forEach((name, timings) -> {
+                    String tag = "listener:" + name;
+                    stats.gauge("event_listener_calls", timings.getCalls(), tag);
+                    stats.gauge("event_listener_p99_micros", timings.drainPercentile(0.99), tag);
+                });
+
+                Map<String, Long> eventCounts = new HashMap<>();
+                for(MantaroEventManager manager : managers) {
+                    stats.gauge("events_per_second", manager.getEventRate(60), "shard:" + manager.getShardId());
+                    manager.getEventCounts().forEach((type, count) -> eventCounts.merge(type.getSimpleName(), count.sum(), Long::sum));
+                    manager.rotateGuildEvents();
+                }
+                eventCounts.forEach((type, count) -> stats.gauge("events_total", count, "event:" + type));
+            } catch (Exception ignored) {}
+        }, 1, TimeUnit.MINUTES);
     }
 
     private void startUpdaters() {
         Async.task("Carbonitex post task", carbonitex::handle, 30, TimeUnit.MINUTES);
+        Async.task("Leaderboard rebuild task", LeaderboardService.getInstance()::rebuild, 30, TimeUnit.MINUTES);
+        Async.task("Blacklist refresh task", BlacklistService.getInstance()::refresh, 5, TimeUnit.MINUTES);
+        Async.task("Guild features refresh task", GuildFeatures::load, 10, TimeUnit.MINUTES);
 
         if(config.dbotsorgToken != null) {
             Async.task("dbots.org update thread", () -> {
                 try {
-                    long count = MantaroBot.getInstance().getGuildCache().size();
-                    int[] shards = MantaroBot.getInstance().getShardList().stream().mapToInt(shard -> (int) shard.getGuildCache().size()).toArray();
+                    long count = ShardStats.getTotalGuilds();
+                    int[] shards = MantaroBot.getInstance().getShardList().stream().mapToInt(shard -> (int) shard.getStats().getGuilds()).toArray();
                     discordBotsAPI.postStats(shards);
                     log.debug("Updated server count ({}) for discordbots.org", count);
                 } catch(Exception ignored) {}
@@ -215,7 +315,7 @@ public class ShardedMantaro {
         if(dbotsToken != null) {
             Async.task("bots.discord.pw update Thread", () -> {
                 try {
-                    long count = MantaroBot.getInstance().getGuildCache().size();
+                    long count = ShardStats.getTotalGuilds();
                     RequestBody body = RequestBody.create(JSON, new JSONObject().put("server_count", count).toString());
 
                     Request request = new Request.Builder()
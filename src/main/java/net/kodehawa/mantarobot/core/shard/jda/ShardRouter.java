@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2016-2018 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ */
+
+
+package net.kodehawa.mantarobot.core.shard.jda;
+
+import gnu.trove.map.hash.TLongIntHashMap;
+import lombok.Getter;
+import net.dv8tion.jda.core.JDA;
+import net.dv8tion.jda.core.entities.*;
+import net.dv8tion.jda.core.events.Event;
+import net.dv8tion.jda.core.events.channel.category.CategoryCreateEvent;
+import net.dv8tion.jda.core.events.channel.category.CategoryDeleteEvent;
+import net.dv8tion.jda.core.events.channel.text.TextChannelCreateEvent;
+import net.dv8tion.jda.core.events.channel.text.TextChannelDeleteEvent;
+import net.dv8tion.jda.core.events.channel.voice.VoiceChannelCreateEvent;
+import net.dv8tion.jda.core.events.channel.voice.VoiceChannelDeleteEvent;
+import net.dv8tion.jda.core.events.emote.EmoteAddedEvent;
+import net.dv8tion.jda.core.events.emote.EmoteRemovedEvent;
+import net.dv8tion.jda.core.events.guild.GuildAvailableEvent;
+import net.dv8tion.jda.core.events.guild.GuildJoinEvent;
+import net.dv8tion.jda.core.events.guild.GuildLeaveEvent;
+import net.dv8tion.jda.core.events.guild.GuildReadyEvent;
+import net.dv8tion.jda.core.events.guild.member.GuildMemberJoinEvent;
+import net.dv8tion.jda.core.events.guild.member.GuildMemberLeaveEvent;
+import net.dv8tion.jda.core.events.role.RoleCreateEvent;
+import net.dv8tion.jda.core.events.role.RoleDeleteEvent;
+import net.dv8tion.jda.core.hooks.EventListener;
+import net.kodehawa.mantarobot.MantaroBot;
+import net.kodehawa.mantarobot.core.listeners.TypedEventListener;
+
+/**
+ * Knows which shard every channel, role, emote and user is on, so {@link ShardedJDA} can ask that shard directly instead of asking all of them.
+ * <p>
+ * Guilds don't need this, as their shard can be calculated from their id. Everything that belongs to a guild is indexed by id when the guild
+ * becomes available on a shard, and kept up to date with the create/delete events. Users can be on many shards, so they point to any shard
+ * that has them, and get pointed somewhere else (or removed) when they leave the last guild they shared with that shard.
+ * <p>
+ * The indexes are primitive maps split in stripes, each guarded by its own lock, as events from every shard update them at the same time.
+ */
+public class ShardRouter {
+    private static final int STRIPES = 64;
+
+    @Getter
+    private static final ShardRouter instance = new ShardRouter();
+
+    //channel/role/emote/category id -> shard id
+    private final TLongIntHashMap[] entities = stripes();
+    //user id -> id of a shard that has it
+    private final TLongIntHashMap[] users = stripes();
+
+    private ShardRouter() {}
+
+    private static TLongIntHashMap[] stripes() {
+        TLongIntHashMap[] stripes = new TLongIntHashMap[STRIPES];
+        for(int i = 0; i < STRIPES; i++) {
+            //-1 means not indexed
+            stripes[i] = new TLongIntHashMap(16, 0.5f, 0, -1);
+        }
+        return stripes;
+    }
+
+    private static TLongIntHashMap stripe(TLongIntHashMap[] stripes, long id) {
+        //The low bits of a snowflake are an increment, which spreads them better than the timestamp.
+        return stripes[(int) ((id ^ (id >>> 32)) & (STRIPES - 1))];
+    }
+
+    private static int get(TLongIntHashMap[] stripes, long id) {
+        TLongIntHashMap stripe = stripe(stripes, id);
+        synchronized(stripe) {
+            return stripe.get(id);
+        }
+    }
+
+    private static void put(TLongIntHashMap[] stripes, long id, int shardId) {
+        TLongIntHashMap stripe = stripe(stripes, id);
+        synchronized(stripe) {
+            stripe.put(id, shardId);
+        }
+    }
+
+    private static void remove(TLongIntHashMap[] stripes, long id) {
+        TLongIntHashMap stripe = stripe(stripes, id);
+        synchronized(stripe) {
+            stripe.remove(id);
+        }
+    }
+
+    /**
+     * @return The id of the shard a channel, role, emote or category is on, or -1 if it's unknown.
+     */
+    public int getShard(long entityId) {
+        return get(entities, entityId);
+    }
+
+    /**
+     * @return The id of a shard that has the specified user, or -1 if none does.
+     */
+    public int getUserShard(long userId) {
+        return get(users, userId);
+    }
+
+    /**
+     * @return The listener that keeps the indexes up to date with the events of a shard.
+     */
+    public EventListener listener(int shardId) {
+        return TypedEventListener.of("ShardRouter", event -> onEvent(shardId, event),
+                GuildReadyEvent.class, GuildJoinEvent.class, GuildAvailableEvent.class, GuildLeaveEvent.class, GuildMemberJoinEvent.class,
+                GuildMemberLeaveEvent.class, TextChannelCreateEvent.class, TextChannelDeleteEvent.class, VoiceChannelCreateEvent.class,
+                VoiceChannelDeleteEvent.class, CategoryCreateEvent.class, CategoryDeleteEvent.class, RoleCreateEvent.class,
+                RoleDeleteEvent.class, EmoteAddedEvent.class, EmoteRemovedEvent.class);
+    }
+
+    private void onEvent(int shardId, Event event) {
+        if(event instanceof GuildReadyEvent) {
+            index(shardId, ((GuildReadyEvent) event).getGuild());
+        } else if(event instanceof GuildJoinEvent) {
+            index(shardId, ((GuildJoinEvent) event).getGuild());
+        } else if(event instanceof GuildAvailableEvent) {
+            index(shardId, ((GuildAvailableEvent) event).getGuild());
+        } else if(event instanceof GuildLeaveEvent) {
+            unindex(shardId, ((GuildLeaveEvent) event).getGuild());
+        } else if(event instanceof GuildMemberJoinEvent) {
+            put(users, ((GuildMemberJoinEvent) event).getUser().getIdLong(), shardId);
+        } else if(event instanceof GuildMemberLeaveEvent) {
+            userLeft(shardId, event.getJDA(), ((GuildMemberLeaveEvent) event).getUser().getIdLong());
+        } else if(event instanceof TextChannelCreateEvent) {
+            put(entities, ((TextChannelCreateEvent) event).getChannel().getIdLong(), shardId);
+        } else if(event instanceof TextChannelDeleteEvent) {
+            remove(entities, ((TextChannelDeleteEvent) event).getChannel().getIdLong());
+        } else if(event instanceof VoiceChannelCreateEvent) {
+            put(entities, ((VoiceChannelCreateEvent) event).getChannel().getIdLong(), shardId);
+        } else if(event instanceof VoiceChannelDeleteEvent) {
+            remove(entities, ((VoiceChannelDeleteEvent) event).getChannel().getIdLong());
+        } else if(event instanceof CategoryCreateEvent) {
+            put(entities, ((CategoryCreateEvent) event).getCategory().getIdLong(), shardId);
+        } else if(event instanceof CategoryDeleteEvent) {
+            remove(entities, ((CategoryDeleteEvent) event).getCategory().getIdLong());
+        } else if(event instanceof RoleCreateEvent) {
+            put(entities, ((RoleCreateEvent) event).getRole().getIdLong(), shardId);
+        } else if(event instanceof RoleDeleteEvent) {
+            remove(entities, ((RoleDeleteEvent) event).getRole().getIdLong());
+        } else if(event instanceof EmoteAddedEvent) {
+            put(entities, ((EmoteAddedEvent) event).getEmote().getIdLong(), shardId);
+        } else if(event instanceof EmoteRemovedEvent) {
+            remove(entities, ((EmoteRemovedEvent) event).getEmote().getIdLong());
+        }
+    }
+
+    private void index(int shardId, Guild guild) {
+        guild.getTextChannelCache().forEach(channel -> put(entities, channel.getIdLong(), shardId));
+        guild.getVoiceChannelCache().forEach(channel -> put(entities, channel.getIdLong(), shardId));
+        guild.getCategoryCache().forEach(category -> put(entities, category.getIdLong(), shardId));
+        guild.getRoleCache().forEach(role -> put(entities, role.getIdLong(), shardId));
+        guild.getEmoteCache().forEach(emote -> put(entities, emote.getIdLong(), shardId));
+        guild.getMemberCache().forEach(member -> put(users, member.getUser().getIdLong(), shardId));
+    }
+
+    private void unindex(int shardId, Guild guild) {
+        guild.getTextChannelCache().forEach(channel -> remove(entities, channel.getIdLong()));
+        guild.getVoiceChannelCache().forEach(channel -> remove(entities, channel.getIdLong()));
+        guild.getCategoryCache().forEach(category -> remove(entities, category.getIdLong()));
+        guild.getRoleCache().forEach(role -> remove(entities, role.getIdLong()));
+        guild.getEmoteCache().forEach(emote -> remove(entities, emote.getIdLong()));
+        JDA jda = guild.getJDA();
+        guild.getMemberCache().forEach(member -> userLeft(shardId, jda, member.getUser().getIdLong()));
+    }
+
+    //Only scans the other shards if the user was pointing to this one and this one doesn't have it anymore, which is rare next to lookups.
+    private void userLeft(int shardId, JDA jda, long userId) {
+        if(get(users, userId) != shardId || jda.getUserById(userId) != null)
+            return;
+
+        for(JDA shard : MantaroBot.getInstance().getShardList()) {
+            if(shard != null && shard.getUserById(userId) != null) {
+                put(users, userId, MantaroBot.getInstance().getId(shard));
+                return;
+            }
+        }
+
+        remove(users, userId);
+    }
+}
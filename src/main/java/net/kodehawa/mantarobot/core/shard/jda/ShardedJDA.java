@@ -21,6 +21,7 @@ import net.dv8tion.jda.core.entities.*;
 import net.dv8tion.jda.core.hooks.IEventManager;
 import net.dv8tion.jda.core.managers.AudioManager;
 import net.dv8tion.jda.core.requests.RestAction;
+import net.dv8tion.jda.core.utils.MiscUtil;
 import net.dv8tion.jda.core.utils.cache.CacheView;
 import net.dv8tion.jda.core.utils.cache.SnowflakeCacheView;
 import net.kodehawa.mantarobot.MantaroBot;
@@ -29,6 +30,7 @@ import net.kodehawa.mantarobot.data.MantaroData;
 import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static net.dv8tion.jda.core.utils.cache.CacheView.allSnowflakes;
@@ -71,12 +73,12 @@ public abstract class ShardedJDA implements UnifiedJDA {
 
     @Override
     public User getUserById(String id) {
-        return stream().map(jda -> jda.getUserById(id)).filter(Objects::nonNull).findFirst().orElse(null);
+        return getUserById(MiscUtil.parseSnowflake(id));
     }
 
     @Override
     public User getUserById(long id) {
-        return stream().map(jda -> jda.getUserById(id)).filter(Objects::nonNull).findFirst().orElse(null);
+        return route(ShardRouter.getInstance().getUserShard(id), jda -> jda.getUserById(id));
     }
 
     @Override
@@ -106,12 +108,13 @@ public abstract class ShardedJDA implements UnifiedJDA {
 
     @Override
     public Guild getGuildById(String id) {
-        return MantaroBot.getInstance().getShard((int) (Long.valueOf(id) >> 22 % MantaroBot.getInstance().getShardList().size())).getGuildById(id);
+        return getGuildById(MiscUtil.parseSnowflake(id));
     }
 
     @Override
     public Guild getGuildById(long id) {
-        return MantaroBot.getInstance().getShard((int) (id >> 22 % MantaroBot.getInstance().getShardList().size())).getGuildById(id);
+        JDA jda = MantaroBot.getInstance().getShardForGuild(id);
+        return jda == null ? null : jda.getGuildById(id);
     }
 
     @Override
@@ -126,12 +129,12 @@ public abstract class ShardedJDA implements UnifiedJDA {
 
     @Override
     public Role getRoleById(String id) {
-        return stream().map(jda -> jda.getRoleById(id)).filter(Objects::nonNull).findFirst().orElse(null);
+        return getRoleById(MiscUtil.parseSnowflake(id));
     }
 
     @Override
     public Role getRoleById(long id) {
-        return stream().map(jda -> jda.getRoleById(id)).filter(Objects::nonNull).findFirst().orElse(null);
+        return route(ShardRouter.getInstance().getShard(id), jda -> jda.getRoleById(id));
     }
 
     @Override
@@ -146,12 +149,12 @@ public abstract class ShardedJDA implements UnifiedJDA {
 
     @Override
     public TextChannel getTextChannelById(String id) {
-        return stream().map(jda -> jda.getTextChannelById(id)).filter(Objects::nonNull).findFirst().orElse(null);
+        return getTextChannelById(MiscUtil.parseSnowflake(id));
     }
 
     @Override
     public TextChannel getTextChannelById(long id) {
-        return stream().map(jda -> jda.getTextChannelById(id)).filter(Objects::nonNull).findFirst().orElse(null);
+        return route(ShardRouter.getInstance().getShard(id), jda -> jda.getTextChannelById(id));
     }
 
     @Override
@@ -166,12 +169,12 @@ public abstract class ShardedJDA implements UnifiedJDA {
 
     @Override
     public VoiceChannel getVoiceChannelById(String id) {
-        return stream().map(jda -> jda.getVoiceChannelById(id)).filter(Objects::nonNull).findFirst().orElse(null);
+        return getVoiceChannelById(MiscUtil.parseSnowflake(id));
     }
 
     @Override
     public VoiceChannel getVoiceChannelById(long id) {
-        return stream().map(jda -> jda.getVoiceChannelById(id)).filter(Objects::nonNull).findFirst().orElse(null);
+        return route(ShardRouter.getInstance().getShard(id), jda -> jda.getVoiceChannelById(id));
     }
 
     @Override
@@ -201,12 +204,12 @@ public abstract class ShardedJDA implements UnifiedJDA {
 
     @Override
     public Emote getEmoteById(String id) {
-        return stream().map(jda -> jda.getEmoteById(id)).filter(Objects::nonNull).findFirst().orElse(null);
+        return getEmoteById(MiscUtil.parseSnowflake(id));
     }
 
     @Override
     public Emote getEmoteById(long id) {
-        return stream().map(jda -> jda.getEmoteById(id)).filter(Objects::nonNull).findFirst().orElse(null);
+        return route(ShardRouter.getInstance().getShard(id), jda -> jda.getEmoteById(id));
     }
 
     @Override
@@ -221,12 +224,12 @@ public abstract class ShardedJDA implements UnifiedJDA {
 
     @Override
     public Category getCategoryById(String id) {
-        return stream().map(jda -> jda.getCategoryById(id)).filter(Objects::nonNull).findFirst().orElse(null);
+        return getCategoryById(MiscUtil.parseSnowflake(id));
     }
 
     @Override
     public Category getCategoryById(long id) {
-        return stream().map(jda -> jda.getCategoryById(id)).filter(Objects::nonNull).findFirst().orElse(null);
+        return route(ShardRouter.getInstance().getShard(id), jda -> jda.getCategoryById(id));
     }
 
     @Override
@@ -314,6 +317,15 @@ public abstract class ShardedJDA implements UnifiedJDA {
         return CacheView.all(() -> stream().map(JDA::getAudioManagerCache));
     }
 
+    //Asks only the shard the router says the entity is on.
+    private static <T> T route(int shardId, Function<JDA, T> getter) {
+        if(shardId == -1)
+            return null;
+
+        JDA jda = MantaroBot.getInstance().getShard(shardId);
+        return jda == null ? null : getter.apply(jda);
+    }
+
     public abstract void restartShard(int shardId, boolean force);
 
     public abstract void restartAll();
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2016-2018 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ */
+
+package net.kodehawa.mantarobot.core.shard.watcher;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Liveness signals of every shard, published by their {@link net.kodehawa.mantarobot.core.MantaroEventManager} and read by the
+ * {@link ShardWatcher}: when the last event arrived, and since when the current event has been going through the listeners (0 if none is).
+ * A listener that deadlocks leaves the second one behind, so it can be told apart from a shard that just isn't getting events.
+ */
+public class ShardHeartbeats {
+    private final AtomicLongArray lastEvent;
+    private final AtomicLongArray dispatchStart;
+
+    public ShardHeartbeats(int shards) {
+        this.lastEvent = new AtomicLongArray(shards);
+        this.dispatchStart = new AtomicLongArray(shards);
+
+        //Shards that didn't get anything yet count from now, not from the epoch.
+        long now = System.currentTimeMillis();
+        for(int i = 0; i < shards; i++) {
+            lastEvent.set(i, now);
+        }
+    }
+
+    /**
+     * Marks an event as received, and as going through the listeners unless another one already is (events can come from more than one
+     * thread, only one of them is tracked at a time).
+     *
+     * @return Whether it's being tracked, in which case {@link #dispatchFinished(int)} has to be called once it's done.
+     */
+    public boolean dispatchStarted(int shard, long now) {
+        lastEvent.lazySet(shard, now);
+        return dispatchStart.compareAndSet(shard, 0, now);
+    }
+
+    public void dispatchFinished(int shard) {
+        dispatchStart.lazySet(shard, 0);
+    }
+
+    /**
+     * Starts counting from now again, used when a shard gets rebuilt.
+     */
+    public void reset(int shard, long now) {
+        lastEvent.set(shard, now);
+        dispatchStart.set(shard, 0);
+    }
+
+    /**
+     * @return When the shard got its last event, in milliseconds.
+     */
+    public long getLastEvent(int shard) {
+        return lastEvent.get(shard);
+    }
+
+    /**
+     * @return Since when the shard has been running its listeners for an event, or 0 if it isn't.
+     */
+    public long getDispatchStart(int shard) {
+        return dispatchStart.get(shard);
+    }
+
+    public int size() {
+        return lastEvent.length();
+    }
+}
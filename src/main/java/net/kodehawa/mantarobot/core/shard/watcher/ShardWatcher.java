@@ -21,175 +21,229 @@ import net.dv8tion.jda.core.JDA;
 import net.dv8tion.jda.core.entities.impl.JDAImpl;
 import net.kodehawa.mantarobot.MantaroBot;
 import net.kodehawa.mantarobot.core.MantaroEventManager;
-import net.kodehawa.mantarobot.core.listeners.events.EventUtils;
-import net.kodehawa.mantarobot.core.listeners.events.ShardMonitorEvent;
 import net.kodehawa.mantarobot.core.shard.MantaroShard;
 import net.kodehawa.mantarobot.core.shard.ShardedMantaro;
 import net.kodehawa.mantarobot.data.MantaroData;
 import net.kodehawa.mantarobot.log.LogUtils;
 
 import java.util.Arrays;
-import java.util.concurrent.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
- * This class acts as a Watcher for all the {@link MantaroShard} instances.
- * The always-running ShardWatcherThread looks over all the shards and listeners to make sure no shard is either not receiving events or deadlocked.
- * This works by sending a foreign event to all the shards, asking for a response back.
- * There are two ways for a Shard to send a signal that's dead: by having one or more listeners deadlocked, or by having a {@link MantaroEventManager#getLastJDAEventTimeDiff()}
- * time of over 30000ms (30 seconds without receiving any event).
+ * This class acts as a Watcher for all the {@link MantaroShard} instances, making sure no shard is either not receiving events or deadlocked.
  * <p>
- * After acknowledging the dead shards, the ShardWatcherThread will proceed to attempt to RESUME all of the dead shards. If this doesn't work,
- * it will restart the dead shards by sending a signal to {@link MantaroShard#start(boolean)} with a value of "true", which will send {@link JDA#shutdownNow()}
- * to the old shard instance, and attempt to build a completely new one. This sends a timeout after two minutes of wait.
- * There is a backoff of 6 seconds between rebooting shards, to avoid OP2 spam during this procedure (5 seconds from the {@link MantaroShard#start(boolean)} call, and one extra second on this procedure).
- * <p>
- * After rebooting the shard, everything on it *should* go back to normal and it should be able to listen to events and dispatch messages again without issues.
- * <p>
- * There are two loops on this code. The first one handles checking the restart queue (populated after a RESUME request fails) and the second one handles the actual procedure
- * for detecting dead shards and attempts to send a RESUME on them.
+ * Every {@link MantaroEventManager} publishes when its shard got its last event, and since when the listeners have been running the current one,
+ * on the {@link ShardHeartbeats} of the bot. Twice a second, a single thread goes over them and moves every shard through its {@link State}:
+ * <ul>
+ * <li>A shard that got no events for {@link #SILENT_AFTER}ms, or whose listeners are stuck on the same event for {@link #STUCK_AFTER}ms,
+ * becomes SUSPECT. Shards JDA is reconnecting by itself aren't, unless they've been at it for too long.</li>
+ * <li>If it's still dead after {@link #CONFIRM_AFTER}ms a RESUME is attempted and it becomes RESUMING. Once it gets an event again it's HEALTHY.</li>
+ * <li>If it doesn't get any event for {@link #RESUME_TIMEOUT}ms after that, it's RESTARTING: it gets queued to be rebuilt with
+ * {@link MantaroShard#start(boolean)}. Shards are restarted one at a time, with a backoff between them to avoid OP2 spam.</li>
+ * </ul>
+ * Nothing is allocated on a check unless a shard changes state.
  */
 @Slf4j
-public class ShardWatcher implements Runnable {
-
-    //The pool that will run the FutureTask to wait for the shard to finish its pre-load phase.
-    //No longer needed?
-    private final ExecutorService THREAD_POOL = Executors.newCachedThreadPool();
-    //The scheduler that manages the wait between one shard being resumed and the backoff period to check if it successfully revived.
-    private final ScheduledExecutorService RESUME_WAITER = Executors.newSingleThreadScheduledExecutor();
-    //The queue where shards that didn't get revived used a RESUME get added. Here they get completely scrapped and re-built when they get polled from the queue.
-    private final ConcurrentLinkedQueue<MantaroShard> RESTART_QUEUE = new ConcurrentLinkedQueue<>();
-
-    //Mantaro's sharded instance
-    private ShardedMantaro shardedMantaro;
-
-    @Override
-    public void run() {
-        LogUtils.shard("ShardWatcherThread started");
-        //Executes the restart queue handler. For the actual logic behind all this, check the next while(true) loop.
-        THREAD_POOL.execute(()->{
-            while(true) {
-                MantaroShard shard = RESTART_QUEUE.poll();
-                if(shard == null) {
-                    //poll the queue every 10 seconds
-                    try {
-                        Thread.sleep(10000);
-                    } catch(InterruptedException e) {
-                        LogUtils.shard("Shard restarter task interrupted");
-                        return;
-                    }
-
-                    //Continue to the next loop cycle if no shard is on the restart queue.
-                    continue;
-                }
+public class ShardWatcher {
+    private static final long CHECK_INTERVAL = 500;
+    private static final long SILENT_AFTER = 30000;
+    private static final long STUCK_AFTER = 15000;
+    private static final long CONFIRM_AFTER = 5000;
+    private static final long RESUME_TIMEOUT = 20000;
+    //How long a shard can be reconnecting by itself before we step in.
+    private static final long RECONNECT_GRACE = 200000;
+    private static final long RESTART_BACKOFF = 5000;
+
+    private final ShardedMantaro shardedMantaro;
+    private final ShardHeartbeats heartbeats;
+    //Only written by the scheduler thread.
+    private final AtomicReferenceArray<State> states;
+    private final long[] since;
+    //Until then, shards that aren't connected are considered to be logging in for the first time, however long that takes.
+    private volatile long loginDeadline;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ShardWatcher");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ExecutorService restarter = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "ShardWatcher-Restarter");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public ShardWatcher(ShardedMantaro shardedMantaro) {
+        this.shardedMantaro = shardedMantaro;
+        this.heartbeats = shardedMantaro.getHeartbeats();
+        this.states = new AtomicReferenceArray<>(heartbeats.size());
+        this.since = new long[heartbeats.size()];
+        for(int i = 0; i < states.length(); i++) {
+            states.set(i, State.HEALTHY);
+        }
+    }
 
-                //Alert us, plz no panic
-                LogUtils.shard(
-                        String.format("(Resume request failed or errored) " +
-                                "Dead shard? Starting automatic shard restart on shard #%d due to it being inactive for longer than 30 seconds.", shard.getId())
-                );
-
-                try {
-                    //Reboot the shard.
-                    shard.start(true);
-                } catch(Exception e) {
-                    //If the shard wasn't able to restart by itself, alert us so we can reboot manually later.
-                    LogUtils.shard(String.format("Shard %d was unable to be restarted: %s", shard.getId(), e));
-                }
+    /**
+     * Gives the shards that are still logging in on startup until the specified time before they can be considered dead.
+     * They could be waiting on the identify queue behind a lot of other shards.
+     */
+    public void setLoginDeadline(long loginDeadline) {
+        this.loginDeadline = loginDeadline;
+    }
 
-                try {
-                    //Wait 5 seconds as a backoff.
-                    Thread.sleep(5000);
-                } catch(InterruptedException e) {
-                    LogUtils.shard("Shard restarter task interrupted");
-                    return;
+    public void start() {
+        LogUtils.shard("ShardWatcher started");
+        scheduler.scheduleAtFixedRate(this::check, CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+
+        int wait = MantaroData.config().get().shardWatcherWait;
+        scheduler.scheduleAtFixedRate(this::checkPing, wait, wait, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return What the watcher thinks of the specified shard.
+     */
+    public State getState(int shardId) {
+        return states.get(shardId);
+    }
+
+    private void check() {
+        long now = System.currentTimeMillis();
+        MantaroShard[] shards = shardedMantaro.getShards();
+        int resumed = 0;
+        for(int id = 0; id < shards.length; id++) {
+            MantaroShard shard = shards[id];
+            //Not built yet, or skipped because of upToShard.
+            if(shard == null)
+                continue;
+
+            try {
+                if(evaluate(id, shard, now))
+                    resumed++;
+            } catch(Exception e) {
+                log.error("Error checking shard {}", id, e);
+            }
+        }
+
+        //This COULD be caused by discord dying and reconnecting a bunch of shards, so we don't need to worry until we get a bunch of
+        //"starting automatic shard restart on..." kinda message.
+        if(resumed > 15) {
+            LogUtils.shard("Seems like Megumin struck our castle and we got a horribly high amount of dead shards (" + resumed + ")\n" +
+                    "This could be just due to them reconnecting though, if nothing appears down there talking about how the shards are rebooting " +
+                    "you might aswell ignore this warning.");
+        }
+    }
+
+    //Returns whether a RESUME was sent to the shard.
+    private boolean evaluate(int id, MantaroShard shard, long now) {
+        long silent = now - heartbeats.getLastEvent(id);
+        long dispatchStart = heartbeats.getDispatchStart(id);
+        boolean stuck = dispatchStart != 0 && now - dispatchStart > STUCK_AFTER;
+        //If we are dealing with a shard reconnecting, don't make its job harder by rebooting it twice.
+        //But, if the shard has been inactive for too long, we're better off scrapping this session as the shard might be stuck on connecting.
+        boolean reconnecting = !stuck && shard.getStatus() != JDA.Status.CONNECTED && (silent < RECONNECT_GRACE || now < loginDeadline);
+        boolean dead = (stuck || silent > SILENT_AFTER) && !reconnecting;
+
+        switch(states.get(id)) {
+            case HEALTHY:
+                if(dead)
+                    transition(id, State.SUSPECT, now);
+                return false;
+            case SUSPECT:
+                if(!dead) {
+                    transition(id, State.HEALTHY, now);
+                } else if(now - since[id] > CONFIRM_AFTER) {
+                    resume(id, shard, now, stuck);
+                    return true;
+                }
+                return false;
+            case RESUMING:
+                //Closing the connection fires a few events by itself, so only count the ones after it's connected again.
+                if(shard.getStatus() == JDA.Status.CONNECTED && heartbeats.getLastEvent(id) > since[id] && !stuck) {
+                    LogUtils.shard(String.format("Shard %d is back after a RESUME request.", id));
+                    transition(id, State.HEALTHY, now);
+                } else if(now - since[id] > RESUME_TIMEOUT) {
+                    restart(id, shard, now);
                 }
+                return false;
+            default:
+                //The restarter moves it back once it's done.
+                return false;
+        }
+    }
+
+    private void resume(int id, MantaroShard shard, long now, boolean stuck) {
+        LogUtils.shard(String.format("Found dead shard (#%d, %s)... attempting RESUME request and waiting %d seconds to validate.",
+                id, stuck ? "listeners stuck" : "no events", RESUME_TIMEOUT / 1000));
+
+        try {
+            //Send the RESUME request.
+            ((JDAImpl) shard.getJDA()).getClient().close(4000);
+            transition(id, State.RESUMING, now);
+        } catch(Exception e) {
+            log.error("Couldn't send RESUME request to shard {}", id, e);
+            restart(id, shard, now);
+        }
+    }
+
+    private void restart(int id, MantaroShard shard, long now) {
+        transition(id, State.RESTARTING, now);
+        restarter.execute(() -> {
+            //Alert us, plz no panic
+            LogUtils.shard(String.format("(Resume request failed or errored) " +
+                    "Dead shard? Starting automatic shard restart on shard #%d due to it being inactive.", id));
+
+            try {
+                //Reboot the shard.
+                shard.start(true);
+            } catch(Exception e) {
+                //If the shard wasn't able to restart by itself, alert us so we can reboot manually later.
+                LogUtils.shard(String.format("Shard %d was unable to be restarted: %s", id, e));
             }
-        });
 
-        final int wait = MantaroData.config().get().shardWatcherWait;
-        while(true) {
+            //Give the new session its own time to get events.
+            scheduler.execute(() -> {
+                long restarted = System.currentTimeMillis();
+                heartbeats.reset(id, restarted);
+                transition(id, State.HEALTHY, restarted);
+            });
+
             try {
-                //Run every x ms (usually every 10 minutes unless changed)
-                Thread.sleep(wait);
-                MantaroEventManager.getLog().info("Checking shards...");
-
-                //Just in case...
-                if(shardedMantaro == null)
-                    shardedMantaro = MantaroBot.getInstance().getShardedMantaro();
-
-                //Get and propagate the shard event.
-                //This event will propagate over all Mantaro-specific listeners, and see if the shards are responding accordingly.
-                ShardMonitorEvent sme = new ShardMonitorEvent(shardedMantaro.getTotalShards());
-                EventUtils.propagateEvent(sme);
-
-                //Start the procedure...
-                int[] dead = sme.getDeadShards();
-
-                //Oh well... we can try to recover them now!
-                if(dead.length != 0) {
-                    MantaroEventManager.getLog().error("Dead shards found: {}", Arrays.toString(dead));
-
-                    //Alert us in case a massive amount of dead shards is found.
-                    //This COULD be caused by discord dying and reconnecting a bunch of shards, so we don't need to worry until we get a bunch of "starting automatic shard
-                    //restart on..." kinda message.
-                    if(dead.length > 15) {
-                        LogUtils.shard("Seems like Megumin struck our castle and we got a horribly high amount of dead shards (" + dead.length + ")\n" +
-                                "This could be just due to them reconnecting though, if nothing appears down there talking about how the shards are rebooting " +
-                                "you might aswell ignore this warning.");
-                    }
-
-                    //Start scrapping and rebooting shards.
-                    //Under the hood this basically calls for a RESUME JDA instance and if it fails, it adds it to the restart queue to replace it with a completely new one.
-                    for(int id : dead) {
-                        try {
-                            MantaroShard shard = MantaroBot.getInstance().getShard(id);
-
-                            //If we are dealing with a shard reconnecting, don't make its job harder by rebooting it twice.
-                            //But, if the shard has been inactive for too long, we're better off scrapping this session as the shard might be stuck on connecting.
-                            if((shard.getStatus() == JDA.Status.RECONNECT_QUEUED || shard.getStatus() == JDA.Status.ATTEMPTING_TO_RECONNECT ||
-                                    shard.getStatus() == JDA.Status.SHUTDOWN) && shard.getEventManager().getLastJDAEventTimeDiff() < 200000) {
-                                LogUtils.shard(String.format("Skipping shard %d due to it being currently reconnecting to the websocket or was shutdown manually...", id));
-                                continue;
-                            }
-
-                            LogUtils.shard(
-                                    String.format("Found dead shard (#%d)... attempting RESUME request and waiting 20 seconds to validate.", id)
-                            );
-
-                            //Send the RESUME request.
-                            ((JDAImpl)(shard.getJDA())).getClient().close(4000);
-
-                            RESUME_WAITER.schedule(() -> {
-                                if(shard.getEventManager().getLastJDAEventTimeDiff() > 18000) {
-                                    RESTART_QUEUE.add(shard);
-                                }
-                            }, 20, TimeUnit.SECONDS);
-                        } catch(Exception e) {
-                            //Print the exception so we can look at it later...
-                            e.printStackTrace();
-                            //Force add into the queue
-                            RESUME_WAITER.schedule(() -> RESTART_QUEUE.add(MantaroBot.getInstance().getShard(id)), 30, TimeUnit.SECONDS);
-                            //Somehow we couldn't reboot the shard.
-                            LogUtils.shard(String.format("Cannot restart shard %d. Try to do it manually.", id));
-                        }
-                    }
-                } else {
-                    //yay
-                    MantaroEventManager.getLog().info("No dead shards found");
-                    long ping = MantaroBot.getInstance().getPing();
-
-                    //We might have a few soft-dead shards on here... (or internet went to shit)
-                    if(ping > 400) {
-                        LogUtils.shard(String.format("No dead shards found, but average ping is high (%dms). Ping breakdown: %s",
-                                ping, Arrays.toString(MantaroBot.getInstance().getPings())));
-                    }
-                }
+                //Wait a bit as a backoff.
+                Thread.sleep(RESTART_BACKOFF);
             } catch(InterruptedException e) {
-                //Just in case we stop this for any reason, we want to know that we interrupted this, just so we know we won't have a shard watcher running on the background.
-                log.error("ShardWatcher interrupted, stopping...");
-                LogUtils.shard("ShardWatcher interrupted, stopping...");
-                return;
+                LogUtils.shard("Shard restarter task interrupted");
             }
+        });
+    }
+
+    private void transition(int id, State state, long now) {
+        log.debug("Shard {}: {} -> {}", id, states.get(id), state);
+        states.set(id, state);
+        since[id] = now;
+    }
+
+    private void checkPing() {
+        try {
+            for(int i = 0; i < states.length(); i++) {
+                if(states.get(i) != State.HEALTHY)
+                    return;
+            }
+
+            //We might have a few soft-dead shards on here... (or internet went to shit)
+            long ping = MantaroBot.getInstance().getPing();
+            if(ping > 400) {
+                LogUtils.shard(String.format("No dead shards found, but average ping is high (%dms). Ping breakdown: %s",
+                        ping, Arrays.toString(MantaroBot.getInstance().getPings())));
+            }
+        } catch(Exception e) {
+            log.error("Error checking shard ping", e);
         }
     }
+
+    public enum State {
+        HEALTHY, SUSPECT, RESUMING, RESTARTING
+    }
 }
@@ -32,6 +32,7 @@ public class Config {
     public String apiUrl = "127.0.0.1:4454";
     public String bugreportChannel;
     public boolean cacheGames = false;
+    public CommandExecutorInfo commandExecutor = new CommandExecutorInfo();
     public String carbonToken;
     public String cleverbotKey;
     public String cleverbotUser;
@@ -43,13 +44,18 @@ public class Config {
     public String dbDb = "mantaro";
     public String dbHost = "localhost";
     public String dbPassword;
+    public int dbPoolSize = 4; //connections kept open to rethink
     public int dbPort = 28015;
+    public int dbThreads = 8; //threads async database calls run on
     public String dbUser;
     public String dbotsToken;
     public String dbotsorgToken;
     public boolean isBeta = false;
     public boolean isPremiumBot = false;
+    public LocalCacheInfo localCache = new LocalCacheInfo();
     public int maxJdaReconnectDelay = 3; //3 seconds
+    public int messageCacheBytes = 32 * 1024 * 1024; //32MB
+    public boolean messageCacheOffHeap = true;
     public String osuApiKey;
     public List<String> owners = new ArrayList<>();
     public String[] prefix = {"~>", "->"};
@@ -58,9 +64,12 @@ public class Config {
     public String rMQUser;
     public RedisInfo redis = new RedisInfo();
     public String remoteNode;
+    public SavePipelineInfo savePipeline = new SavePipelineInfo();
     public String sentryDSN;
+    public int shardStartupThreads = 4; //how many shards get built at the same time, identifies are still rate limited
+    public int shardStartupTimeout = 300000; //wait up to 5 minutes (plus 5 seconds per shard, for the identify queue) for all shards to connect on startup
     public int shardWatcherTimeout = 1500; //wait 1500ms for the handlers to run
-    public int shardWatcherWait = 600000; //run once every 600 seconds (10 minutes)
+    public int shardWatcherWait = 600000; //check the average ping once every 600 seconds (10 minutes), shards themselves are checked twice a second
     public String shardWebhookUrl;
     public String sqlPassword;
     public String token;
@@ -86,7 +95,32 @@ public class Config {
         return owners.contains(id);
     }
 
+    public static class CommandExecutorInfo {
+        public int maxPending = 5000;
+        public int maxPendingPerGuild = 25;
+        public long maxWaitMs = 30000;
+        public int threads = 0; //0 = 4 per core, at least 8
+        public boolean virtualThreads = false; //Only works on JDK 19+
+    }
+
+    //Only used when redis is disabled. Opt-in: callers share the cached instances, see LocalCachedDatabase.
+    public static class LocalCacheInfo {
+        public boolean enabled = false;
+        public int guilds = 20000;
+        public int players = 50000;
+        public long ttlMs = 600000;
+        public int users = 50000;
+    }
+
+    public static class SavePipelineInfo {
+        public int batchSize = 200;
+        public long flushMs = 1000;
+        public int maxPending = 20000;
+    }
+
     public static class RedisInfo {
+        public boolean binaryCodec = false; //every process sharing the cache has to use the same codec
+        public boolean changeFeed = false; //keeps the cache up to date with database changes, only one process needs it (other processes reload guild features every 10 minutes)
         public CacheInfo customCommands = new CacheInfo();
         public boolean enabled = true;
         public CacheInfo guilds = new CacheInfo();
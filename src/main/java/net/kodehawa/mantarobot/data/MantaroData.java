@@ -19,7 +19,11 @@ package net.kodehawa.mantarobot.data;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.rethinkdb.net.Connection;
 import lombok.extern.slf4j.Slf4j;
+import net.kodehawa.mantarobot.db.ConnectionPool;
 import net.kodehawa.mantarobot.db.ManagedDatabase;
+import net.kodehawa.mantarobot.db.entities.*;
+import net.kodehawa.mantarobot.db.local.LocalCachedDatabase;
+import net.kodehawa.mantarobot.db.redis.EntityCodec;
 import net.kodehawa.mantarobot.db.redis.RedisCachedDatabase;
 import net.kodehawa.mantarobot.utils.data.GsonDataManager;
 import org.redisson.Redisson;
@@ -32,6 +36,7 @@ import org.redisson.codec.JsonJacksonCodec;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static com.rethinkdb.RethinkDB.r;
 
@@ -39,27 +44,38 @@ import static com.rethinkdb.RethinkDB.r;
 public class MantaroData {
     private static final ScheduledExecutorService exec = Executors.newSingleThreadScheduledExecutor();
     private static GsonDataManager<Config> config;
-    private static Connection conn;
+    private static volatile ConnectionPool pool;
     private static ManagedDatabase db;
     private static ObjectMapper mapper = new ObjectMapper();
     private static RedissonClient redisson;
     private static Codec redissonCodec = new JsonJacksonCodec(mapper);
+    private static Codec entityCodec;
 
     public static GsonDataManager<Config> config() {
         if(config == null) config = new GsonDataManager<>(Config.class, "config.json", Config::new);
         return config;
     }
 
-    public static Connection conn() {
+    public static ConnectionPool pool() {
         Config c = config().get();
-        if(conn == null) {
+        if(pool == null) {
             synchronized(MantaroData.class) {
-                if(conn != null) return conn;
-                conn = r.connection().hostname(c.dbHost).port(c.dbPort).db(c.dbDb).user(c.dbUser, c.dbPassword).connect();
-                log.info("Established first database connection to {}:{} ({})", c.dbHost, c.dbPort, c.dbUser);
+                if(pool != null) return pool;
+                pool = new ConnectionPool(
+                        () -> r.connection().hostname(c.dbHost).port(c.dbPort).db(c.dbDb).user(c.dbUser, c.dbPassword).connect(),
+                        c.dbPoolSize, c.dbThreads, TimeUnit.SECONDS.toMillis(30)
+                );
+                log.info("Established {} database connections to {}:{} ({})", c.dbPoolSize, c.dbHost, c.dbPort, c.dbUser);
             }
         }
-        return conn;
+        return pool;
+    }
+
+    /**
+     * @return The least busy connection of the {@link #pool()}.
+     */
+    public static Connection conn() {
+        return pool().get();
     }
 
     public static RedissonClient redisson() {
@@ -93,8 +109,10 @@ public class MantaroData {
             Config.RedisInfo i = config().get().redis;
             if(i.enabled) {
                 RedissonClient client = redisson();
+                if(i.binaryCodec)
+                    entityCodec = new EntityCodec(new ObjectMapper(), CustomCommand.class, DBGuild.class, Player.class, DBUser.class, PremiumKey.class);
 
-                db = new RedisCachedDatabase(conn(),
+                RedisCachedDatabase redisDb = new RedisCachedDatabase(pool(),
                         map(client, "custom-commands", i.customCommands),
                         map(client, "guilds", i.guilds),
                         map(client, "players", i.players),
@@ -102,9 +120,17 @@ public class MantaroData {
                         map(client, "premium-keys", i.premiumKeys),
                         client.getBucket("mantaro")
                 );
+                if(i.changeFeed)
+                    redisDb.followChanges();
+                db = redisDb;
+            } else if(config().get().localCache.enabled) {
+                db = new LocalCachedDatabase(pool(), config().get().localCache);
             } else {
-                db = new ManagedDatabase(conn());
+                db = new ManagedDatabase(pool());
             }
+
+            ManagedDatabase database = db;
+            Runtime.getRuntime().addShutdownHook(new Thread(database::flush, "SavePipeline-Flush"));
         }
         return db;
     }
@@ -122,8 +148,9 @@ public class MantaroData {
     }
 
     private static <K, V> RMap<K, V> map(RedissonClient client, String key, Config.RedisInfo.CacheInfo cacheInfo) {
+        Codec codec = entityCodec == null ? redissonCodec : entityCodec;
         if(!cacheInfo.enabled)
-            return client.getMap(key, redissonCodec);
+            return client.getMap(key, codec);
 
         LocalCachedMapOptions<K, V> options = LocalCachedMapOptions.<K, V>defaults()
                 .timeToLive(cacheInfo.ttlMs)
@@ -131,6 +158,7 @@ public class MantaroData {
                 .cacheSize(cacheInfo.maxSize)
                 .evictionPolicy(cacheInfo.evictionPolicy)
                 .invalidationPolicy(cacheInfo.invalidationPolicy);
-        return client.getLocalCachedMap(key, options);
+        //Local cached maps used to get the default codec, which is also JSON, so entries written before this can still be read.
+        return entityCodec == null ? client.getLocalCachedMap(key, options) : client.getLocalCachedMap(key, entityCodec, options);
     }
 }
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2016-2018 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.rethinkdb.net.Connection;
+import com.timgroup.statsd.StatsDClient;
+import lombok.extern.slf4j.Slf4j;
+import net.kodehawa.mantarobot.MantaroBot;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static com.rethinkdb.RethinkDB.r;
+
+/**
+ * A fixed set of RethinkDB connections shared by everything that talks to the database.
+ * <p>
+ * Connections are thread safe and can run several queries at once, so they aren't borrowed exclusively: every query goes to the connection
+ * with the least queries in flight. Every so often each connection gets pinged, and closed or unresponsive ones are replaced.
+ * Query latency, queries in flight and open connections are reported to StatsD.
+ * <p>
+ * This also owns the executor the {@code CompletableFuture} methods of {@link ManagedDatabase} run on.
+ */
+@Slf4j
+public class ConnectionPool {
+    //A connection that doesn't answer a ping in this long counts as dead.
+    private static final long PROBE_TIMEOUT = 5000;
+    private static final ScheduledExecutorService checker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ConnectionPool-HealthCheck");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Supplier<Connection> factory;
+    private final AtomicReferenceArray<Connection> connections;
+    private final AtomicIntegerArray inFlight;
+    private final ExecutorService executor;
+
+    /**
+     * @param factory       Opens a new connection.
+     * @param size          How many connections to keep open.
+     * @param threads       How many threads to run async queries on.
+     * @param checkInterval How often to check the connections, in milliseconds.
+     */
+    public ConnectionPool(@Nonnull Supplier<Connection> factory, int size, int threads, long checkInterval) {
+        this.factory = factory;
+        this.connections = new AtomicReferenceArray<>(Math.max(1, size));
+        this.inFlight = new AtomicIntegerArray(connections.length());
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads),
+                new ThreadFactoryBuilder().setNameFormat("Database Thread-%d").setDaemon(true).build());
+
+        for(int i = 0; i < connections.length(); i++) {
+            connections.set(i, factory.get());
+        }
+
+        checker.scheduleWithFixedDelay(this::check, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private static StatsDClient stats() {
+        MantaroBot bot = MantaroBot.getInstance();
+        return bot == null ? null : bot.getStatsClient();
+    }
+
+    /**
+     * Gets the least busy connection, for code that needs to run queries on its own (like cursors that are read over time).
+     * Prefer {@link #query(Function)}, as queries run like this aren't tracked.
+     */
+    public Connection get() {
+        return connections.get(leastBusy());
+    }
+
+    /**
+     * Runs a query on the least busy connection.
+     *
+     * @param query Runs the query on the connection it gets, and returns the result.
+     * @return The result of the query.
+     */
+    public <T> T query(Function<Connection, T> query) {
+        int index = leastBusy();
+        inFlight.incrementAndGet(index);
+        long start = System.nanoTime();
+        try {
+            return query.apply(connections.get(index));
+        } finally {
+            inFlight.decrementAndGet(index);
+            StatsDClient stats = stats();
+            if(stats != null)
+                stats.histogram("db_query_time", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    /**
+     * Runs a query that doesn't return anything on the least busy connection.
+     */
+    public void run(Consumer<Connection> query) {
+        query(conn -> {
+            query.accept(conn);
+            return null;
+        });
+    }
+
+    /**
+     * @return The executor asynchronous database calls run on.
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    private int leastBusy() {
+        int best = 0;
+        int min = Integer.MAX_VALUE;
+        for(int i = 0; i < connections.length(); i++) {
+            int current = inFlight.get(i);
+            if(current < min) {
+                min = current;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private void check() {
+        int open = 0;
+        int busy = 0;
+        for(int i = 0; i < connections.length(); i++) {
+            busy += inFlight.get(i);
+            Connection connection = connections.get(i);
+            try {
+                if(connection.isOpen()) {
+                    //Pinged on the query executor, so a hung connection can't block the checks of the other ones.
+                    Future<?> probe = executor.submit(() -> r.expr(1).run(connection));
+                    try {
+                        probe.get(PROBE_TIMEOUT, TimeUnit.MILLISECONDS);
+                    } catch(TimeoutException e) {
+                        probe.cancel(true);
+                        throw e;
+                    }
+                    open++;
+                    continue;
+                }
+            } catch(Exception e) {
+                log.warn("Database connection #{} failed its health check", i, e);
+            }
+
+            try {
+                connections.set(i, factory.get());
+                open++;
+                log.info("Replaced database connection #{}", i);
+                try {
+                    connection.close();
+                } catch(Exception ignored) { }
+            } catch(Exception e) {
+                log.error("Couldn't reopen database connection #{}", i, e);
+            }
+        }
+
+        StatsDClient stats = stats();
+        if(stats != null) {
+            stats.gauge("db_pool_open", open);
+            stats.gauge("db_pool_in_flight", busy);
+        }
+    }
+}
@@ -16,7 +16,7 @@
 
 package net.kodehawa.mantarobot.db;
 
-import com.rethinkdb.net.Connection;
+import com.google.common.collect.Lists;
 import com.rethinkdb.net.Cursor;
 import lombok.extern.slf4j.Slf4j;
 import net.dv8tion.jda.core.entities.Guild;
@@ -24,21 +24,86 @@ import net.dv8tion.jda.core.entities.Member;
 import net.dv8tion.jda.core.entities.User;
 import net.dv8tion.jda.core.events.message.guild.GuildMessageReceivedEvent;
 import net.kodehawa.mantarobot.ExtraRuntimeOptions;
+import net.kodehawa.mantarobot.core.GuildCommandPolicy;
+import net.kodehawa.mantarobot.core.GuildFeatures;
+import net.kodehawa.mantarobot.data.MantaroData;
 import net.kodehawa.mantarobot.db.entities.*;
+import net.kodehawa.mantarobot.services.LeaderboardService;
 
 import javax.annotation.CheckReturnValue;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
 import static com.rethinkdb.RethinkDB.r;
 
 @Slf4j
 public class ManagedDatabase {
-    private final Connection conn;
+    //Most ids that get sent on a single getAll, so huge lookups don't build a single huge query.
+    private static final int BATCH_SIZE = 1000;
 
-    public ManagedDatabase(@Nonnull Connection conn) {
-        this.conn = conn;
+    private final ConnectionPool pool;
+    private final SavePipeline savePipeline;
+
+    public ManagedDatabase(@Nonnull ConnectionPool pool) {
+        this.pool = pool;
+        this.savePipeline = new SavePipeline(pool, MantaroData.config().get().savePipeline);
+        createIndexes();
+    }
+
+    //Custom command ids are guildId:name, these let us look them up by either part without scanning the whole table.
+    private void createIndexes() {
+        try {
+            List<String> indexes = pool.query(conn -> r.table(CustomCommand.DB_TABLE).indexList().run(conn));
+            if(!indexes.contains("guild")) {
+                log.info("Creating guild index on table {}", CustomCommand.DB_TABLE);
+                pool.query(conn -> r.table(CustomCommand.DB_TABLE).indexCreate("guild", command -> command.g("id").split(":", 1).nth(0)).run(conn));
+            }
+
+            if(!indexes.contains("name")) {
+                log.info("Creating name index on table {}", CustomCommand.DB_TABLE);
+                pool.query(conn -> r.table(CustomCommand.DB_TABLE).indexCreate("name", command -> command.g("id").split(":", 1).nth(1)).run(conn));
+            }
+
+            pool.query(conn -> r.table(CustomCommand.DB_TABLE).indexWait("guild", "name").run(conn));
+        } catch(Exception e) {
+            log.error("Error creating custom command indexes", e);
+        }
+
+        //Scheduled actions get loaded by due time, and listed by user.
+        try {
+            createTable(ScheduledAction.DB_TABLE);
+            List<String> indexes = pool.query(conn -> r.table(ScheduledAction.DB_TABLE).indexList().run(conn));
+            if(!indexes.contains("time")) {
+                log.info("Creating time index on table {}", ScheduledAction.DB_TABLE);
+                pool.query(conn -> r.table(ScheduledAction.DB_TABLE).indexCreate("time").run(conn));
+            }
+
+            if(!indexes.contains("user")) {
+                log.info("Creating user index on table {}", ScheduledAction.DB_TABLE);
+                pool.query(conn -> r.table(ScheduledAction.DB_TABLE).indexCreate("user", action -> action.g("userId")).run(conn));
+            }
+
+            pool.query(conn -> r.table(ScheduledAction.DB_TABLE).indexWait("time", "user").run(conn));
+        } catch(Exception e) {
+            log.error("Error creating scheduled action table", e);
+        }
+
+        try {
+            createTable(BlacklistEntry.DB_TABLE);
+        } catch(Exception e) {
+            log.error("Error creating blacklist table", e);
+        }
+    }
+
+    private void createTable(String table) {
+        List<String> tables = pool.query(conn -> r.tableList().run(conn));
+        if(!tables.contains(table)) {
+            log.info("Creating table {}", table);
+            pool.query(conn -> r.tableCreate(table).run(conn));
+        }
     }
 
     private static void log(String message, Object... fmtArgs) {
@@ -57,7 +122,7 @@ public class ManagedDatabase {
     @CheckReturnValue
     public CustomCommand getCustomCommand(@Nonnull String guildId, @Nonnull String name) {
         log("Requesting custom command {}:{} from rethink", guildId, name);
-        return r.table(CustomCommand.DB_TABLE).get(guildId + ":" + name).run(conn, CustomCommand.class);
+        return pool.query(conn -> r.table(CustomCommand.DB_TABLE).get(guildId + ":" + name).run(conn, CustomCommand.class));
     }
 
     @Nullable
@@ -82,7 +147,7 @@ public class ManagedDatabase {
     @CheckReturnValue
     public List<CustomCommand> getCustomCommands() {
         log("Requesting all custom commands from rethink");
-        Cursor<CustomCommand> c = r.table(CustomCommand.DB_TABLE).run(conn, CustomCommand.class);
+        Cursor<CustomCommand> c = pool.query(conn -> r.table(CustomCommand.DB_TABLE).run(conn, CustomCommand.class));
         return c.toList();
     }
 
@@ -90,8 +155,7 @@ public class ManagedDatabase {
     @CheckReturnValue
     public List<CustomCommand> getCustomCommands(@Nonnull String guildId) {
         log("Requesting all custom commands from guild {} from rethink", guildId);
-        String pattern = '^' + guildId + ':';
-        Cursor<CustomCommand> c = r.table(CustomCommand.DB_TABLE).filter(quote -> quote.g("id").match(pattern)).run(conn, CustomCommand.class);
+        Cursor<CustomCommand> c = pool.query(conn -> r.table(CustomCommand.DB_TABLE).getAll(guildId).optArg("index", "guild").run(conn, CustomCommand.class));
         return c.toList();
     }
 
@@ -111,8 +175,28 @@ public class ManagedDatabase {
     @CheckReturnValue
     public List<CustomCommand> getCustomCommandsByName(@Nonnull String name) {
         log("Requesting all custom commands named {} from rethink", name);
-        String pattern = ':' + name + '$';
-        Cursor<CustomCommand> c = r.table(CustomCommand.DB_TABLE).filter(quote -> quote.g("id").match(pattern)).run(conn, CustomCommand.class);
+        Cursor<CustomCommand> c = pool.query(conn -> r.table(CustomCommand.DB_TABLE).getAll(name).optArg("index", "name").run(conn, CustomCommand.class));
+        return c.toList();
+    }
+
+    /**
+     * Searches the custom commands of the specified guilds. Only the commands of those guilds are read.
+     *
+     * @param guildIds The guilds to search in.
+     * @param pattern  A regex the whole name of the command has to match.
+     * @return The matching custom commands.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public List<CustomCommand> searchCustomCommands(@Nonnull Collection<String> guildIds, @Nonnull String pattern) {
+        log("Searching custom commands matching {} on {} guilds from rethink", pattern, guildIds.size());
+        if(guildIds.isEmpty())
+            return Collections.emptyList();
+
+        String regex = '^' + pattern + '$';
+        Cursor<CustomCommand> c = pool.query(conn -> r.table(CustomCommand.DB_TABLE).getAll(guildIds.toArray()).optArg("index", "guild")
+                .filter(command -> command.g("id").split(":", 1).nth(1).match(regex))
+                .run(conn, CustomCommand.class));
         return c.toList();
     }
 
@@ -120,7 +204,7 @@ public class ManagedDatabase {
     @CheckReturnValue
     public DBGuild getGuild(@Nonnull String guildId) {
         log("Requesting guild {} from rethink", guildId);
-        DBGuild guild = r.table(DBGuild.DB_TABLE).get(guildId).run(conn, DBGuild.class);
+        DBGuild guild = pool.query(conn -> r.table(DBGuild.DB_TABLE).get(guildId).run(conn, DBGuild.class));
         return guild == null ? DBGuild.of(guildId) : guild;
     }
 
@@ -142,11 +226,24 @@ public class ManagedDatabase {
         return getGuild(event.getGuild());
     }
 
+    /**
+     * Gets many guilds with a single query per {@value #BATCH_SIZE} ids, instead of one per guild.
+     *
+     * @param guildIds The ids of the guilds to get.
+     * @return A map of guild id to guild, with an entry for every id. Guilds that aren't on the database get a new, unsaved object.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public Map<String, DBGuild> getGuilds(@Nonnull Collection<String> guildIds) {
+        log("Requesting {} guilds from rethink", guildIds.size());
+        return getAll(DBGuild.DB_TABLE, DBGuild.class, guildIds, Function.identity(), DBGuild::of);
+    }
+
     @Nonnull
     @CheckReturnValue
     public MantaroObj getMantaroData() {
         log("Requesting MantaroObj from rethink");
-        MantaroObj obj = r.table(MantaroObj.DB_TABLE).get("mantaro").run(conn, MantaroObj.class);
+        MantaroObj obj = pool.query(conn -> r.table(MantaroObj.DB_TABLE).get("mantaro").run(conn, MantaroObj.class));
         return obj == null ? MantaroObj.create() : obj;
     }
 
@@ -154,7 +251,7 @@ public class ManagedDatabase {
     @CheckReturnValue
     public Player getPlayer(@Nonnull String userId) {
         log("Requesting player {} from rethink", userId);
-        Player player = r.table(Player.DB_TABLE).get(userId + ":g").run(conn, Player.class);
+        Player player = pool.query(conn -> r.table(Player.DB_TABLE).get(userId + ":g").run(conn, Player.class));
         return player == null ? Player.of(userId) : player;
     }
 
@@ -175,15 +272,28 @@ public class ManagedDatabase {
     public List<Player> getPlayers() {
         log("Requesting all players from rethink");
         String pattern = ":g$";
-        Cursor<Player> c = r.table(Player.DB_TABLE).filter(quote -> quote.g("id").match(pattern)).run(conn, Player.class);
+        Cursor<Player> c = pool.query(conn -> r.table(Player.DB_TABLE).filter(quote -> quote.g("id").match(pattern)).run(conn, Player.class));
         return c.toList();
     }
 
+    /**
+     * Gets many players with a single query per {@value #BATCH_SIZE} ids, instead of one per player.
+     *
+     * @param userIds The ids of the users to get the players of.
+     * @return A map of user id to player, with an entry for every id. Players that aren't on the database get a new, unsaved object.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public Map<String, Player> getPlayers(@Nonnull Collection<String> userIds) {
+        log("Requesting {} players from rethink", userIds.size());
+        return getAll(Player.DB_TABLE, Player.class, userIds, id -> id + ":g", Player::of);
+    }
+
     @Nonnull
     @CheckReturnValue
     public List<PremiumKey> getPremiumKeys() {
         log("Requesting all premium keys from rethink");
-        Cursor<PremiumKey> c = r.table(PremiumKey.DB_TABLE).run(conn, PremiumKey.class);
+        Cursor<PremiumKey> c = pool.query(conn -> r.table(PremiumKey.DB_TABLE).run(conn, PremiumKey.class));
         return c.toList();
     }
 
@@ -193,14 +303,14 @@ public class ManagedDatabase {
     public PremiumKey getPremiumKey(@Nullable String id) {
         log("Requesting premium key {} from rethink", id);
         if(id == null) return null;
-        return r.table(PremiumKey.DB_TABLE).get(id).run(conn, PremiumKey.class);
+        return pool.query(conn -> r.table(PremiumKey.DB_TABLE).get(id).run(conn, PremiumKey.class));
     }
 
     @Nonnull
     @CheckReturnValue
     public DBUser getUser(@Nonnull String userId) {
         log("Requesting user {} from rethink", userId);
-        DBUser user = r.table(DBUser.DB_TABLE).get(userId).run(conn, DBUser.class);
+        DBUser user = pool.query(conn -> r.table(DBUser.DB_TABLE).get(userId).run(conn, DBUser.class));
         return user == null ? DBUser.of(userId) : user;
     }
 
@@ -216,19 +326,212 @@ public class ManagedDatabase {
         return getUser(member.getUser());
     }
 
+    /**
+     * Gets many users with a single query per {@value #BATCH_SIZE} ids, instead of one per user.
+     *
+     * @param userIds The ids of the users to get.
+     * @return A map of user id to user, with an entry for every id. Users that aren't on the database get a new, unsaved object.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public Map<String, DBUser> getUsers(@Nonnull Collection<String> userIds) {
+        log("Requesting {} users from rethink", userIds.size());
+        return getAll(DBUser.DB_TABLE, DBUser.class, userIds, Function.identity(), DBUser::of);
+    }
+
+    //Results are keyed by database id (the user id for players), ids missing from the table get created with the factory.
+    private <T extends ManagedObject> Map<String, T> getAll(String table, Class<T> type, Collection<String> ids,
+                                                            Function<String, String> primaryKey, Function<String, T> factory) {
+        Map<String, T> result = new HashMap<>(ids.size() * 2);
+        List<String> keys = new ArrayList<>(ids.size());
+        for(String id : new LinkedHashSet<>(ids)) {
+            keys.add(primaryKey.apply(id));
+        }
+
+        for(List<String> batch : Lists.partition(keys, BATCH_SIZE)) {
+            try(Cursor<T> c = pool.query(conn -> r.table(table).getAll(batch.toArray()).run(conn, type))) {
+                for(T object : c) {
+                    result.put(object.getDatabaseId(), object);
+                }
+            }
+        }
+
+        for(String id : ids) {
+            if(!result.containsKey(id))
+                result.put(id, factory.apply(id));
+        }
+
+        return result;
+    }
+
+    /**
+     * @param from  The earliest due time to get, inclusive.
+     * @param until The latest due time to get, exclusive.
+     * @return Every scheduled action due between those times.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public List<ScheduledAction> getScheduledActions(long from, long until) {
+        log("Requesting scheduled actions due between {} and {} from rethink", from, until);
+        Cursor<ScheduledAction> c = pool.query(conn -> r.table(ScheduledAction.DB_TABLE).between(from, until).optArg("index", "time")
+                .run(conn, ScheduledAction.class));
+        return c.toList();
+    }
+
+    @Nonnull
+    @CheckReturnValue
+    public List<ScheduledAction> getScheduledActions(@Nonnull String userId) {
+        log("Requesting scheduled actions of user {} from rethink", userId);
+        Cursor<ScheduledAction> c = pool.query(conn -> r.table(ScheduledAction.DB_TABLE).getAll(userId).optArg("index", "user")
+                .run(conn, ScheduledAction.class));
+        return c.toList();
+    }
+
+    public void saveScheduledAction(@Nonnull ScheduledAction action) {
+        log("Saving scheduled action {} to rethink", action.getId());
+        pool.run(conn -> r.table(ScheduledAction.DB_TABLE)
+                .insert(action)
+                .optArg("conflict", "replace")
+                .runNoReply(conn));
+    }
+
+    public void deleteScheduledAction(@Nonnull String id) {
+        log("Deleting scheduled action {} from rethink", id);
+        pool.run(conn -> r.table(ScheduledAction.DB_TABLE)
+                .get(id)
+                .delete()
+                .runNoReply(conn));
+    }
+
+    @Nonnull
+    @CheckReturnValue
+    public List<BlacklistEntry> getBlacklist() {
+        log("Requesting blacklist from rethink");
+        Cursor<BlacklistEntry> c = pool.query(conn -> r.table(BlacklistEntry.DB_TABLE).run(conn, BlacklistEntry.class));
+        return c.toList();
+    }
+
+    public void saveBlacklistEntry(@Nonnull BlacklistEntry entry) {
+        log("Saving blacklist entry {} to rethink", entry.getId());
+        pool.run(conn -> r.table(BlacklistEntry.DB_TABLE)
+                .insert(entry)
+                .optArg("conflict", "replace")
+                .runNoReply(conn));
+    }
+
+    public void deleteBlacklistEntry(@Nonnull String id) {
+        log("Deleting blacklist entry {} from rethink", id);
+        pool.run(conn -> r.table(BlacklistEntry.DB_TABLE)
+                .get(id)
+                .delete()
+                .runNoReply(conn));
+    }
+
+    /**
+     * Deletes a scheduled action, unless it got replaced by another one with the same id (like a new mute of the same user) since it was read.
+     */
+    public void deleteScheduledAction(@Nonnull ScheduledAction action) {
+        log("Deleting scheduled action {} from rethink", action.getId());
+        pool.run(conn -> r.table(ScheduledAction.DB_TABLE)
+                .getAll(action.getId())
+                .filter(row -> row.g("time").eq(action.getTime()).and(row.g("createdAt").eq(action.getCreatedAt())))
+                .delete()
+                .runNoReply(conn));
+    }
+
+    /**
+     * Gets a guild on a database thread, without blocking the caller. Goes through the same caches as {@link #getGuild(String)}.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public CompletableFuture<DBGuild> getGuildAsync(@Nonnull String guildId) {
+        return CompletableFuture.supplyAsync(() -> getGuild(guildId), pool.getExecutor());
+    }
+
+    /**
+     * Gets a player on a database thread, without blocking the caller. Goes through the same caches as {@link #getPlayer(String)}.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public CompletableFuture<Player> getPlayerAsync(@Nonnull String userId) {
+        return CompletableFuture.supplyAsync(() -> getPlayer(userId), pool.getExecutor());
+    }
+
+    /**
+     * Gets an user on a database thread, without blocking the caller. Goes through the same caches as {@link #getUser(String)}.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public CompletableFuture<DBUser> getUserAsync(@Nonnull String userId) {
+        return CompletableFuture.supplyAsync(() -> getUser(userId), pool.getExecutor());
+    }
+
     public void save(@Nonnull ManagedObject object) {
+        savePipeline.discard(object);
         log("Saving {} {}:{} to rethink", object.getClass().getSimpleName(), object.getTableName(), object.getDatabaseId());
-        r.table(object.getTableName())
+        pool.run(conn -> r.table(object.getTableName())
                 .insert(object)
                 .optArg("conflict", "replace")
-                .runNoReply(conn);
+                .runNoReply(conn));
+
+        updateCaches(object);
+    }
+
+    public void saveAsync(@Nonnull ManagedObject object) {
+        log("Queueing {} {}:{} to be saved to rethink", object.getClass().getSimpleName(), object.getTableName(), object.getDatabaseId());
+        savePipeline.queue(object);
+
+        updateCaches(object);
+    }
+
+    //Keeps the in-memory views built from saved objects up to date.
+    private static void updateCaches(ManagedObject object) {
+        if(object instanceof DBGuild) {
+            GuildCommandPolicy.update((DBGuild) object);
+            GuildFeatures.update((DBGuild) object);
+        } else if(object instanceof Player)
+            LeaderboardService.getInstance().update((Player) object);
+    }
+
+    /**
+     * Saves an object right away on a database thread. Unlike {@link #saveAsync(ManagedObject)}, the write isn't batched with others,
+     * and the returned future completes once it was sent.
+     */
+    @Nonnull
+    public CompletableFuture<Void> saveFuture(@Nonnull ManagedObject object) {
+        return CompletableFuture.runAsync(() -> save(object), pool.getExecutor());
+    }
+
+    public void deleteAsync(@Nonnull ManagedObject object) {
+        MantaroData.queue(() -> delete(object));
     }
 
     public void delete(@Nonnull ManagedObject object) {
+        savePipeline.discard(object);
         log("Deleting {} {}:{} from rethink", object.getClass().getSimpleName(), object.getTableName(), object.getDatabaseId());
-        r.table(object.getTableName())
+        pool.run(conn -> r.table(object.getTableName())
                 .get(object.getId())
                 .delete()
-                .runNoReply(conn);
+                .runNoReply(conn));
+
+        if(object instanceof DBGuild) {
+            GuildCommandPolicy.invalidate(object.getId());
+            GuildFeatures.invalidate(object.getId());
+        }
+    }
+
+    /**
+     * Writes every save still waiting on the save pipeline. Called on shutdown.
+     */
+    public void flush() {
+        savePipeline.flush();
+    }
+
+    public SavePipeline getSavePipeline() {
+        return savePipeline;
+    }
+
+    public ConnectionPool getPool() {
+        return pool;
     }
 }
@@ -45,10 +45,10 @@ public interface ManagedObject {
     }
 
     default void deleteAsync() {
-        MantaroData.queue(this::delete);
+        MantaroData.db().deleteAsync(this);
     }
 
     default void saveAsync() {
-        MantaroData.queue(this::save);
+        MantaroData.db().saveAsync(this);
     }
 }
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2016-2018 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import com.timgroup.statsd.StatsDClient;
+import lombok.extern.slf4j.Slf4j;
+import net.kodehawa.mantarobot.MantaroBot;
+import net.kodehawa.mantarobot.data.Config;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.rethinkdb.RethinkDB.r;
+
+/**
+ * Coalesces asynchronous saves and writes them to RethinkDB in batches.
+ * <p>
+ * Pending saves are keyed by table and id, so saving the same object several times before a flush only writes its latest state once.
+ * A flush happens every {@link Config.SavePipelineInfo#flushMs}, or as soon as {@link Config.SavePipelineInfo#batchSize} objects are waiting,
+ * and sends one multi-document insert per table and batch.
+ * <p>
+ * If the database can't keep up and {@link Config.SavePipelineInfo#maxPending} objects are waiting, whoever queues the next save flushes
+ * the queue on its own thread. That slows down the callers instead of letting the queue grow until we run out of heap.
+ */
+@Slf4j
+public class SavePipeline {
+    private static final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "SavePipeline-Flusher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final ConnectionPool pool;
+    private final int batchSize;
+    private final int maxPending;
+    //table:id -> latest state waiting to be written.
+    private final Map<String, ManagedObject> pending = new ConcurrentHashMap<>();
+    private final Object flushLock = new Object();
+
+    public SavePipeline(@Nonnull ConnectionPool pool, @Nonnull Config.SavePipelineInfo info) {
+        this.pool = pool;
+        this.batchSize = Math.max(1, info.batchSize);
+        this.maxPending = Math.max(this.batchSize, info.maxPending);
+        flusher.scheduleWithFixedDelay(this::flush, info.flushMs, info.flushMs, TimeUnit.MILLISECONDS);
+    }
+
+    private static String key(ManagedObject object) {
+        return object.getTableName() + ":" + object.getId();
+    }
+
+    private static StatsDClient stats() {
+        MantaroBot bot = MantaroBot.getInstance();
+        return bot == null ? null : bot.getStatsClient();
+    }
+
+    /**
+     * Queues an object to be saved on the next flush, replacing any older state of it that was still waiting.
+     *
+     * @param object The object to save.
+     */
+    public void queue(@Nonnull ManagedObject object) {
+        if(pending.put(key(object), object) != null)
+            return;
+
+        int size = pending.size();
+        if(size >= maxPending) {
+            //Backpressure: the database is behind, so the caller pays for the write.
+            flush();
+        } else if(size == batchSize) {
+            flusher.execute(this::flush);
+        }
+    }
+
+    /**
+     * Drops the pending save of this object, if any. Used when the object gets saved directly or deleted,
+     * so an older queued state doesn't overwrite it (or bring it back) later.
+     *
+     * @param object The object to drop.
+     */
+    public void discard(@Nonnull ManagedObject object) {
+        pending.remove(key(object));
+    }
+
+    /**
+     * @return How many saves are waiting to be written.
+     */
+    public int getQueueDepth() {
+        return pending.size();
+    }
+
+    /**
+     * Writes every pending save now.
+     */
+    public void flush() {
+        synchronized(flushLock) {
+            StatsDClient stats = stats();
+            if(stats != null)
+                stats.gauge("save_queue_depth", pending.size());
+
+            if(pending.isEmpty())
+                return;
+
+            Map<String, List<ManagedObject>> batches = new HashMap<>();
+            for(String key : pending.keySet()) {
+                ManagedObject object = pending.remove(key);
+                if(object == null)
+                    continue;
+
+                List<ManagedObject> batch = batches.computeIfAbsent(object.getTableName(), t -> new ArrayList<>());
+                batch.add(object);
+                if(batch.size() >= batchSize) {
+                    write(object.getTableName(), batch);
+                    batches.remove(object.getTableName());
+                }
+            }
+
+            batches.forEach(this::write);
+        }
+    }
+
+    private void write(String table, List<ManagedObject> batch) {
+        long start = System.currentTimeMillis();
+        try {
+            pool.query(conn -> r.table(table)
+                    .insert(batch)
+                    .optArg("conflict", "replace")
+                    .run(conn));
+        } catch(Exception e) {
+            log.error("Error writing batch of {} objects to table {}", batch.size(), table, e);
+            return;
+        }
+
+        StatsDClient stats = stats();
+        if(stats != null) {
+            stats.histogram("save_batch_size", batch.size());
+            stats.histogram("save_flush_time", System.currentTimeMillis() - start);
+        }
+    }
+}
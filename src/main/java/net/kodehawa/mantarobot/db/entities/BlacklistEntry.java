@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2016-2018 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ */
+
+
+package net.kodehawa.mantarobot.db.entities;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Getter;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * A blacklisted user or guild, one row per entry. Read through {@link net.kodehawa.mantarobot.services.BlacklistService}.
+ */
+@Getter
+public class BlacklistEntry {
+    public static final String DB_TABLE = "blacklist";
+    private final String id;
+    private final Type type;
+    private final String targetId;
+    private final long createdAt;
+
+    @JsonCreator
+    @ConstructorProperties({"id", "type", "targetId", "createdAt"})
+    public BlacklistEntry(@JsonProperty("id") String id, @JsonProperty("type") Type type,
+                          @JsonProperty("targetId") String targetId, @JsonProperty("createdAt") long createdAt) {
+        this.id = id;
+        this.type = type;
+        this.targetId = targetId;
+        this.createdAt = createdAt;
+    }
+
+    @JsonIgnore
+    public static BlacklistEntry of(Type type, String targetId) {
+        return new BlacklistEntry(id(type, targetId), type, targetId, System.currentTimeMillis());
+    }
+
+    @JsonIgnore
+    public static String id(Type type, String targetId) {
+        return type.name().toLowerCase() + ":" + targetId;
+    }
+
+    public enum Type {
+        USER, GUILD
+    }
+}
@@ -35,10 +35,15 @@ import java.util.concurrent.ConcurrentHashMap;
 public class MantaroObj implements ManagedObject {
     public static final String DB_TABLE = "mantaro";
     public final String id = "mantaro";
+    //These four only get read to move them to their own tables: see BlacklistService and ActionScheduler.
+    @Deprecated
     public List<String> blackListedGuilds = null;
+    @Deprecated
     public List<String> blackListedUsers = null;
     public List<String> patreonUsers = null;
+    @Deprecated
     private Map<Long, Pair<String, Long>> mutes = null;
+    @Deprecated
     private Map<String, Long> tempBans = null;
 
     @ConstructorProperties({"blackListedGuilds", "blackListedUsers", "patreonUsers", "tempbans", "mutes"})
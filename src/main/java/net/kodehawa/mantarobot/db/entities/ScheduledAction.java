@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2016-2018 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ */
+
+package net.kodehawa.mantarobot.db.entities;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Getter;
+
+import java.beans.ConstructorProperties;
+import java.util.UUID;
+
+/**
+ * Something that has to happen at a certain time, like a mute running out. Pending actions are kept on their own table and get run by
+ * {@link net.kodehawa.mantarobot.services.ActionScheduler}.
+ * <p>
+ * This isn't a {@link net.kodehawa.mantarobot.db.ManagedObject}, as it's never cached: the scheduler reads and writes it directly.
+ */
+@Getter
+public class ScheduledAction {
+    public static final String DB_TABLE = "actions";
+    private final String id;
+    private final Type type;
+    //Null for actions that aren't tied to a guild, like reminders.
+    private final String guildId;
+    private final String userId;
+    //When it should run.
+    private final long time;
+    //When it was scheduled.
+    private final long createdAt;
+    //Anything else the action needs, like the text of a reminder.
+    private final String data;
+
+    @JsonCreator
+    @ConstructorProperties({"id", "type", "guildId", "userId", "time", "createdAt", "data"})
+    public ScheduledAction(@JsonProperty("id") String id, @JsonProperty("type") Type type, @JsonProperty("guildId") String guildId,
+                           @JsonProperty("userId") String userId, @JsonProperty("time") long time,
+                           @JsonProperty("createdAt") long createdAt, @JsonProperty("data") String data) {
+        this.id = id;
+        this.type = type;
+        this.guildId = guildId;
+        this.userId = userId;
+        this.time = time;
+        this.createdAt = createdAt;
+        this.data = data;
+    }
+
+    /**
+     * Creates an action that only one of can exist per guild and user (like a mute), so scheduling it again replaces the old one.
+     */
+    @JsonIgnore
+    public static ScheduledAction of(Type type, String guildId, String userId, long time) {
+        return new ScheduledAction(id(type, guildId, userId), type, guildId, userId, time, System.currentTimeMillis(), null);
+    }
+
+    /**
+     * Creates an action that can be scheduled any amount of times (like a reminder).
+     */
+    @JsonIgnore
+    public static ScheduledAction of(Type type, String userId, long time, String data) {
+        return new ScheduledAction(UUID.randomUUID().toString(), type, null, userId, time, System.currentTimeMillis(), data);
+    }
+
+    /**
+     * @return The id {@link #of(Type, String, String, long)} would give to an action.
+     */
+    @JsonIgnore
+    public static String id(Type type, String guildId, String userId) {
+        return type.name().toLowerCase() + ":" + guildId + ":" + userId;
+    }
+
+    public enum Type {
+        UNMUTE, UNBAN, REMINDER
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2016-2018 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ */
+
+package net.kodehawa.mantarobot.db.local;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.extern.slf4j.Slf4j;
+import net.kodehawa.mantarobot.ExtraRuntimeOptions;
+import net.kodehawa.mantarobot.data.Config;
+import net.kodehawa.mantarobot.db.ConnectionPool;
+import net.kodehawa.mantarobot.db.ManagedDatabase;
+import net.kodehawa.mantarobot.db.ManagedObject;
+import net.kodehawa.mantarobot.db.entities.DBGuild;
+import net.kodehawa.mantarobot.db.entities.DBUser;
+import net.kodehawa.mantarobot.db.entities.Player;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * In-process cache used in front of RethinkDB when Redis is disabled.
+ * <p>
+ * Guilds, players and users are kept in bounded caches keyed by their database id, so the several getGuild/getPlayer calls done while processing
+ * a single message only hit the database once. The caches are updated on save and invalidated on delete.
+ * <p>
+ * Asynchronous saves are written behind: the object is cached right away, and the {@link net.kodehawa.mantarobot.db.SavePipeline}
+ * writes only the latest state of it on the next flush, no matter how many times it was saved in between.
+ * <p>
+ * Unlike reading from the database, every caller gets the same instance until it expires: changes made without saving are seen by
+ * (and saved along with) whatever uses the entity next, and concurrent commands change the same object. That's why this is opt-in
+ * (see {@link net.kodehawa.mantarobot.data.Config.LocalCacheInfo#enabled}).
+ */
+@Slf4j
+public class LocalCachedDatabase extends ManagedDatabase {
+    private final Cache<String, DBGuild> guildCache;
+    private final Cache<String, Player> playerCache;
+    private final Cache<String, DBUser> userCache;
+
+    public LocalCachedDatabase(@Nonnull ConnectionPool pool, @Nonnull Config.LocalCacheInfo info) {
+        super(pool);
+        this.guildCache = cache(info, info.guilds);
+        this.playerCache = cache(info, info.players);
+        this.userCache = cache(info, info.users);
+    }
+
+    private static <V> Cache<String, V> cache(Config.LocalCacheInfo info, int maxSize) {
+        return CacheBuilder.newBuilder()
+                .concurrencyLevel(10)
+                .maximumSize(maxSize)
+                .expireAfterWrite(info.ttlMs, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    private static void log(String message, Object... fmtArgs) {
+        if(ExtraRuntimeOptions.LOG_CACHE_ACCESS) {
+            log.info(message, fmtArgs);
+        }
+    }
+
+    @Override
+    @Nonnull
+    @CheckReturnValue
+    public DBGuild getGuild(@Nonnull String guildId) {
+        log("Getting guild {} from local cache", guildId);
+        DBGuild guild = guildCache.getIfPresent(guildId);
+        if(guild == null) {
+            guild = super.getGuild(guildId);
+            guildCache.put(guildId, guild);
+        }
+
+        return guild;
+    }
+
+    @Override
+    @Nonnull
+    @CheckReturnValue
+    public Player getPlayer(@Nonnull String userId) {
+        log("Getting player {} from local cache", userId);
+        Player player = playerCache.getIfPresent(userId);
+        if(player == null) {
+            player = super.getPlayer(userId);
+            playerCache.put(userId, player);
+        }
+
+        return player;
+    }
+
+    @Override
+    @Nonnull
+    @CheckReturnValue
+    public DBUser getUser(@Nonnull String userId) {
+        log("Getting user {} from local cache", userId);
+        DBUser user = userCache.getIfPresent(userId);
+        if(user == null) {
+            user = super.getUser(userId);
+            userCache.put(userId, user);
+        }
+
+        return user;
+    }
+
+    @Override
+    @Nonnull
+    @CheckReturnValue
+    public Map<String, DBGuild> getGuilds(@Nonnull Collection<String> guildIds) {
+        log("Getting {} guilds from local cache", guildIds.size());
+        return getAllCached(guildCache, guildIds, super::getGuilds);
+    }
+
+    @Override
+    @Nonnull
+    @CheckReturnValue
+    public Map<String, Player> getPlayers(@Nonnull Collection<String> userIds) {
+        log("Getting {} players from local cache", userIds.size());
+        return getAllCached(playerCache, userIds, super::getPlayers);
+    }
+
+    @Override
+    @Nonnull
+    @CheckReturnValue
+    public Map<String, DBUser> getUsers(@Nonnull Collection<String> userIds) {
+        log("Getting {} users from local cache", userIds.size());
+        return getAllCached(userCache, userIds, super::getUsers);
+    }
+
+    private static <T> Map<String, T> getAllCached(Cache<String, T> cache, Collection<String> ids, Function<Collection<String>, Map<String, T>> loader) {
+        Map<String, T> result = new HashMap<>(cache.getAllPresent(ids));
+        List<String> missing = new ArrayList<>();
+        for(String id : ids) {
+            if(!result.containsKey(id))
+                missing.add(id);
+        }
+
+        if(!missing.isEmpty()) {
+            Map<String, T> loaded = loader.apply(missing);
+            cache.putAll(loaded);
+            result.putAll(loaded);
+        }
+
+        return result;
+    }
+
+    @Override
+    public void save(@Nonnull ManagedObject object) {
+        cache(object);
+        super.save(object);
+    }
+
+    @Override
+    public void saveAsync(@Nonnull ManagedObject object) {
+        cache(object);
+        super.saveAsync(object);
+    }
+
+    @Override
+    public void delete(@Nonnull ManagedObject object) {
+        invalidate(object);
+        super.delete(object);
+    }
+
+    private void cache(ManagedObject object) {
+        if(object instanceof DBGuild) {
+            guildCache.put(object.getDatabaseId(), (DBGuild) object);
+        } else if(object instanceof Player) {
+            playerCache.put(object.getDatabaseId(), (Player) object);
+        } else if(object instanceof DBUser) {
+            userCache.put(object.getDatabaseId(), (DBUser) object);
+        }
+    }
+
+    private void invalidate(ManagedObject object) {
+        if(object instanceof DBGuild) {
+            guildCache.invalidate(object.getDatabaseId());
+        } else if(object instanceof Player) {
+            playerCache.invalidate(object.getDatabaseId());
+        } else if(object instanceof DBUser) {
+            userCache.invalidate(object.getDatabaseId());
+        }
+    }
+}
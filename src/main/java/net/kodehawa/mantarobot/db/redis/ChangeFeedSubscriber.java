@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2016-2018 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ */
+
+package net.kodehawa.mantarobot.db.redis;
+
+import com.rethinkdb.net.Cursor;
+import lombok.extern.slf4j.Slf4j;
+import net.kodehawa.mantarobot.core.GuildCommandPolicy;
+import net.kodehawa.mantarobot.core.GuildFeatures;
+import net.kodehawa.mantarobot.db.ConnectionPool;
+import net.kodehawa.mantarobot.db.ManagedObject;
+import net.kodehawa.mantarobot.db.entities.DBGuild;
+import net.kodehawa.mantarobot.utils.Mapifier;
+import org.redisson.api.RMap;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static com.rethinkdb.RethinkDB.r;
+
+/**
+ * Follows the changefeeds of the cached tables and pushes every update and delete into the redis maps, so changes made by other
+ * processes (or by hand on the database) show up on the cache right away instead of when the entry expires.
+ * <p>
+ * Updates only replace entries that are already cached, so nothing gets cached just because it changed. The maps are shared by every
+ * process (and local caches get invalidated by redisson), so only one process needs to run this.
+ * Changes made while a feed is reconnecting are missed, those entries are only fixed when they expire, like before.
+ */
+@Slf4j
+public class ChangeFeedSubscriber {
+    private static final long RETRY_DELAY = TimeUnit.SECONDS.toMillis(5);
+
+    private final ConnectionPool pool;
+
+    public ChangeFeedSubscriber(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Starts following a table on its own thread.
+     *
+     * @param table  The table to follow.
+     * @param type   The entity stored on it.
+     * @param cache  The map it's cached on.
+     * @param prefix The prefix of the keys of the map.
+     * @param key    Gets the part of the key that goes after the prefix from the id of a row.
+     */
+    public <T extends ManagedObject> void follow(String table, Class<T> type, RMap<String, T> cache, String prefix, Function<String, String> key) {
+        Thread thread = new Thread(() -> run(table, type, cache, prefix, key), "ChangeFeed-" + table);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends ManagedObject> void run(String table, Class<T> type, RMap<String, T> cache, String prefix, Function<String, String> key) {
+        while(!Thread.currentThread().isInterrupted()) {
+            try(Cursor<Map<String, Object>> cursor = r.table(table).changes().run(pool.get())) {
+                log.info("Following changes of table {}", table);
+                for(Map<String, Object> change : cursor) {
+                    Map<String, Object> newValue = (Map<String, Object>) change.get("new_val");
+                    Map<String, Object> oldValue = (Map<String, Object>) change.get("old_val");
+                    try {
+                        if(newValue != null) {
+                            T entity = Mapifier.fromMap(type, newValue);
+                            cache.replaceAsync(prefix + key.apply(String.valueOf(newValue.get("id"))), entity);
+                            //Saved by another process, so it never went through ManagedDatabase#save here.
+                            if(entity instanceof DBGuild) {
+                                GuildCommandPolicy.update((DBGuild) entity);
+                                GuildFeatures.update((DBGuild) entity);
+                            }
+                        } else if(oldValue != null) {
+                            cache.fastRemoveAsync(prefix + key.apply(String.valueOf(oldValue.get("id"))));
+                            if(type == DBGuild.class) {
+                                GuildCommandPolicy.invalidate(String.valueOf(oldValue.get("id")));
+                                GuildFeatures.invalidate(String.valueOf(oldValue.get("id")));
+                            }
+                        }
+                    } catch(Exception e) {
+                        log.warn("Couldn't apply change on table {}: {}", table, change, e);
+                    }
+                }
+            } catch(Exception e) {
+                log.warn("Changefeed of table {} closed, retrying in {}ms", table, RETRY_DELAY, e);
+            }
+
+            try {
+                Thread.sleep(RETRY_DELAY);
+            } catch(InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2016-2018 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ */
+
+package net.kodehawa.mantarobot.db.redis;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import net.kodehawa.mantarobot.db.ManagedObject;
+import org.redisson.client.handler.State;
+import org.redisson.client.protocol.Decoder;
+import org.redisson.client.protocol.Encoder;
+import org.redisson.codec.JsonJacksonCodec;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Stores {@link ManagedObject}s as compact binary instead of JSON with class names on it.
+ * <p>
+ * The entity gets turned into a Jackson tree and written with a type tag instead of its class name, varint numbers and lengths, and field
+ * names replaced by their index on the schema of its type (every property name reachable from it, sorted). Names that aren't on the schema,
+ * like map keys, are written inline. Every value starts with a header holding the format version and a fingerprint of the schema, and values
+ * written with a different version or schema (by an older build, for example) decode as null, so they're just a cache miss.
+ * <p>
+ * Anything else (and values written by the JSON codec before switching to this one) goes through {@link JsonJacksonCodec}, and so do keys.
+ */
+public class EntityCodec extends JsonJacksonCodec {
+    //Can't be the first byte of JSON text.
+    private static final byte MAGIC = (byte) 0xB1;
+    private static final byte FORMAT_VERSION = 1;
+
+    private static final byte NULL = 0, TRUE = 1, FALSE = 2, INT = 3, DOUBLE = 4, STRING = 5, ARRAY = 6, OBJECT = 7;
+
+    private final ObjectMapper mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private final List<Schema> schemas = new ArrayList<>();
+    private final Map<Class<?>, Schema> byClass = new HashMap<>();
+
+    private final Encoder encoder = this::encode;
+    private final Decoder<Object> decoder = this::decode;
+
+    /**
+     * @param types The entities this codec can write as binary. Their order is part of the format, only add new types at the end.
+     */
+    @SafeVarargs
+    public EntityCodec(ObjectMapper jsonMapper, Class<? extends ManagedObject>... types) {
+        super(jsonMapper);
+        for(Class<? extends ManagedObject> type : types) {
+            Schema schema = new Schema(schemas.size(), type, mapper);
+            schemas.add(schema);
+            byClass.put(type, schema);
+        }
+    }
+
+    @Override
+    public Encoder getValueEncoder() {
+        return encoder;
+    }
+
+    @Override
+    public Decoder<Object> getValueDecoder() {
+        return decoder;
+    }
+
+    @Override
+    public Encoder getMapValueEncoder() {
+        return encoder;
+    }
+
+    @Override
+    public Decoder<Object> getMapValueDecoder() {
+        return decoder;
+    }
+
+    private byte[] encode(Object value) throws IOException {
+        Schema schema = value == null ? null : byClass.get(value.getClass());
+        if(schema == null)
+            return super.getValueEncoder().encode(value);
+
+        ByteBuf buf = Unpooled.buffer(256);
+        buf.writeByte(MAGIC);
+        buf.writeByte(FORMAT_VERSION);
+        buf.writeByte(schema.tag);
+        buf.writeInt(schema.fingerprint);
+        write(buf, mapper.valueToTree(value), schema);
+
+        byte[] bytes = new byte[buf.readableBytes()];
+        buf.readBytes(bytes);
+        return bytes;
+    }
+
+    private Object decode(ByteBuf buf, State state) throws IOException {
+        if(!buf.isReadable() || buf.getByte(buf.readerIndex()) != MAGIC)
+            return super.getValueDecoder().decode(buf, state);
+
+        buf.skipBytes(1);
+        byte version = buf.readByte();
+        int tag = buf.readUnsignedByte();
+        int fingerprint = buf.readInt();
+        if(version != FORMAT_VERSION || tag >= schemas.size() || schemas.get(tag).fingerprint != fingerprint) {
+            buf.skipBytes(buf.readableBytes());
+            return null;
+        }
+
+        Schema schema = schemas.get(tag);
+        return mapper.treeToValue(read(buf, schema), schema.type);
+    }
+
+    private static void write(ByteBuf buf, JsonNode node, Schema schema) {
+        if(node == null || node.isNull() || node.isMissingNode()) {
+            buf.writeByte(NULL);
+        } else if(node.isBoolean()) {
+            buf.writeByte(node.booleanValue() ? TRUE : FALSE);
+        } else if(node.isIntegralNumber() && node.canConvertToLong()) {
+            buf.writeByte(INT);
+            long value = node.longValue();
+            writeVarLong(buf, (value << 1) ^ (value >> 63));
+        } else if(node.isNumber()) {
+            buf.writeByte(DOUBLE);
+            buf.writeDouble(node.doubleValue());
+        } else if(node.isArray()) {
+            buf.writeByte(ARRAY);
+            writeVarLong(buf, node.size());
+            for(JsonNode element : node) {
+                write(buf, element, schema);
+            }
+        } else if(node.isObject()) {
+            buf.writeByte(OBJECT);
+            writeVarLong(buf, node.size());
+            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while(fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                //0 means the name follows, anything else is its index on the schema plus one.
+                int index = schema.indexOf(field.getKey());
+                writeVarLong(buf, index + 1);
+                if(index == -1)
+                    writeString(buf, field.getKey());
+                write(buf, field.getValue(), schema);
+            }
+        } else {
+            buf.writeByte(STRING);
+            writeString(buf, node.asText());
+        }
+    }
+
+    private static JsonNode read(ByteBuf buf, Schema schema) throws IOException {
+        JsonNodeFactory factory = JsonNodeFactory.instance;
+        byte type = buf.readByte();
+        switch(type) {
+            case NULL:
+                return factory.nullNode();
+            case TRUE:
+                return factory.booleanNode(true);
+            case FALSE:
+                return factory.booleanNode(false);
+            case INT: {
+                long raw = readVarLong(buf);
+                return factory.numberNode((raw >>> 1) ^ -(raw & 1));
+            }
+            case DOUBLE:
+                return factory.numberNode(buf.readDouble());
+            case STRING:
+                return factory.textNode(readString(buf));
+            case ARRAY: {
+                int size = (int) readVarLong(buf);
+                ArrayNode array = factory.arrayNode(size);
+                for(int i = 0; i < size; i++) {
+                    array.add(read(buf, schema));
+                }
+                return array;
+            }
+            case OBJECT: {
+                int size = (int) readVarLong(buf);
+                ObjectNode object = factory.objectNode();
+                for(int i = 0; i < size; i++) {
+                    int index = (int) readVarLong(buf);
+                    String name = index == 0 ? readString(buf) : schema.names[index - 1];
+                    object.set(name, read(buf, schema));
+                }
+                return object;
+            }
+            default:
+                throw new IOException("Unknown value type " + type);
+        }
+    }
+
+    private static void writeVarLong(ByteBuf buf, long value) {
+        while((value & ~0x7FL) != 0) {
+            buf.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.writeByte((int) value);
+    }
+
+    private static long readVarLong(ByteBuf buf) throws IOException {
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7) {
+            byte b = buf.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static void writeString(ByteBuf buf, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(buf, bytes.length);
+        buf.writeBytes(bytes);
+    }
+
+    private static String readString(ByteBuf buf) throws IOException {
+        int length = (int) readVarLong(buf);
+        String value = buf.toString(buf.readerIndex(), length, StandardCharsets.UTF_8);
+        buf.skipBytes(length);
+        return value;
+    }
+
+    private static class Schema {
+        private final int tag;
+        private final Class<?> type;
+        private final String[] names;
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final int fingerprint;
+
+        Schema(int tag, Class<?> type, ObjectMapper mapper) {
+            this.tag = tag;
+            this.type = type;
+
+            Set<String> names = new TreeSet<>();
+            collect(mapper, mapper.constructType(type), names, new HashSet<>());
+            this.names = names.toArray(new String[0]);
+
+            CRC32 crc = new CRC32();
+            crc.update(type.getName().getBytes(StandardCharsets.UTF_8));
+            for(int i = 0; i < this.names.length; i++) {
+                indexes.put(this.names[i], i);
+                crc.update(0);
+                crc.update(this.names[i].getBytes(StandardCharsets.UTF_8));
+            }
+            this.fingerprint = (int) crc.getValue();
+        }
+
+        int indexOf(String name) {
+            Integer index = indexes.get(name);
+            return index == null ? -1 : index;
+        }
+
+        //Every property name of the type and of the beans it has (on fields, lists and map values).
+        private static void collect(ObjectMapper mapper, JavaType type, Set<String> names, Set<Class<?>> seen) {
+            if(type.isContainerType()) {
+                if(type.getContentType() != null)
+                    collect(mapper, type.getContentType(), names, seen);
+                return;
+            }
+
+            Class<?> raw = type.getRawClass();
+            if(raw.isPrimitive() || raw.isEnum() || raw.getName().startsWith("java.") || !seen.add(raw))
+                return;
+
+            for(BeanPropertyDefinition property : mapper.getSerializationConfig().introspect(type).findProperties()) {
+                if(!property.couldSerialize())
+                    continue;
+
+                names.add(property.getName());
+                collect(mapper, property.getPrimaryType(), names, seen);
+            }
+        }
+    }
+}
@@ -16,9 +16,9 @@
 
 package net.kodehawa.mantarobot.db.redis;
 
-import com.rethinkdb.net.Connection;
 import lombok.extern.slf4j.Slf4j;
 import net.kodehawa.mantarobot.ExtraRuntimeOptions;
+import net.kodehawa.mantarobot.db.ConnectionPool;
 import net.kodehawa.mantarobot.db.ManagedDatabase;
 import net.kodehawa.mantarobot.db.ManagedObject;
 import net.kodehawa.mantarobot.db.entities.*;
@@ -29,9 +29,9 @@ import org.redisson.api.RMap;
 import javax.annotation.CheckReturnValue;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 @Slf4j
 public class RedisCachedDatabase extends ManagedDatabase {
@@ -51,14 +51,14 @@ public class RedisCachedDatabase extends ManagedDatabase {
     private final RMap<String, Player> playerMap;
     private final RMap<String, DBUser> userMap;
 
-    public RedisCachedDatabase(@Nonnull Connection conn,
+    public RedisCachedDatabase(@Nonnull ConnectionPool pool,
                                @Nonnull RMap<String, CustomCommand> ccMap,
                                @Nonnull RMap<String, DBGuild> guildMap,
                                @Nonnull RMap<String, Player> playerMap,
                                @Nonnull RMap<String, DBUser> userMap,
                                @Nonnull RMap<String, PremiumKey> keyMap,
                                @Nonnull RBucket<MantaroObj> mantaroBucket) {
-        super(conn);
+        super(pool);
         this.ccMap = ccMap;
         this.guildMap = guildMap;
         this.playerMap = playerMap;
@@ -74,6 +74,18 @@ public class RedisCachedDatabase extends ManagedDatabase {
         ));
     }
 
+    /**
+     * Starts pushing the changes made to the cached tables into the cache, see {@link ChangeFeedSubscriber}.
+     */
+    public void followChanges() {
+        ChangeFeedSubscriber subscriber = new ChangeFeedSubscriber(getPool());
+        subscriber.follow(CustomCommand.DB_TABLE, CustomCommand.class, ccMap, "cc:", id -> id);
+        subscriber.follow(DBGuild.DB_TABLE, DBGuild.class, guildMap, "guild:", id -> id);
+        //Player ids are userId:g, but they're cached by user id.
+        subscriber.follow(Player.DB_TABLE, Player.class, playerMap, "player:", id -> id.split(":")[0]);
+        subscriber.follow(DBUser.DB_TABLE, DBUser.class, userMap, "user:", id -> id);
+    }
+
     private static void log(String message, Object... fmtArgs) {
         if(ExtraRuntimeOptions.LOG_CACHE_ACCESS) {
             //using debug logs spams too much
@@ -92,7 +104,7 @@ public class RedisCachedDatabase extends ManagedDatabase {
     @CheckReturnValue
     public CustomCommand getCustomCommand(@Nonnull String guildId, @Nonnull String name) {
         log("Getting custom command {}:{} from cache", guildId, name);
-        return ccMap.computeIfAbsent("cc:" + guildId + ":" + name, ignored -> super.getCustomCommand(guildId, name));
+        return getCached(ccMap, "cc:" + guildId + ":" + name, () -> super.getCustomCommand(guildId, name));
     }
 
     @Override
@@ -130,7 +142,15 @@ public class RedisCachedDatabase extends ManagedDatabase {
     @CheckReturnValue
     public DBGuild getGuild(@Nonnull String guildId) {
         log("Getting guild {} from cache", guildId);
-        return guildMap.computeIfAbsent("guild:" + guildId, ignored -> super.getGuild(guildId));
+        return getCached(guildMap, "guild:" + guildId, () -> super.getGuild(guildId));
+    }
+
+    @Override
+    @Nonnull
+    @CheckReturnValue
+    public Map<String, DBGuild> getGuilds(@Nonnull Collection<String> guildIds) {
+        log("Getting {} guilds from cache", guildIds.size());
+        return getAllCached(guildMap, "guild:", guildIds, super::getGuilds);
     }
 
     @Override
@@ -162,7 +182,7 @@ public class RedisCachedDatabase extends ManagedDatabase {
     @CheckReturnValue
     public Player getPlayer(@Nonnull String userId) {
         log("Getting player {} from cache", userId);
-        return playerMap.computeIfAbsent("player:" + userId, ignored -> super.getPlayer(userId));
+        return getCached(playerMap, "player:" + userId, () -> super.getPlayer(userId));
     }
 
     @Override
@@ -175,6 +195,14 @@ public class RedisCachedDatabase extends ManagedDatabase {
         return list;
     }
 
+    @Override
+    @Nonnull
+    @CheckReturnValue
+    public Map<String, Player> getPlayers(@Nonnull Collection<String> userIds) {
+        log("Getting {} players from cache", userIds.size());
+        return getAllCached(playerMap, "player:", userIds, super::getPlayers);
+    }
+
     @Override
     @Nullable
     @CheckReturnValue
@@ -183,7 +211,7 @@ public class RedisCachedDatabase extends ManagedDatabase {
         if(id == null)
             return null;
 
-        return keyMap.computeIfAbsent("key:" + id, ignored -> super.getPremiumKey(id));
+        return getCached(keyMap, "key:" + id, () -> super.getPremiumKey(id));
     }
 
     @Override
@@ -201,11 +229,82 @@ public class RedisCachedDatabase extends ManagedDatabase {
     @CheckReturnValue
     public DBUser getUser(@Nonnull String userId) {
         log("Getting user {} from cache", userId);
-        return userMap.computeIfAbsent("user:" + userId, ignored -> super.getUser(userId));
+        return getCached(userMap, "user:" + userId, () -> super.getUser(userId));
+    }
+
+    @Override
+    @Nonnull
+    @CheckReturnValue
+    public Map<String, DBUser> getUsers(@Nonnull Collection<String> userIds) {
+        log("Getting {} users from cache", userIds.size());
+        return getAllCached(userMap, "user:", userIds, super::getUsers);
+    }
+
+    //A save could cache a newer value while we're loading, so a miss only fills the key in if it's still missing. Unless what's there is a value
+    //that can't be decoded anymore (see EntityCodec): it counts as a miss but still exists, so it gets replaced.
+    private static <T> T getCached(RMap<String, T> cache, String key, Supplier<T> loader) {
+        T value = cache.get(key);
+        if(value != null)
+            return value;
+
+        boolean undecodable = cache.containsKey(key);
+        value = loader.get();
+        if(value == null)
+            return null;
+
+        if(undecodable) {
+            cache.fastPutAsync(key, value);
+        } else if(!cache.fastPutIfAbsent(key, value)) {
+            //Someone else cached it first, theirs is at least as new as ours.
+            T current = cache.get(key);
+            if(current != null)
+                return current;
+        }
+        return value;
+    }
+
+    //One round-trip to redis for everything, then one database lookup for whatever wasn't cached, which gets cached asynchronously.
+    private <T> Map<String, T> getAllCached(RMap<String, T> cache, String prefix, Collection<String> ids, Function<Collection<String>, Map<String, T>> loader) {
+        Set<String> keys = new HashSet<>(ids.size() * 2);
+        for(String id : ids) {
+            keys.add(prefix + id);
+        }
+
+        Map<String, T> cached = cache.getAll(keys);
+        Map<String, T> result = new HashMap<>(ids.size() * 2);
+        List<String> missing = new ArrayList<>();
+        for(String id : ids) {
+            T value = cached.get(prefix + id);
+            if(value == null)
+                missing.add(id);
+            else
+                result.put(id, value);
+        }
+
+        if(!missing.isEmpty()) {
+            Map<String, T> loaded = loader.apply(missing);
+            //Same as getCached, don't overwrite anything saved while we were loading.
+            loaded.forEach((id, value) -> cache.fastPutIfAbsentAsync(prefix + id, value));
+            result.putAll(loaded);
+        }
+
+        return result;
     }
 
     @Override
     public void save(@Nonnull ManagedObject object) {
+        cache(object);
+        super.save(object);
+    }
+
+    @Override
+    public void saveAsync(@Nonnull ManagedObject object) {
+        //The cache gets the new state right away, rethink gets it on the next save pipeline flush.
+        cache(object);
+        super.saveAsync(object);
+    }
+
+    private void cache(@Nonnull ManagedObject object) {
         if(object instanceof MantaroObj) {
             mantaroBucket.setAsync((MantaroObj) object);
         } else {
@@ -217,7 +316,6 @@ public class RedisCachedDatabase extends ManagedDatabase {
             log("Caching {} {}:{}", c.getSimpleName(), prefix, object.getDatabaseId());
             m.fastPutAsync(prefix + ":" + object.getDatabaseId(), object);
         }
-        super.save(object);
     }
 
     @Override
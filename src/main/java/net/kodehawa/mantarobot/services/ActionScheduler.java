@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2016-2018 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ */
+
+package net.kodehawa.mantarobot.services;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import net.kodehawa.mantarobot.data.MantaroData;
+import net.kodehawa.mantarobot.db.ManagedDatabase;
+import net.kodehawa.mantarobot.db.entities.MantaroObj;
+import net.kodehawa.mantarobot.db.entities.ScheduledAction;
+import net.kodehawa.mantarobot.utils.Pair;
+import net.kodehawa.mantarobot.utils.TimerWheel;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Runs {@link ScheduledAction}s (unmutes, unbans and reminders) when they're due.
+ * <p>
+ * Every action is saved on its own table as soon as it's scheduled, but only the ones due in the next {@link #HORIZON} are kept in memory,
+ * on timing wheels sharded by guild (or by user, for actions without a guild), so a guild with lots of them doesn't hold everyone else back.
+ * The window gets moved forward every so often, loading whatever became near-due by using the time index of the table, which also means
+ * a restart only has to load what's due soon (and anything that got due while the bot was offline).
+ */
+@Slf4j
+public class ActionScheduler {
+    private static final int SHARDS = 16;
+    private static final long TICK = 1000;
+    private static final long HORIZON = TimeUnit.HOURS.toMillis(1);
+    //How long to wait before trying an action whose handler wasn't ready for it (like when the shard of the guild is still starting).
+    private static final long RETRY_DELAY = TimeUnit.MINUTES.toMillis(1);
+
+    @Getter
+    private static final ActionScheduler instance = new ActionScheduler();
+
+    private final TimerWheel<ScheduledAction>[] wheels;
+    //action id -> its timeout, for every action kept in memory.
+    private final Map<String, TimerWheel.Timeout<ScheduledAction>> pending = new ConcurrentHashMap<>();
+    private final Map<ScheduledAction.Type, Handler> handlers = new EnumMap<>(ScheduledAction.Type.class);
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ActionScheduler");
+        t.setDaemon(true);
+        return t;
+    });
+    //Everything due before this was loaded from the database already.
+    private long loadedUntil;
+
+    @SuppressWarnings("unchecked")
+    private ActionScheduler() {
+        long now = System.currentTimeMillis();
+        wheels = new TimerWheel[SHARDS];
+        for(int i = 0; i < SHARDS; i++) {
+            wheels[i] = new TimerWheel<>(TICK, now);
+        }
+    }
+
+    /**
+     * Sets what to do when an action of the specified type is due. Must be called before {@link #start()}.
+     */
+    public void register(ScheduledAction.Type type, Handler handler) {
+        handlers.put(type, handler);
+    }
+
+    /**
+     * Moves the mutes and temporary bans still on {@link MantaroObj} to their own table, loads everything that's due soon and starts ticking.
+     */
+    public void start() {
+        migrate();
+        load();
+        executor.scheduleAtFixedRate(this::tick, TICK, TICK, TimeUnit.MILLISECONDS);
+        executor.scheduleWithFixedDelay(this::load, HORIZON / 2, HORIZON / 2, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Saves an action and schedules it, replacing any other action with the same id.
+     */
+    public void schedule(ScheduledAction action) {
+        MantaroData.db().saveScheduledAction(action);
+        unschedule(action.getId());
+
+        //Anything due before the next load could be missed by it (it might not be visible on the table yet), so it goes to memory right away.
+        if(action.getTime() < System.currentTimeMillis() + 2 * HORIZON)
+            add(action, action.getTime());
+    }
+
+    /**
+     * Cancels an action and removes it from the database.
+     *
+     * @param id The id of the action.
+     */
+    public void cancel(String id) {
+        unschedule(id);
+        MantaroData.db().deleteScheduledAction(id);
+    }
+
+    /**
+     * @return Every pending action of the specified user and type, soonest first.
+     */
+    public List<ScheduledAction> getActions(String userId, ScheduledAction.Type type) {
+        return MantaroData.db().getScheduledActions(userId).stream()
+                .filter(action -> action.getType() == type)
+                .sorted(Comparator.comparingLong(ScheduledAction::getTime))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @return How many actions are kept in memory.
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    private void add(ScheduledAction action, long deadline) {
+        TimerWheel<ScheduledAction> wheel = wheel(action);
+        pending.computeIfAbsent(action.getId(), id -> {
+            synchronized(wheel) {
+                return wheel.add(action, deadline);
+            }
+        });
+    }
+
+    private void unschedule(String id) {
+        TimerWheel.Timeout<ScheduledAction> timeout = pending.remove(id);
+        if(timeout != null) {
+            TimerWheel<ScheduledAction> wheel = wheel(timeout.getValue());
+            synchronized(wheel) {
+                wheel.cancel(timeout);
+            }
+        }
+    }
+
+    private TimerWheel<ScheduledAction> wheel(ScheduledAction action) {
+        String key = action.getGuildId() == null ? action.getUserId() : action.getGuildId();
+        return wheels[key.hashCode() & (SHARDS - 1)];
+    }
+
+    private void tick() {
+        long now = System.currentTimeMillis();
+        List<TimerWheel.Timeout<ScheduledAction>> due = new ArrayList<>();
+        for(TimerWheel<ScheduledAction> wheel : wheels) {
+            synchronized(wheel) {
+                wheel.advance(now, due::add);
+            }
+        }
+
+        for(TimerWheel.Timeout<ScheduledAction> timeout : due) {
+            ScheduledAction action = timeout.getValue();
+            //Cancelled or replaced (same id, like a new mute) after it was taken off the wheel, so leave the new one alone.
+            if(!pending.remove(action.getId(), timeout))
+                continue;
+
+            run(action, now);
+        }
+    }
+
+    private void run(ScheduledAction action, long now) {
+        Handler handler = handlers.get(action.getType());
+        try {
+            if(handler != null && !handler.handle(action)) {
+                //Only retried in memory, if the bot restarts before that it'll get loaded again as it's still on the table.
+                add(action, now + RETRY_DELAY);
+                return;
+            }
+        } catch(Exception e) {
+            log.error("Error running scheduled action {}", action.getId(), e);
+        }
+
+        //If it got replaced while it was running, the new one stays on the table.
+        MantaroData.db().deleteScheduledAction(action);
+    }
+
+    private void load() {
+        try {
+            long from = loadedUntil;
+            long until = System.currentTimeMillis() + HORIZON;
+            List<ScheduledAction> actions = MantaroData.db().getScheduledActions(from, until);
+            for(ScheduledAction action : actions) {
+                add(action, action.getTime());
+            }
+
+            loadedUntil = until;
+            log.debug("Loaded {} scheduled actions, {} pending", actions.size(), pending.size());
+        } catch(Exception e) {
+            log.error("Error loading scheduled actions", e);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private void migrate() {
+        try {
+            ManagedDatabase db = MantaroData.db();
+            MantaroObj obj = db.getMantaroData();
+            Map<Long, Pair<String, Long>> mutes = obj.getMutes();
+            Map<String, Long> tempBans = obj.getTempBans();
+            if((mutes == null || mutes.isEmpty()) && (tempBans == null || tempBans.isEmpty()))
+                return;
+
+            if(mutes != null) {
+                mutes.forEach((userId, mute) -> db.saveScheduledAction(
+                        ScheduledAction.of(ScheduledAction.Type.UNMUTE, mute.getLeft(), String.valueOf(userId), mute.getRight())));
+                mutes.clear();
+            }
+
+            //guildId:userId -> time
+            if(tempBans != null) {
+                tempBans.forEach((key, time) -> {
+                    String[] parts = key.split(":");
+                    db.saveScheduledAction(ScheduledAction.of(ScheduledAction.Type.UNBAN, parts[0], parts[1], time));
+                });
+                tempBans.clear();
+            }
+
+            obj.save();
+            log.info("Moved pending mutes and temporary bans to the {} table", ScheduledAction.DB_TABLE);
+        } catch(Exception e) {
+            log.error("Error moving mutes and temporary bans to the {} table", ScheduledAction.DB_TABLE, e);
+        }
+    }
+
+    @FunctionalInterface
+    public interface Handler {
+        /**
+         * Runs a due action.
+         *
+         * @return False if it can't be run right now and should be tried again later, true if it's done (or can never be done).
+         */
+        boolean handle(ScheduledAction action);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2016-2018 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ */
+
+
+package net.kodehawa.mantarobot.services;
+
+import gnu.trove.set.hash.TLongHashSet;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import net.kodehawa.mantarobot.data.MantaroData;
+import net.kodehawa.mantarobot.db.ManagedDatabase;
+import net.kodehawa.mantarobot.db.entities.BlacklistEntry;
+import net.kodehawa.mantarobot.db.entities.MantaroObj;
+
+import java.util.List;
+
+/**
+ * Blacklisted users and guilds, kept in memory so checking them (which happens on every command) doesn't need the database.
+ * <p>
+ * The entries live on their own table, one row each. Here they're kept as primitive sets that are never modified once published:
+ * changes copy the set and swap it, so reading doesn't need any locking. The sets get reloaded from the table every so often
+ * (see {@link #refresh()}), which picks up changes done by other nodes.
+ */
+@Slf4j
+public class BlacklistService {
+    @Getter
+    private static final BlacklistService instance = new BlacklistService();
+
+    private volatile TLongHashSet users = new TLongHashSet();
+    private volatile TLongHashSet guilds = new TLongHashSet();
+    private volatile boolean migrated;
+
+    private BlacklistService() {}
+
+    public boolean isBlacklistedUser(long userId) {
+        return users.contains(userId);
+    }
+
+    public boolean isBlacklistedUser(String userId) {
+        return isBlacklistedUser(parse(userId));
+    }
+
+    public boolean isBlacklistedGuild(long guildId) {
+        return guilds.contains(guildId);
+    }
+
+    public boolean isBlacklistedGuild(String guildId) {
+        return isBlacklistedGuild(parse(guildId));
+    }
+
+    /**
+     * Blacklists an user or a guild.
+     *
+     * @return False if it was already blacklisted.
+     */
+    public synchronized boolean add(BlacklistEntry.Type type, String id) {
+        long parsed = parse(id);
+        TLongHashSet set = new TLongHashSet(type == BlacklistEntry.Type.USER ? users : guilds);
+        if(parsed == 0 || !set.add(parsed))
+            return false;
+
+        MantaroData.db().saveBlacklistEntry(BlacklistEntry.of(type, id));
+        publish(type, set);
+        return true;
+    }
+
+    /**
+     * Removes an user or a guild from the blacklist.
+     *
+     * The row is always deleted, as it could have been added by another process after this one loaded the sets.
+     *
+     * @return False if it wasn't blacklisted as far as this process knows.
+     */
+    public synchronized boolean remove(BlacklistEntry.Type type, String id) {
+        MantaroData.db().deleteBlacklistEntry(BlacklistEntry.id(type, id));
+
+        TLongHashSet set = new TLongHashSet(type == BlacklistEntry.Type.USER ? users : guilds);
+        if(!set.remove(parse(id)))
+            return false;
+
+        publish(type, set);
+        return true;
+    }
+
+    /**
+     * Reloads the blacklist from the database. The first time, this also moves the blacklist stored on {@link MantaroObj} to its own table.
+     */
+    public synchronized void refresh() {
+        try {
+            TLongHashSet newUsers = new TLongHashSet();
+            TLongHashSet newGuilds = new TLongHashSet();
+            //Migrated entries might not be readable from the table yet, so they go straight to the sets.
+            if(!migrated) {
+                migrate(newUsers, newGuilds);
+                migrated = true;
+            }
+
+            for(BlacklistEntry entry : MantaroData.db().getBlacklist()) {
+                long id = parse(entry.getTargetId());
+                if(id == 0)
+                    continue;
+
+                if(entry.getType() == BlacklistEntry.Type.USER)
+                    newUsers.add(id);
+                else
+                    newGuilds.add(id);
+            }
+
+            if(!newUsers.equals(users) || !newGuilds.equals(guilds))
+                log.info("Blacklist changed, now with {} users and {} guilds", newUsers.size(), newGuilds.size());
+
+            users = newUsers;
+            guilds = newGuilds;
+        } catch(Exception e) {
+            log.error("Error refreshing blacklist", e);
+        }
+    }
+
+    private void publish(BlacklistEntry.Type type, TLongHashSet set) {
+        if(type == BlacklistEntry.Type.USER)
+            users = set;
+        else
+            guilds = set;
+    }
+
+    @SuppressWarnings("deprecation")
+    private void migrate(TLongHashSet newUsers, TLongHashSet newGuilds) {
+        ManagedDatabase db = MantaroData.db();
+        MantaroObj obj = db.getMantaroData();
+        List<String> oldUsers = obj.getBlackListedUsers();
+        List<String> oldGuilds = obj.getBlackListedGuilds();
+        if((oldUsers == null || oldUsers.isEmpty()) && (oldGuilds == null || oldGuilds.isEmpty()))
+            return;
+
+        if(oldUsers != null) {
+            oldUsers.forEach(id -> {
+                db.saveBlacklistEntry(BlacklistEntry.of(BlacklistEntry.Type.USER, id));
+                newUsers.add(parse(id));
+            });
+            oldUsers.clear();
+        }
+
+        if(oldGuilds != null) {
+            oldGuilds.forEach(id -> {
+                db.saveBlacklistEntry(BlacklistEntry.of(BlacklistEntry.Type.GUILD, id));
+                newGuilds.add(parse(id));
+            });
+            oldGuilds.clear();
+        }
+
+        obj.save();
+        log.info("Moved the blacklist to the {} table", BlacklistEntry.DB_TABLE);
+    }
+
+    private static long parse(String id) {
+        try {
+            return Long.parseLong(id);
+        } catch(NumberFormatException e) {
+            return 0;
+        }
+    }
+}
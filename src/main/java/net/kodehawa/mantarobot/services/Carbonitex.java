@@ -17,7 +17,7 @@
 package net.kodehawa.mantarobot.services;
 
 import lombok.extern.slf4j.Slf4j;
-import net.kodehawa.mantarobot.MantaroBot;
+import net.kodehawa.mantarobot.core.shard.ShardStats;
 import okhttp3.*;
 
 import static net.kodehawa.mantarobot.data.MantaroData.config;
@@ -29,7 +29,7 @@ public class Carbonitex {
 
     public void handle() {
         if(carbonToken != null) {
-            long newC = MantaroBot.getInstance().getGuildCache().size();
+            long newC = ShardStats.getTotalGuilds();
             try {
                 RequestBody body = new FormBody.Builder()
                         .add("key", carbonToken)
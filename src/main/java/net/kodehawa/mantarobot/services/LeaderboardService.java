@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2016-2018 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ */
+
+package net.kodehawa.mantarobot.services;
+
+import com.rethinkdb.model.OptArgs;
+import com.rethinkdb.net.Cursor;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import net.kodehawa.mantarobot.data.MantaroData;
+import net.kodehawa.mantarobot.db.entities.Player;
+
+import java.util.*;
+import java.util.function.ToLongFunction;
+
+import static com.rethinkdb.RethinkDB.r;
+
+/**
+ * In-memory global leaderboards, so the leaderboard and rank commands don't have to sort the whole players table on every call.
+ * <p>
+ * Every {@link Metric} keeps the top {@link #TOP_SIZE} players, updated as players get saved, and a sorted snapshot of every score
+ * used to estimate the rank of anyone else. Both get rebuilt from the database every so often (see {@link #rebuild()}), which also fixes
+ * anything the incremental updates can't see, like a top player losing their spot to someone that wasn't saved since the last rebuild.
+ */
+@Slf4j
+public class LeaderboardService {
+    public static final int TOP_SIZE = 100;
+    @Getter
+    private static final LeaderboardService instance = new LeaderboardService();
+
+    private final Board[] boards = new Board[Metric.values().length];
+    //Set after the first rebuild finishes, before that we don't know anything.
+    @Getter
+    private volatile boolean loaded;
+
+    private LeaderboardService() {
+        for(Metric metric : Metric.values()) {
+            boards[metric.ordinal()] = new Board();
+        }
+    }
+
+    /**
+     * Reflects a player that just got saved on the top lists. Called from {@link net.kodehawa.mantarobot.db.ManagedDatabase}.
+     *
+     * @param player The saved player.
+     */
+    public void update(Player player) {
+        long userId = userId(player.getId());
+        if(userId == 0)
+            return;
+
+        for(Metric metric : Metric.values()) {
+            boards[metric.ordinal()].update(new Entry(userId, metric.score.applyAsLong(player), metric.extra.applyAsLong(player)));
+        }
+    }
+
+    /**
+     * @param metric The metric to sort by.
+     * @param amount How many entries to return, at most {@link #TOP_SIZE}.
+     * @return The best players on that metric, best first.
+     */
+    public List<Entry> getTop(Metric metric, int amount) {
+        return boards[metric.ordinal()].top(amount);
+    }
+
+    /**
+     * Estimates the global position of a score, as of the last rebuild.
+     *
+     * @param metric The metric the score is from.
+     * @param score  The score of the player.
+     * @return The position, starting at 1.
+     */
+    public long getRank(Metric metric, long score) {
+        return boards[metric.ordinal()].rank(score);
+    }
+
+    /**
+     * @return How many players there were on the last rebuild.
+     */
+    public long getCount() {
+        return boards[0].count();
+    }
+
+    /**
+     * Reads every player from the database and rebuilds all the boards. Meant to be run periodically on a background thread.
+     */
+    @SuppressWarnings("unchecked")
+    public void rebuild() {
+        long start = System.currentTimeMillis();
+        int metrics = Metric.values().length;
+        TLongArrayList[] scores = new TLongArrayList[metrics];
+        List<PriorityQueue<Entry>> tops = new ArrayList<>(metrics);
+        for(int i = 0; i < metrics; i++) {
+            scores[i] = new TLongArrayList();
+            //Worst entry on the head, so it can be dropped once there's something better.
+            tops.add(new PriorityQueue<>(TOP_SIZE + 1, Entry.ORDER.reversed()));
+        }
+
+        try(Cursor<Map> cursor = r.table(Player.DB_TABLE)
+                .filter(player -> player.g("id").match(":g$"))
+                .map(player -> player.pluck("id", "money", "level", "reputation", r.hashMap("data", r.array("experience", "dailyStrike"))))
+                .run(MantaroData.conn(), OptArgs.of("read_mode", "outdated"))) {
+            for(Map map : cursor) {
+                long userId = userId(String.valueOf(map.get("id")));
+                if(userId == 0)
+                    continue;
+
+                Map data = map.get("data") instanceof Map ? (Map) map.get("data") : Collections.emptyMap();
+                long[] values = {
+                        number(map.get("money")), number(map.get("level")), number(map.get("reputation")), number(data.get("dailyStrike"))
+                };
+                long experience = number(data.get("experience"));
+
+                for(Metric metric : Metric.values()) {
+                    int i = metric.ordinal();
+                    scores[i].add(values[i]);
+
+                    PriorityQueue<Entry> top = tops.get(i);
+                    top.add(new Entry(userId, values[i], metric == Metric.LEVEL ? experience : 0));
+                    if(top.size() > TOP_SIZE)
+                        top.poll();
+                }
+            }
+        } catch(Exception e) {
+            log.error("Error rebuilding leaderboards", e);
+            return;
+        }
+
+        for(Metric metric : Metric.values()) {
+            int i = metric.ordinal();
+            long[] sorted = scores[i].toArray();
+            Arrays.sort(sorted);
+            boards[i].replace(tops.get(i), sorted);
+        }
+
+        loaded = true;
+        log.info("Rebuilt leaderboards with {} players in {}ms", boards[0].count(), System.currentTimeMillis() - start);
+    }
+
+    private static long number(Object o) {
+        return o instanceof Number ? ((Number) o).longValue() : 0;
+    }
+
+    //Player ids are userId:g
+    private static long userId(String id) {
+        int index = id.indexOf(':');
+        if(index == -1 || !id.endsWith(":g"))
+            return 0;
+
+        try {
+            return Long.parseLong(id.substring(0, index));
+        } catch(NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    public enum Metric {
+        MONEY(Player::getMoney, player -> 0),
+        LEVEL(Player::getLevel, player -> player.getData().getExperience()),
+        REPUTATION(Player::getReputation, player -> 0),
+        STREAK(player -> player.getData().getDailyStreak(), player -> 0);
+
+        private final ToLongFunction<Player> score;
+        //Only used to break ties, and shown next to the level.
+        private final ToLongFunction<Player> extra;
+
+        Metric(ToLongFunction<Player> score, ToLongFunction<Player> extra) {
+            this.score = score;
+            this.extra = extra;
+        }
+    }
+
+    @Getter
+    public static class Entry {
+        private static final Comparator<Entry> ORDER = Comparator.comparingLong(Entry::getScore).reversed()
+                .thenComparing(Comparator.comparingLong(Entry::getExtra).reversed())
+                .thenComparingLong(Entry::getUserId);
+
+        private final long userId;
+        private final long score;
+        private final long extra;
+
+        Entry(long userId, long score, long extra) {
+            this.userId = userId;
+            this.score = score;
+            this.extra = extra;
+        }
+    }
+
+    private static class Board {
+        private final TreeSet<Entry> top = new TreeSet<>(Entry.ORDER);
+        private final TLongObjectHashMap<Entry> byUser = new TLongObjectHashMap<>();
+        //Every score as of the last rebuild, ascending.
+        private long[] snapshot = new long[0];
+
+        synchronized void update(Entry entry) {
+            Entry old = byUser.remove(entry.userId);
+            if(old != null)
+                top.remove(old);
+
+            //If this player was on the top it stays there even if it went down, only a rebuild knows who should replace it.
+            if(old == null && top.size() >= TOP_SIZE && Entry.ORDER.compare(entry, top.last()) >= 0)
+                return;
+
+            top.add(entry);
+            byUser.put(entry.userId, entry);
+
+            if(top.size() > TOP_SIZE)
+                byUser.remove(top.pollLast().userId);
+        }
+
+        synchronized List<Entry> top(int amount) {
+            List<Entry> list = new ArrayList<>(Math.min(amount, top.size()));
+            for(Entry entry : top) {
+                if(list.size() >= amount)
+                    break;
+                list.add(entry);
+            }
+            return list;
+        }
+
+        synchronized long rank(long score) {
+            //Amount of scores strictly greater than this one.
+            int low = 0, high = snapshot.length;
+            while(low < high) {
+                int mid = (low + high) >>> 1;
+                if(snapshot[mid] <= score) low = mid + 1;
+                else high = mid;
+            }
+            return snapshot.length - low + 1;
+        }
+
+        synchronized long count() {
+            return snapshot.length;
+        }
+
+        synchronized void replace(Collection<Entry> entries, long[] snapshot) {
+            top.clear();
+            byUser.clear();
+            for(Entry entry : entries) {
+                top.add(entry);
+                byUser.put(entry.userId, entry);
+            }
+            this.snapshot = snapshot;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2016-2018 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ */
+
+package net.kodehawa.mantarobot.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts how many times something happens per second over the last minute, in a ring of one second buckets.
+ * <p>
+ * Recording is a couple of atomic operations and never allocates. A bucket gets cleared by the first thread to record on it once its
+ * second is over, so a few counts can get lost if that races with another thread, which is fine for monitoring.
+ */
+public class RateMeter {
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    //The second each bucket is currently counting.
+    private final AtomicLongArray seconds = new AtomicLongArray(BUCKETS);
+
+    public void record(long now) {
+        long second = now / 1000;
+        int index = (int) (second & (BUCKETS - 1));
+        long current = seconds.get(index);
+        if(current != second && seconds.compareAndSet(index, current, second))
+            counts.set(index, 0);
+
+        counts.incrementAndGet(index);
+    }
+
+    /**
+     * @param window How many seconds to average over, up to a minute. The current second isn't counted, as it isn't over yet.
+     * @return The average amount per second.
+     */
+    public double rate(long now, int window) {
+        window = Math.max(1, Math.min(window, 60));
+        long second = now / 1000;
+        long total = 0;
+        for(long s = second - window; s < second; s++) {
+            int index = (int) (s & (BUCKETS - 1));
+            if(seconds.get(index) == s)
+                total += counts.get(index);
+        }
+        return (double) total / window;
+    }
+}
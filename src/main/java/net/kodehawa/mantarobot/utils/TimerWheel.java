@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2016-2018 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ */
+
+package net.kodehawa.mantarobot.utils;
+
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel: {@link #LEVELS} wheels of {@link #SLOTS} slots each, where every slot of a level spans a whole turn of the level
+ * below it. Timeouts are kept in doubly linked lists, so adding and cancelling them is O(1), and advancing only touches the slots that are due,
+ * moving (cascading) the timeouts of a higher level slot down once its turn comes.
+ * <p>
+ * With a 1 second tick this covers over 190 days, timeouts further away than that just get cascaded again until they're close enough.
+ * This class isn't thread safe, callers have to synchronize on it.
+ *
+ * @param <T> The type of the values scheduled on this wheel.
+ */
+public class TimerWheel<T> {
+    private static final int LEVELS = 4;
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final long MAX_DELAY = (1L << (SLOT_BITS * LEVELS)) - 1;
+
+    private final long tick;
+    //Sentinel of the list of every slot.
+    private final Timeout<T>[][] slots;
+    private long currentTick;
+    private int size;
+
+    /**
+     * @param tick How long a tick is, in milliseconds. Timeouts fire on the first tick at or after their deadline.
+     * @param now  The current time, in milliseconds.
+     */
+    @SuppressWarnings("unchecked")
+    public TimerWheel(long tick, long now) {
+        this.tick = tick;
+        this.currentTick = now / tick;
+        this.slots = new Timeout[LEVELS][SLOTS];
+        for(int level = 0; level < LEVELS; level++) {
+            for(int slot = 0; slot < SLOTS; slot++) {
+                Timeout<T> sentinel = new Timeout<>(null, 0);
+                sentinel.previous = sentinel.next = sentinel;
+                slots[level][slot] = sentinel;
+            }
+        }
+    }
+
+    /**
+     * Schedules a value.
+     *
+     * @param value    The value to schedule.
+     * @param deadline When it should fire, in milliseconds. Deadlines in the past fire on the next tick.
+     * @return A handle that can be used to cancel it.
+     */
+    public Timeout<T> add(T value, long deadline) {
+        Timeout<T> timeout = new Timeout<>(value, deadline);
+        place(timeout);
+        size++;
+        return timeout;
+    }
+
+    /**
+     * Cancels a timeout, if it didn't fire already.
+     *
+     * @return Whether the timeout was still pending.
+     */
+    public boolean cancel(Timeout<T> timeout) {
+        if(timeout.next == null)
+            return false;
+
+        unlink(timeout);
+        size--;
+        return true;
+    }
+
+    /**
+     * Advances the wheel up to the specified time, firing everything that's due.
+     *
+     * @param now     The current time, in milliseconds.
+     * @param expired Receives every timeout whose deadline passed.
+     */
+    public void advance(long now, Consumer<Timeout<T>> expired) {
+        long target = now / tick;
+        while(currentTick < target) {
+            currentTick++;
+
+            //Cascade every level whose turn just started, highest first, so timeouts can fall down more than one level on the same tick.
+            int levels = 0;
+            while(levels < LEVELS - 1 && ((currentTick >>> (SLOT_BITS * levels)) & MASK) == 0)
+                levels++;
+            for(int level = levels; level > 0; level--) {
+                cascade(level, (int) ((currentTick >>> (SLOT_BITS * level)) & MASK));
+            }
+
+            Timeout<T> sentinel = slots[0][(int) (currentTick & MASK)];
+            while(sentinel.next != sentinel) {
+                Timeout<T> timeout = sentinel.next;
+                unlink(timeout);
+                size--;
+                expired.accept(timeout);
+            }
+        }
+    }
+
+    /**
+     * @return How many timeouts are pending.
+     */
+    public int size() {
+        return size;
+    }
+
+    private void cascade(int level, int slot) {
+        Timeout<T> sentinel = slots[level][slot];
+        Timeout<T> timeout = sentinel.next;
+        sentinel.previous = sentinel.next = sentinel;
+        while(timeout != sentinel) {
+            Timeout<T> next = timeout.next;
+            place(timeout);
+            timeout = next;
+        }
+    }
+
+    private void place(Timeout<T> timeout) {
+        long deadline = Math.max(timeout.deadline / tick, currentTick + 1);
+        long delay = Math.min(deadline - currentTick, MAX_DELAY);
+        deadline = currentTick + delay;
+
+        int level = 0;
+        while(level < LEVELS - 1 && delay >= 1L << (SLOT_BITS * (level + 1)))
+            level++;
+
+        Timeout<T> sentinel = slots[level][(int) ((deadline >>> (SLOT_BITS * level)) & MASK)];
+        timeout.previous = sentinel.previous;
+        timeout.next = sentinel;
+        sentinel.previous.next = timeout;
+        sentinel.previous = timeout;
+    }
+
+    private static <T> void unlink(Timeout<T> timeout) {
+        timeout.previous.next = timeout.next;
+        timeout.next.previous = timeout.previous;
+        timeout.previous = timeout.next = null;
+    }
+
+    public static final class Timeout<T> {
+        private final T value;
+        private final long deadline;
+        private Timeout<T> previous;
+        private Timeout<T> next;
+
+        private Timeout(T value, long deadline) {
+            this.value = value;
+            this.deadline = deadline;
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        public long getDeadline() {
+            return deadline;
+        }
+    }
+}
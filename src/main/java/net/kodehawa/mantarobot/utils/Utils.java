@@ -570,6 +570,10 @@ public class Utils {
         }
     }
 
+    /**
+     * Opens a new connection, which the caller has to close. Use {@link MantaroData#pool()} instead unless you really need your own connection.
+     */
+    @Deprecated
     public static Connection newDbConnection() {
         return r.connection().hostname(config.dbHost).port(config.dbPort).db(config.dbDb).user(config.dbUser, config.dbPassword).connect();
     }
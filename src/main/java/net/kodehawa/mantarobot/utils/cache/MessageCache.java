@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2016-2018 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ */
+
+package net.kodehawa.mantarobot.utils.cache;
+
+import gnu.trove.map.hash.TLongLongHashMap;
+import net.kodehawa.mantarobot.core.listeners.entities.CachedMessage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Byte-bounded message cache used for edit and delete logs.
+ * <p>
+ * Messages are appended to a ring buffer as {@code [message id][author id][length][UTF-8 content]} records, optionally allocated off-heap,
+ * and a primitive map keeps the absolute position every message id was written at. Once the buffer wraps around old records just get
+ * overwritten: a lookup checks that the record wasn't overwritten yet, and the stale ids are swept out of the index every so often.
+ */
+public class MessageCache {
+    private static final int HEADER_SIZE = 8 + 8 + 4;
+    //Discord messages are at most 2000 characters, which is at most 6000 UTF-8 bytes.
+    private static final int MAX_CONTENT_SIZE = 6000;
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+    //message id -> absolute position (total bytes written before it) of its record.
+    private final TLongLongHashMap index = new TLongLongHashMap();
+    private long written;
+    private int sweepAt = 1024;
+
+    /**
+     * @param capacity How many bytes to keep messages in.
+     * @param offHeap  Whether to allocate the buffer outside of the java heap.
+     */
+    public MessageCache(int capacity, boolean offHeap) {
+        if(capacity < HEADER_SIZE + MAX_CONTENT_SIZE)
+            throw new IllegalArgumentException("Capacity must be at least " + (HEADER_SIZE + MAX_CONTENT_SIZE) + " bytes");
+
+        this.capacity = capacity;
+        this.buffer = offHeap ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    public synchronized void put(long messageId, long authorId, String content) {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, MAX_CONTENT_SIZE);
+        int size = HEADER_SIZE + length;
+
+        int position = (int) (written % capacity);
+        //Records never wrap around, skip to the start of the buffer if this one doesn't fit at the end.
+        if(position + size > capacity) {
+            written += capacity - position;
+            position = 0;
+        }
+
+        buffer.putLong(position, messageId);
+        buffer.putLong(position + 8, authorId);
+        buffer.putInt(position + 16, length);
+        for(int i = 0; i < length; i++) {
+            buffer.put(position + HEADER_SIZE + i, bytes[i]);
+        }
+
+        index.put(messageId, written);
+        written += size;
+
+        if(index.size() >= sweepAt) {
+            long oldest = written - capacity;
+            index.retainEntries((id, at) -> at >= oldest);
+            sweepAt = Math.max(1024, index.size() * 2);
+        }
+    }
+
+    /**
+     * @return The cached message, or null if it isn't cached or was already overwritten.
+     */
+    public synchronized CachedMessage get(long messageId) {
+        if(!index.containsKey(messageId))
+            return null;
+
+        long at = index.get(messageId);
+        //Something newer got written over it.
+        if(written - at > capacity) {
+            index.remove(messageId);
+            return null;
+        }
+
+        int position = (int) (at % capacity);
+        if(buffer.getLong(position) != messageId)
+            return null;
+
+        int length = buffer.getInt(position + 16);
+
+        byte[] bytes = new byte[length];
+        for(int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(position + HEADER_SIZE + i);
+        }
+
+        return new CachedMessage(buffer.getLong(position + 8), new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return How many messages are indexed, including some that might have been overwritten already.
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+}
@@ -16,71 +16,69 @@
 
 package net.kodehawa.mantarobot.utils.commands;
 
+import gnu.trove.map.hash.TLongObjectHashMap;
 import net.dv8tion.jda.core.entities.Member;
 import net.dv8tion.jda.core.entities.User;
 import net.kodehawa.mantarobot.data.MantaroData;
 
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 public class NewRateLimiter {
-    private final ReferenceCountedMap map = new ReferenceCountedMap();
-    private final ScheduledExecutorService executor;
+    private final RateLimitTable table;
     private int limit = 1;
     private final long timeoutMillis;
     private final long delta;
     private boolean isPremiumAware = false;
     private final int spamThreshold;
 
-    public NewRateLimiter(ScheduledExecutorService executor, int limit, int spamThreshold, long timeoutMillis, long delta) {
-        this.executor = executor;
+    public NewRateLimiter(int limit, int spamThreshold, long timeoutMillis, long delta) {
         this.limit = limit;
         this.spamThreshold = spamThreshold;
         this.timeoutMillis = timeoutMillis;
         this.delta = delta;
+        this.table = new RateLimitTable(limit);
     }
 
-    public NewRateLimiter(ScheduledExecutorService executor, int limit, int spamThreshold, long timeout, TimeUnit unit, long delta) {
-        this.executor = executor;
+    public NewRateLimiter(int limit, int spamThreshold, long timeout, TimeUnit unit, long delta) {
         this.limit = limit;
         this.spamThreshold = spamThreshold;
         this.timeoutMillis = unit.toMillis(timeout);
         this.delta = delta;
+        this.table = new RateLimitTable(limit);
     }
 
-    public NewRateLimiter(ScheduledExecutorService executor, int spamThreshold, long timeout, TimeUnit unit, long delta) {
-        this.executor = executor;
+    public NewRateLimiter(int spamThreshold, long timeout, TimeUnit unit, long delta) {
         this.spamThreshold = spamThreshold;
         this.timeoutMillis = unit.toMillis(timeout);
         this.delta = delta;
+        this.table = new RateLimitTable(limit);
     }
 
-    public NewRateLimiter(ScheduledExecutorService executor, int limit, int spamThreshold, long timeout, TimeUnit unit, long delta, boolean isPremiumAware) {
-        this.executor = executor;
+    public NewRateLimiter(int limit, int spamThreshold, long timeout, TimeUnit unit, long delta, boolean isPremiumAware) {
         this.limit = limit;
         this.spamThreshold = spamThreshold;
         this.timeoutMillis = unit.toMillis(timeout);
         this.delta = delta;
         this.isPremiumAware = isPremiumAware;
+        this.table = new RateLimitTable(limit);
     }
 
-    public NewRateLimiter(ScheduledExecutorService executor, int spamThreshold, long timeout, TimeUnit unit, long delta, boolean isPremiumAware) {
-        this.executor = executor;
+    public NewRateLimiter(int spamThreshold, long timeout, TimeUnit unit, long delta, boolean isPremiumAware) {
         this.spamThreshold = spamThreshold;
         this.timeoutMillis = unit.toMillis(timeout);
         this.delta = delta;
         this.isPremiumAware = isPremiumAware;
+        this.table = new RateLimitTable(limit);
     }
 
-    public NewRateLimiter(ScheduledExecutorService executor, int limit, int spamThreshold, long timeoutMillis, long delta, boolean isPremiumAware) {
-        this.executor = executor;
+    public NewRateLimiter(int limit, int spamThreshold, long timeoutMillis, long delta, boolean isPremiumAware) {
         this.limit = limit;
         this.spamThreshold = spamThreshold;
         this.timeoutMillis = timeoutMillis;
         this.delta = delta;
         this.isPremiumAware = isPremiumAware;
+        this.table = new RateLimitTable(limit);
     }
 
     protected void onSpamDetected(String key, int times) {}
@@ -90,41 +88,48 @@ public class NewRateLimiter {
     }
 
     public boolean test(String key) {
-        if(executor.isShutdown()) {
-            throw new IllegalStateException("The executor has been shut down! No ratelimits can be processed");
-        }
-
         boolean isPremium = isPremiumAware && MantaroData.db().getUser(key).isPremium();
-        ReferenceCountedLimit l = map.get(key);
-        if(l.times >= limit) {
-            l.attemptsAfterRateLimited++;
-            l.referenceCount--;
-            if(l.attemptsAfterRateLimited >= spamThreshold) {
-                onSpamDetected(key, l.attemptsAfterRateLimited);
+        long coolDown = getCoolDown(key);
+        long id = RateLimitTable.key(key);
+        long now = System.currentTimeMillis();
+        int spamAttempts;
+
+        TLongObjectHashMap<RateLimitTable.Entry> stripe = table.stripe(id);
+        synchronized(stripe) {
+            RateLimitTable.Entry l = table.getOrCreate(stripe, id, now);
+            //Any use expiring gives the user a clean slate regarding spam.
+            if(l.expire(now) > 0) {
+                l.attemptsAfterRateLimited = 0;
             }
-            return false;
-        }
 
-        long now = System.currentTimeMillis();
-        if(l.tryAgainIn < now) {
-            l.tryAgainIn = now + (isPremium ? (long) (timeoutMillis * 0.75) : timeoutMillis);
+            if(l.acquire(now + coolDown)) {
+                if(l.tryAgainAt < now) {
+                    l.tryAgainAt = now + (isPremium ? (long) (timeoutMillis * 0.75) : timeoutMillis);
+                }
+
+                return true;
+            }
+
+            spamAttempts = ++l.attemptsAfterRateLimited;
         }
 
-        executor.schedule(() -> {
-            map.dispose(key, l);
-            l.times--;
-            l.attemptsAfterRateLimited = 0;
-        }, getCoolDown(key), TimeUnit.MILLISECONDS);
+        if(spamAttempts >= spamThreshold) {
+            onSpamDetected(key, spamAttempts);
+        }
 
-        return ++l.times <= limit;
+        return false;
     }
 
     public long tryAgainIn(String key) {
-        ReferenceCountedLimit l = map.getDirect(key);
-        if(l == null)
-            return 0;
-
-        return Math.max(l.tryAgainIn - System.currentTimeMillis(), 0);
+        long id = RateLimitTable.key(key);
+        TLongObjectHashMap<RateLimitTable.Entry> stripe = table.stripe(id);
+        synchronized(stripe) {
+            RateLimitTable.Entry l = stripe.get(id);
+            if(l == null)
+                return 0;
+
+            return Math.max(l.tryAgainAt - System.currentTimeMillis(), 0);
+        }
     }
 
     public long tryAgainIn(Member key) {
@@ -134,45 +139,4 @@ public class NewRateLimiter {
     public long tryAgainIn(User key) {
         return tryAgainIn(key.getId());
     }
-
-    public ScheduledExecutorService getExecutor() {
-        return executor;
-    }
-
-    private static class ReferenceCountedMap {
-        private final ConcurrentHashMap<String, ReferenceCountedLimit> map = new ConcurrentHashMap<>();
-
-        ReferenceCountedLimit get(String key) {
-            return map.compute(key, (k,v)->{
-                if(v != null) {
-                    v.referenceCount++;
-                    return v;
-                }
-                return new ReferenceCountedLimit();
-            });
-        }
-
-        ReferenceCountedLimit getDirect(String key) {
-            return map.get(key);
-        }
-
-        void dispose(String key, ReferenceCountedLimit object) {
-            map.compute(key, (k,v)->{
-                if(v == object) {
-                    int i = --v.referenceCount;
-                    if(i <= 0) return null;
-                    return v;
-                }
-
-                return null;
-            });
-        }
-    }
-
-    private static class ReferenceCountedLimit {
-        int referenceCount = 1;
-        int times;
-        int attemptsAfterRateLimited;
-        long tryAgainIn;
-    }
 }
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2016-2018 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ */
+
+package net.kodehawa.mantarobot.utils.commands;
+
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+/**
+ * Timestamp-based storage shared by {@link RateLimiter} and {@link NewRateLimiter}.
+ * <p>
+ * Every key (an user id) has one slot per allowed use holding the time that use expires at, so a use is allowed if any slot is free or expired.
+ * Nothing gets scheduled: expired slots are cleared when the key is accessed again, and keys with no active uses are swept out of their stripe
+ * once it doubles in size. Keys are spread across striped primitive maps, each one guarded by its own lock.
+ */
+final class RateLimitTable {
+    private static final int STRIPES = 64;
+    private static final int MIN_SWEEP_SIZE = 256;
+
+    private final TLongObjectHashMap<Entry>[] stripes;
+    private final int[] sweepAt = new int[STRIPES];
+    private final int slots;
+
+    @SuppressWarnings("unchecked")
+    RateLimitTable(int slots) {
+        this.slots = Math.max(1, slots);
+        this.stripes = new TLongObjectHashMap[STRIPES];
+        for(int i = 0; i < STRIPES; i++) {
+            stripes[i] = new TLongObjectHashMap<>();
+            sweepAt[i] = MIN_SWEEP_SIZE;
+        }
+    }
+
+    /**
+     * Converts a key to its primitive form. Keys are user ids, but anything else still works through its hash.
+     */
+    static long key(String key) {
+        try {
+            return Long.parseLong(key);
+        } catch(NumberFormatException e) {
+            long h = 0xcbf29ce484222325L;
+            for(int i = 0; i < key.length(); i++) {
+                h ^= key.charAt(i);
+                h *= 0x100000001b3L;
+            }
+            return h;
+        }
+    }
+
+    /**
+     * @return The stripe that holds this key. Callers must synchronize on it while using any entry from it.
+     */
+    TLongObjectHashMap<Entry> stripe(long key) {
+        return stripes[(int) ((key ^ (key >>> 32)) & (STRIPES - 1))];
+    }
+
+    /**
+     * Gets the entry of a key, creating it if needed. Must be called while holding the lock of the stripe.
+     */
+    Entry getOrCreate(TLongObjectHashMap<Entry> stripe, long key, long now) {
+        Entry entry = stripe.get(key);
+        if(entry == null) {
+            int index = (int) ((key ^ (key >>> 32)) & (STRIPES - 1));
+            if(stripe.size() >= sweepAt[index]) {
+                stripe.retainEntries((k, e) -> !e.isIdle(now));
+                sweepAt[index] = Math.max(MIN_SWEEP_SIZE, stripe.size() * 2);
+            }
+
+            entry = new Entry(slots);
+            stripe.put(key, entry);
+        }
+
+        return entry;
+    }
+
+    /**
+     * @return How many keys are currently stored. Only meant for debugging, as it locks every stripe.
+     */
+    int size() {
+        int size = 0;
+        for(TLongObjectHashMap<Entry> stripe : stripes) {
+            synchronized(stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    static final class Entry {
+        final long[] expiries;
+        int attemptsAfterRateLimited;
+        long tryAgainAt;
+
+        Entry(int slots) {
+            this.expiries = new long[slots];
+        }
+
+        /**
+         * Clears every use that already expired.
+         *
+         * @return How many uses expired.
+         */
+        int expire(long now) {
+            int expired = 0;
+            for(int i = 0; i < expiries.length; i++) {
+                if(expiries[i] != 0 && expiries[i] <= now) {
+                    expiries[i] = 0;
+                    expired++;
+                }
+            }
+            return expired;
+        }
+
+        /**
+         * Takes a free slot, making it expire at the specified time.
+         *
+         * @return Whether there was a free slot.
+         */
+        boolean acquire(long expiresAt) {
+            for(int i = 0; i < expiries.length; i++) {
+                if(expiries[i] == 0) {
+                    expiries[i] = expiresAt;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return The time the earliest active use expires at, or 0 if there are none.
+         */
+        long earliestExpiry() {
+            long min = 0;
+            for(long expiry : expiries) {
+                if(expiry != 0 && (min == 0 || expiry < min))
+                    min = expiry;
+            }
+            return min;
+        }
+
+        boolean isIdle(long now) {
+            for(long expiry : expiries) {
+                if(expiry > now)
+                    return false;
+            }
+            return tryAgainAt <= now;
+        }
+    }
+}
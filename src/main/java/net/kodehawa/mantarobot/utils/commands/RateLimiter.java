@@ -16,16 +16,12 @@
 
 package net.kodehawa.mantarobot.utils.commands;
 
-import lombok.Getter;
+import gnu.trove.map.hash.TLongObjectHashMap;
 import net.dv8tion.jda.core.entities.Member;
 import net.dv8tion.jda.core.entities.User;
 import net.kodehawa.mantarobot.data.MantaroData;
 
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class defines the x ratelimit that will be taken into account when x user inputs a command.
@@ -35,16 +31,16 @@ import java.util.concurrent.atomic.AtomicInteger;
  * <p>
  * This class normally does the work of making abusable commands not-so abusable, like ~>loot. Also sorts daily or timely timeouts for other commands like daily and rep.
  * <p>
+ * Uses are tracked as expiry timestamps on a {@link RateLimitTable}, so nothing gets scheduled per call.
+ * <p>
  * Made by UmModderQualquier (Natan), modified by Kodehawa.
  *
  * @since 01-06-2017
  */
 public class RateLimiter {
-    private static final ScheduledExecutorService ses = Executors.newSingleThreadScheduledExecutor();
-    private final long max;
+    private final int max;
     private final long timeout;
-    @Getter
-    private final ConcurrentHashMap<String, Pair<AtomicInteger, Long>> usersRateLimited = new ConcurrentHashMap<>();
+    private final RateLimitTable usersRateLimited;
     private boolean isPremiumAware = false;
 
     /**
@@ -55,6 +51,7 @@ public class RateLimiter {
     public RateLimiter(TimeUnit timeUnit, int timeout) {
         this.max = 1;
         this.timeout = timeUnit.toMillis(timeout);
+        this.usersRateLimited = new RateLimitTable(max);
     }
 
     /**
@@ -67,6 +64,7 @@ public class RateLimiter {
         this.max = 1;
         this.isPremiumAware = isPremiumAware;
         this.timeout = timeUnit.toMillis(timeout);
+        this.usersRateLimited = new RateLimitTable(max);
     }
 
     /**
@@ -77,40 +75,42 @@ public class RateLimiter {
     public RateLimiter(TimeUnit timeUnit, int max, int timeout) {
         this.max = max;
         this.timeout = timeUnit.toMillis(timeout);
+        this.usersRateLimited = new RateLimitTable(max);
     }
 
     //Basically where you get b1nzy'd.
     public boolean process(String key) {
         boolean isPremium = isPremiumAware && MantaroData.db().getUser(key).isPremium();
-        Pair<AtomicInteger, Long> p = usersRateLimited.get(key);
+        long timeout = isPremium ? (long) (this.timeout * 0.75) : this.timeout;
+        long id = RateLimitTable.key(key);
+        long now = System.currentTimeMillis();
 
-        //Put the user on the RL map if they aren't here already, but we already let him pass.
-        if(p == null) {
-            usersRateLimited.put(key, p = new Pair<>());
-            p.first = new AtomicInteger();
-        }
+        TLongObjectHashMap<RateLimitTable.Entry> stripe = usersRateLimited.stripe(id);
+        synchronized(stripe) {
+            RateLimitTable.Entry entry = usersRateLimited.getOrCreate(stripe, id, now);
+            entry.expire(now);
 
-        AtomicInteger a = p.first;
-        long i = a.get();
-        if(i >= max) return false;
+            //Every slot is taken by an use that hasn't expired yet.
+            if(!entry.acquire(now + timeout))
+                return false;
 
-        a.incrementAndGet();
-        long now = System.currentTimeMillis();
+            if(entry.tryAgainAt < now) {
+                entry.tryAgainAt = now + timeout;
+            }
 
-        Long tryAgain = p.second;
-        if(tryAgain == null || tryAgain < now) {
-            p.second = now + (isPremium ? (long) (timeout * 0.75) : timeout);
+            return true;
         }
-
-        ses.schedule(a::decrementAndGet, isPremium ? (long) (timeout * 0.75) : timeout, TimeUnit.MILLISECONDS);
-        return true;
     }
 
     //Method overload.
     public long tryAgainIn(String key) {
-        Pair<AtomicInteger, Long> p = usersRateLimited.get(key);
-        if(p == null || p.second == null) return 0;
-        return Math.max(p.second - System.currentTimeMillis(), 0);
+        long id = RateLimitTable.key(key);
+        TLongObjectHashMap<RateLimitTable.Entry> stripe = usersRateLimited.stripe(id);
+        synchronized(stripe) {
+            RateLimitTable.Entry entry = stripe.get(id);
+            if(entry == null) return 0;
+            return Math.max(entry.tryAgainAt - System.currentTimeMillis(), 0);
+        }
     }
 
     public long tryAgainIn(Member key) {
@@ -128,9 +128,4 @@ public class RateLimiter {
     public boolean process(Member member) {
         return process(member.getUser());
     }
-
-    private static class Pair<F, S> {
-        F first;
-        S second;
-    }
 }
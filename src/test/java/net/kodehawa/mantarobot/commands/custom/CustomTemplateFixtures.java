@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2016-2018 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ */
+
+package net.kodehawa.mantarobot.commands.custom;
+
+import br.com.brjdevs.java.utils.texts.MatcherUtils;
+import net.dv8tion.jda.core.OnlineStatus;
+import net.dv8tion.jda.core.Region;
+import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.entities.Member;
+import net.dv8tion.jda.core.entities.Message;
+import net.dv8tion.jda.core.entities.TextChannel;
+import net.dv8tion.jda.core.entities.User;
+import net.dv8tion.jda.core.events.message.guild.GuildMessageReceivedEvent;
+import net.dv8tion.jda.core.utils.cache.MemberCacheView;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * What the custom command tests and benchmarks (src/jmh) run templates with: an event from a guild with three members, and the resolver
+ * {@link CustomTemplate} replaced.
+ */
+public class CustomTemplateFixtures {
+    private static final Pattern GETTER_MODIFIER = Pattern.compile("@[a-z]+\\{.*?}"),
+            FUNCNAME = Pattern.compile("\\{"),
+            SPLITTER = Pattern.compile(";", Pattern.LITERAL);
+
+    /**
+     * @param content The raw content of the message, command name included.
+     * @return An event for that message. The entities are proxies that only answer the getters custom commands use.
+     */
+    public static GuildMessageReceivedEvent event(String content) {
+        User author = entity(User.class, "getName", "Kodehawa", "getDiscriminator", "0001", "getId", "155867458203287552",
+                "getIdLong", 155867458203287552L, "getEffectiveAvatarUrl", "https://cdn.discordapp.com/avatars/155867458203287552/a.png");
+        User self = entity(User.class, "getName", "Mantaro", "getDiscriminator", "2468", "getId", "213466096718708737",
+                "getIdLong", 213466096718708737L, "getEffectiveAvatarUrl", "https://cdn.discordapp.com/avatars/213466096718708737/b.png");
+        Member member = member(author, "Kode");
+        Member selfMember = member(self, "Mantaro");
+
+        Guild guild = entity(Guild.class, "getName", "Mantaro Hub", "getOwner", member, "getRegion", Region.BRAZIL,
+                "getMember", member, "getSelfMember", selfMember,
+                "getMembers", Arrays.asList(member, selfMember, entity(Member.class)),
+                "getMemberCache", entity(MemberCacheView.class, "size", 3L));
+        TextChannel channel = entity(TextChannel.class, "getGuild", guild, "getAsMention", "<#213468583252983809>",
+                "getTopic", "General chat; be nice", "getName", "general", "getId", "213468583252983809", "getIdLong", 213468583252983809L);
+        Message message = entity(Message.class, "getIdLong", 1L, "getAuthor", author, "getMember", member, "getGuild", guild,
+                "getTextChannel", channel, "getChannel", channel,
+                "getContentRaw", content, "getContentDisplay", content, "getContentStripped", content);
+
+        return new GuildMessageReceivedEvent(null, 0, message);
+    }
+
+    /**
+     * What CustomCmds used to run on every response: {@link Mapifier#dynamicResolve} with every variable, and then the regex based
+     * ConditionalCustoms#resolve.
+     */
+    public static String legacyResolve(String response, GuildMessageReceivedEvent event) {
+        if(response.contains("$(")) {
+            Map<String, String> dynamicMap = new HashMap<>();
+            Mapifier.map("event", dynamicMap, event);
+            response = Mapifier.dynamicResolve(response, dynamicMap);
+        }
+
+        return resolve(response, 0);
+    }
+
+    private static String resolve(String string, int depth) {
+        if(!string.contains("@") || !string.contains("{") || !string.contains("}")) return string;
+        if(depth > 4) return string;
+
+        return MatcherUtils.replaceAll(GETTER_MODIFIER.matcher(string), s -> {
+            s = s.substring(1, s.length() - 1);
+
+            if(GETTER_MODIFIER.matcher(s).find())
+                s = resolve(s, depth + 1);
+
+            String[] parts = FUNCNAME.split(s, 2);
+
+            if(parts.length == 0)
+                return "`function name is empty`";
+
+            String name = parts[0];
+            Function<String[], String> f = ConditionalCustoms.getFunction(name);
+
+            if(f == null)
+                return "`" + s + " isn't a function`";
+
+            if(parts.length == 1) {
+                return f.apply(new String[0]);
+            }
+
+            return f.apply(SPLITTER.split(parts[1], -1));
+        });
+    }
+
+    private static Member member(User user, String name) {
+        return entity(Member.class, "getUser", user, "getAsMention", "<@" + user.getId() + ">", "getEffectiveName", name,
+                "getOnlineStatus", OnlineStatus.ONLINE);
+    }
+
+    //Answers the specified methods by name (name, value, name, value...), anything else returns null, 0 or false.
+    @SuppressWarnings("unchecked")
+    private static <T> T entity(Class<T> type, Object... getters) {
+        Map<String, Object> values = new HashMap<>();
+        for(int i = 0; i < getters.length; i += 2) {
+            values.put((String) getters[i], getters[i + 1]);
+        }
+
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            switch(method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return type.getSimpleName();
+            }
+
+            Object value = values.get(method.getName());
+            if(value != null || !method.getReturnType().isPrimitive())
+                return value;
+
+            Class<?> returnType = method.getReturnType();
+            if(returnType == boolean.class) return false;
+            if(returnType == long.class) return 0L;
+            if(returnType == int.class) return 0;
+            if(returnType == double.class) return 0D;
+            return null;
+        });
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2016-2018 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ */
+
+package net.kodehawa.mantarobot.commands.custom;
+
+import net.dv8tion.jda.core.events.message.guild.GuildMessageReceivedEvent;
+import org.junit.Test;
+
+import static net.kodehawa.mantarobot.commands.custom.CustomTemplateFixtures.legacyResolve;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * Runs {@link CustomTemplate} against the resolver it replaced ({@link CustomTemplateFixtures#legacyResolve}), over the kind of
+ * responses people actually write.
+ */
+public class CustomTemplateTest {
+    private static final GuildMessageReceivedEvent event = CustomTemplateFixtures.event("~>greet hello } world");
+
+    @Test
+    public void text() {
+        assertSameAsLegacy("Hello there!");
+        assertSameAsLegacy("{ not a call } @ {nor this}");
+        assertSameAsLegacy("@{a}");
+    }
+
+    @Test
+    public void variables() {
+        assertSameAsLegacy("Hi $(event.author.name), welcome to $(event.guild.name)! We're $(event.guild.totalusers) now.");
+        assertSameAsLegacy("$(event.author) said $(event.message) on $(event.channel) ($(event.channel.topic))");
+        assertSameAsLegacy("$(event.me.name)#$(event.me.discriminator) is $(event.me.status), $(event.author.game)");
+        assertSameAsLegacy("$(event.author.name) $(event.author.name) $(event.author.name)");
+    }
+
+    @Test
+    public void unknownVariables() {
+        assertSameAsLegacy("$(event.nope) and $(event.author.name)");
+        assertSameAsLegacy("$() $(event.author.name $(event author)");
+    }
+
+    @Test
+    public void calls() {
+        assertSameAsLegacy("@if{$(event.author.name);equals;Kode;yes;no}");
+        assertSameAsLegacy("@if{$(event.author.name);equals;Nope;yes}");
+        assertSameAsLegacy("@if{$(event.author.name);ignorecase-contains;KO;has ko;no ko} @ne{;;third} @nes{ ;  ;$(event.guild)}");
+        assertSameAsLegacy("Search: https://google.com/search?q=@url{$(event.author.name) is $(event.author.status)}");
+        assertSameAsLegacy("@if{a;nope;b;c} @if{a;equals}");
+    }
+
+    @Test
+    public void unknownFunctions() {
+        assertSameAsLegacy("@nope{a;b}");
+        assertSameAsLegacy("@ne{a} @nope{$(event.author.name)} @url{a b}");
+    }
+
+    @Test
+    public void unclosedBraces() {
+        assertSameAsLegacy("Use @ne{ like this");
+        assertSameAsLegacy("@if{a;equals;a;yes");
+        assertSameAsLegacy("@if{$(event.author.name);equals;Kode;yes;no");
+    }
+
+    @Test
+    public void nestedCalls() {
+        //The old resolver closed the outer call at the first '}', so nesting never worked there.
+        assertChanged("@if{@ne{;$(event.author.name)};equals;Kode;nested;flat}", "nested");
+        assertChanged("@ne{@ne{@ne{@ne{@ne{@ne{deep}}}}}}", "deep");
+        assertChanged("@if{a;equals;a;@url{x y};no} and @nope{z}", "x+y and `nope{z isn't a function`");
+    }
+
+    @Test
+    public void separatorsInVariableValues() {
+        //The old resolver replaced the variables first, so a ';' or '}' on the value was parsed as part of the call.
+        assertChanged("@ne{$(event.channel.topic)}", "General chat; be nice");
+        assertChanged("@if{$(event.message);contains;world;match;no match}", "match");
+    }
+
+    @Test
+    public void depthLimit() {
+        StringBuilder source = new StringBuilder();
+        for(int i = 0; i < 20; i++) source.append("@ne{");
+        source.append("x");
+        for(int i = 0; i < 20; i++) source.append("}");
+
+        //Calls past CustomTemplate.Parser.MAX_DEPTH are left as text.
+        assertEquals("@ne{@ne{@ne{@ne{x}}}}", CustomTemplate.compile(source.toString()).evaluate(event));
+    }
+
+    @Test(timeout = 2000)
+    public void deepUnclosedCallsAreLinear() {
+        StringBuilder source = new StringBuilder();
+        for(int i = 0; i < 100000; i++) source.append("@ne{@if{");
+
+        assertEquals(source.toString(), CustomTemplate.compile(source.toString()).evaluate(event));
+    }
+
+    private static void assertSameAsLegacy(String source) {
+        assertEquals(source, legacyResolve(source, event), CustomTemplate.compile(source).evaluate(event));
+    }
+
+    private static void assertChanged(String source, String expected) {
+        String legacy = legacyResolve(source, event);
+        assertNotEquals(source, legacy, expected);
+        assertEquals(source, expected, CustomTemplate.compile(source).evaluate(event));
+    }
+}